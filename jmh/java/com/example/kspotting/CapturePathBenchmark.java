@@ -0,0 +1,85 @@
+package com.example.kspotting;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo di un blocco acquisito (20 ms a 16 kHz) dalla memoria riempita dalla sorgente fino alla
+ * pubblicazione nel buffer circolare. Il passaggio della finestra al motore
+ * ({@code tensorAudio.load} dal buffer circolare) è lo stesso nei due percorsi e non è misurato.
+ *
+ * {@code arrayPath} riproduce il percorso precedente, non più presente nell'app: campioni in uno
+ * {@code short[]}, conversione in un frame float, preelaborazione del frame (se attiva) e copia
+ * nel buffer circolare. {@code directPath} legge dal buffer diretto in ordine nativo e converte in
+ * un solo passaggio nel buffer circolare, dove avviene anche la preelaborazione. La lettura dal
+ * driver audio è esclusa: in entrambi i casi è una copia nativa. Da eseguire con {@code -prof gc} per verificare che nessuno dei due allochi.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CapturePathBenchmark {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int CHUNK_SAMPLES = SAMPLE_RATE / 50;
+    private static final int WINDOW_SAMPLES = SAMPLE_RATE;
+
+    @Param({"false", "true"})
+    public boolean preprocess;
+
+    private short[] chunk;
+    private float[] frame;
+    private ShortBuffer directSamples;
+    private PcmRingBuffer ring;
+    private AudioPreprocessor preprocessor;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        chunk = new short[CHUNK_SAMPLES];
+        ByteBuffer direct = ByteBuffer.allocateDirect(CHUNK_SAMPLES * 2).order(ByteOrder.nativeOrder());
+        directSamples = direct.asShortBuffer();
+        for (int i = 0; i < CHUNK_SAMPLES; i++) {
+            chunk[i] = (short) (random.nextGaussian() * 3000);
+            directSamples.put(i, chunk[i]);
+        }
+        frame = new float[CHUNK_SAMPLES];
+        ring = new PcmRingBuffer(WINDOW_SAMPLES * 2);
+        preprocessor = preprocess ? new AudioPreprocessor(SAMPLE_RATE, AudioPreprocessor.ALL_STAGES, null) : null;
+    }
+
+    @Benchmark
+    public long arrayPath() {
+        for (int i = 0; i < CHUNK_SAMPLES; i++) {
+            frame[i] = chunk[i] * PcmRingBuffer.PCM_16BIT_SCALE;
+        }
+        if (preprocessor != null) {
+            preprocessor.process(frame, 0, CHUNK_SAMPLES);
+        }
+        ring.write(frame, 0, CHUNK_SAMPLES);
+        return ring.getWritePosition();
+    }
+
+    @Benchmark
+    public long directPath() {
+        ring.write(directSamples, CHUNK_SAMPLES, preprocessor);
+        return ring.getWritePosition();
+    }
+}
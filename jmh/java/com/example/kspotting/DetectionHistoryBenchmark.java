@@ -0,0 +1,66 @@
+package com.example.kspotting;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raggruppamento e taglio della cronologia delle rilevazioni, come eseguiti dal service
+ * a ogni decisione e dall'activity a ogni voce del log recente.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DetectionHistoryBenchmark {
+
+    private static final String[] LABELS = {"stop", "go", "_background_noise_", "off"};
+
+    /** Capacità della cronologia: 10 nell'activity, 50 nel service. */
+    @Param({"10", "50"})
+    public int capacity;
+
+    private DetectionHistory history;
+    private long timestampMs;
+    private int sequence;
+
+    @Setup
+    public void setUp() {
+        history = new DetectionHistory(capacity, 1000);
+        timestampMs = 0;
+        sequence = 0;
+        for (int i = 0; i < capacity; i++) {
+            history.record(LABELS[i % LABELS.length], 0.9f, timestampMs += 1500);
+        }
+    }
+
+    /**
+     * Rilevazione della stessa etichetta entro la finestra di raggruppamento: aggiorna la voce più recente.
+     */
+    @Benchmark
+    public boolean recordGrouped() {
+        timestampMs += 1;
+        return history.record(LABELS[0], 0.8f + (sequence++ & 7) * 0.01f, timestampMs);
+    }
+
+    /**
+     * Nuova voce oltre la finestra di raggruppamento: inserimento in testa e rimozione in coda.
+     */
+    @Benchmark
+    public boolean recordNewEntryAndTrim() {
+        timestampMs += 1500;
+        return history.record(LABELS[sequence++ % LABELS.length], 0.9f, timestampMs);
+    }
+}
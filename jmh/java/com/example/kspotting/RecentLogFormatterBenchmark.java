@@ -0,0 +1,46 @@
+package com.example.kspotting;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo della formattazione di una riga del log recente, come avviene in
+ * RecentLogAdapter quando una voce non è ancora in cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecentLogFormatterBenchmark {
+
+    private RecentLogFormatter formatter;
+    private long timestampMs;
+
+    @Setup
+    public void setUp() {
+        formatter = new RecentLogFormatter();
+        timestampMs = 1_700_000_000_000L;
+    }
+
+    @Benchmark
+    public String formatStandardEntry() {
+        return formatter.format("go", KeywordRules.SEVERITY_NONE, 0.93f, timestampMs);
+    }
+
+    @Benchmark
+    public String formatSensitiveEntry() {
+        return formatter.format("stop", KeywordRules.SEVERITY_ALERT, 0.97f, timestampMs);
+    }
+}
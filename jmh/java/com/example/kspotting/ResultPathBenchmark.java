@@ -0,0 +1,80 @@
+package com.example.kspotting;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.lite.support.label.Category;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Costo della conversione dell'output di classify() nel risultato consegnato al listener.
+ *
+ * I benchmark di questo set girano su JVM (set di sorgenti jmh accanto a main) e vanno
+ * eseguiti con il profiler di allocazione, ad esempio {@code -prof gc}, per riportare
+ * sia ns/op sia gc.alloc.rate.norm.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultPathBenchmark {
+
+    // Etichette del modello speech_commands
+    private static final String[] LABELS = {
+            "_background_noise_", "_unknown_", "down", "go", "left", "no",
+            "off", "on", "right", "stop", "up", "yes"
+    };
+
+    private List<Category> categories;
+    private List<List<Category>> heads;
+    private ClassificationResult result;
+
+    @Setup
+    public void setUp() {
+        categories = new ArrayList<>();
+        float remaining = 1f;
+        for (int i = 0; i < LABELS.length; i++) {
+            float score = i == LABELS.length - 1 ? remaining : remaining * 0.6f;
+            remaining -= score;
+            categories.add(Category.create(LABELS[(i * 5) % LABELS.length], "", score, (i * 5) % LABELS.length));
+        }
+        heads = Collections.singletonList(categories);
+
+        LabelTable.Builder builder = new LabelTable.Builder();
+        for (int i = 0; i < LABELS.length; i++) {
+            builder.add(i, LABELS[i]);
+        }
+        result = new ClassificationResult(5, builder.build());
+    }
+
+    @Benchmark
+    public ClassificationResult collectIntoPreallocatedResult() {
+        result.clear();
+        TfliteInferenceEngine.collectCategories(categories, result);
+        return result;
+    }
+
+    /**
+     * Riferimento: stream/flatMap/collect usato in precedenza a ogni finestra.
+     */
+    @Benchmark
+    public List<Category> streamFlattenBaseline() {
+        return heads.stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+    }
+}
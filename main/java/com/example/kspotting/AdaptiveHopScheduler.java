@@ -0,0 +1,143 @@
+package com.example.kspotting;
+
+/**
+ * Sceglie il passo tra due finestre di inferenza in base al carico misurato e al contenuto.
+ * Il passo si stringe al minimo subito dopo un inizio di parlato o un punteggio vicino alla
+ * soglia e vi resta per alcune finestre; con silenzio o rumore di fondo prolungati cresce
+ * gradualmente fino al massimo. Non scende mai sotto il costo medio misurato di una finestra
+ * (con margine), così l'inferenza non accumula ritardo; le finestre il cui costo supera il
+ * passo corrente vengono contate come sforamenti.
+ *
+ * Non thread-safe: va usato dal solo thread di inferenza; i getter sono leggibili da altri thread.
+ */
+public class AdaptiveHopScheduler {
+
+    private static final float BACKOFF_FACTOR = 1.5f; // Crescita del passo per ogni finestra tranquilla oltre la soglia
+    private static final int CALM_WINDOWS_BEFORE_BACKOFF = 5;
+    private static final int HOLD_WINDOWS_AFTER_ONSET = 10; // Finestre al passo minimo dopo un evento interessante
+    private static final float COST_HEADROOM = 1.25f;
+    private static final float COST_AVERAGE_WEIGHT = 0.2f;
+
+    private final int sampleRate;
+    private final int minHopSamples;
+    private final int maxHopSamples;
+    private final float nearThresholdScore;
+    private final boolean[] backgroundLabels;
+
+    private volatile int hopSamples;
+    private volatile long averageCostNanos = 0;
+    private volatile long overruns = 0;
+    private int calmWindows = 0;
+    private int holdRemaining = 0;
+
+    /**
+     * @param nearThresholdScore punteggio oltre cui una categoria non di sfondo riporta il passo al minimo
+     * @param labelCount         numero di etichette del modello
+     */
+    public AdaptiveHopScheduler(int sampleRate, int minHopSamples, int maxHopSamples,
+                                float nearThresholdScore, int labelCount) {
+        if (minHopSamples <= 0 || maxHopSamples < minHopSamples) {
+            throw new IllegalArgumentException("Intervallo di passo non valido: " + minHopSamples + ".." + maxHopSamples);
+        }
+        this.sampleRate = sampleRate;
+        this.minHopSamples = minHopSamples;
+        this.maxHopSamples = maxHopSamples;
+        this.nearThresholdScore = nearThresholdScore;
+        this.backgroundLabels = new boolean[labelCount];
+        this.hopSamples = minHopSamples;
+    }
+
+    /**
+     * Segna un'etichetta come sfondo: i suoi punteggi non tengono il passo al minimo.
+     */
+    public void setBackgroundLabel(int labelId) {
+        if (labelId >= 0 && labelId < backgroundLabels.length) {
+            backgroundLabels[labelId] = true;
+        }
+    }
+
+    /**
+     * Aggiorna il passo dopo una finestra classificata.
+     *
+     * @param costNanos costo complessivo della finestra (caricamento, inferenza e consegna)
+     */
+    public void onInference(long costNanos, int topLabelId, float topScore) {
+        long average = averageCostNanos;
+        averageCostNanos = average == 0 ? costNanos
+                : average + (long) ((costNanos - average) * COST_AVERAGE_WEIGHT);
+        if (costNanos > samplesToNanos(hopSamples)) {
+            overruns++;
+        }
+
+        boolean interesting = topLabelId >= 0 && topLabelId < backgroundLabels.length
+                && !backgroundLabels[topLabelId] && topScore >= nearThresholdScore;
+        if (interesting) {
+            onSpeechOnset();
+        } else {
+            onCalmWindow();
+        }
+    }
+
+    /**
+     * Finestra scartata senza inferenza (silenzio).
+     */
+    public void onSilence() {
+        onCalmWindow();
+    }
+
+    /**
+     * Inizio di attività vocale dopo un tratto di silenzio: passo minimo per le prossime finestre.
+     */
+    public void onSpeechOnset() {
+        calmWindows = 0;
+        holdRemaining = HOLD_WINDOWS_AFTER_ONSET;
+        hopSamples = Math.max(minHopSamples, costFloorSamples());
+    }
+
+    private void onCalmWindow() {
+        int hop = hopSamples;
+        if (holdRemaining > 0) {
+            holdRemaining--;
+        } else if (++calmWindows >= CALM_WINDOWS_BEFORE_BACKOFF) {
+            hop = Math.min(maxHopSamples, (int) Math.ceil(hop * BACKOFF_FACTOR));
+        }
+        hopSamples = Math.max(hop, costFloorSamples());
+    }
+
+    // Passo minimo sostenibile con il costo medio attuale, mai oltre il massimo configurato.
+    private int costFloorSamples() {
+        long floor = (long) Math.ceil(averageCostNanos * COST_HEADROOM * sampleRate / 1e9);
+        return (int) Math.min(maxHopSamples, floor);
+    }
+
+    private long samplesToNanos(int samples) {
+        return samples * 1_000_000_000L / sampleRate;
+    }
+
+    public int getHopSamples() {
+        return hopSamples;
+    }
+
+    public long getHopMs() {
+        return hopSamples * 1000L / sampleRate;
+    }
+
+    public long getAverageCostNanos() {
+        return averageCostNanos;
+    }
+
+    /**
+     * Finestre il cui costo ha superato il passo in vigore.
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public void reset() {
+        hopSamples = minHopSamples;
+        averageCostNanos = 0;
+        overruns = 0;
+        calmWindows = 0;
+        holdRemaining = 0;
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.kspotting;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limita e raggruppa gli avvisi delle parole chiave prima che diventino notifiche.
+ *
+ * {@link #submit} è chiamato dal thread di inferenza a ogni rilevazione e non costruisce nulla:
+ * aggiorna lo stato della parola e, se non c'è già un invio in programma, ne pianifica uno sul
+ * thread del dispatcher. Per ogni parola vale un periodo di attesa tra due invii e un secchiello
+ * di gettoni che limita gli invii nel lungo periodo. Le rilevazioni che arrivano mentre un invio è
+ * in attesa vengono accorpate: l'invio successivo aggiorna la stessa notifica con il numero di
+ * rilevazioni dell'episodio e la confidenza massima. Un episodio termina dopo
+ * {@code episodeGapMs} senza rilevazioni.
+ *
+ * Non dipende da Android: la notifica vera e propria è costruita da {@link Sink}.
+ */
+public class AlertDispatcher {
+
+    public static final long DEFAULT_COOLDOWN_MS = 2000;
+    public static final int DEFAULT_BURST = 3;
+    public static final long DEFAULT_REFILL_MS = 20_000;
+    public static final long DEFAULT_EPISODE_GAP_MS = 10_000;
+
+    /**
+     * Riceve gli avvisi da mostrare, sempre sul thread del dispatcher.
+     */
+    public interface Sink {
+        void onAlert(Alert alert);
+    }
+
+    /**
+     * Orologio e pianificazione degli invii; i test ne forniscono uno manuale.
+     */
+    interface Timer {
+        long nowMs();
+
+        /**
+         * @throws RejectedExecutionException se il timer è stato fermato
+         */
+        void schedule(Runnable task, long delayMs);
+
+        void shutdown();
+    }
+
+    // Orologio monotono e un thread dedicato agli invii.
+    private static final class ExecutorTimer implements Timer {
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, "kspotting-alerts"));
+
+        @Override
+        public long nowMs() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            scheduler.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void shutdown() {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Stato di un episodio al momento dell'invio. {@code slot} è stabile per parola e può fare da
+     * id della notifica, così gli aggiornamenti sostituiscono quella precedente.
+     */
+    public static final class Alert {
+        public final String keyword;
+        public final int slot;
+        public final int severity;
+        public final int count;
+        public final float peakConfidence;
+        public final boolean update;
+
+        Alert(String keyword, int slot, int severity, int count, float peakConfidence, boolean update) {
+            this.keyword = keyword;
+            this.slot = slot;
+            this.severity = severity;
+            this.count = count;
+            this.peakConfidence = peakConfidence;
+            this.update = update;
+        }
+
+        @Override
+        public String toString() {
+            return keyword + " x" + count + ", picco " + peakConfidence * 100 + "%";
+        }
+    }
+
+    // Stato per parola, protetto dal proprio monitor (thread di inferenza e thread del dispatcher).
+    private static final class KeywordState {
+        final String keyword;
+        final int slot;
+        double tokens;
+        long lastRefillMs;
+        long lastEmitMs = Long.MIN_VALUE / 2;
+        long lastHitMs = Long.MIN_VALUE / 2;
+        int episodeCount;
+        float episodePeak;
+        int episodeSeverity;
+        // Avvisi già inviati nell'episodio corrente.
+        int episodeEmits;
+        boolean flushScheduled;
+
+        KeywordState(String keyword, int slot, int burst, long nowMs) {
+            this.keyword = keyword;
+            this.slot = slot;
+            this.tokens = burst;
+            this.lastRefillMs = nowMs;
+        }
+    }
+
+    private final Sink sink;
+    private final long cooldownMs;
+    private final int burst;
+    private final long refillMs;
+    private final long episodeGapMs;
+    private final Timer timer;
+    private final ConcurrentHashMap<String, KeywordState> states = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong emitted = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public AlertDispatcher(Sink sink) {
+        this(sink, DEFAULT_COOLDOWN_MS, DEFAULT_BURST, DEFAULT_REFILL_MS, DEFAULT_EPISODE_GAP_MS);
+    }
+
+    /**
+     * @param cooldownMs   intervallo minimo tra due invii per la stessa parola
+     * @param burst        invii consecutivi concessi prima che intervenga il secchiello
+     * @param refillMs     tempo per recuperare un gettone
+     * @param episodeGapMs silenzio oltre il quale una nuova rilevazione apre un nuovo episodio
+     */
+    public AlertDispatcher(Sink sink, long cooldownMs, int burst, long refillMs, long episodeGapMs) {
+        this(sink, cooldownMs, burst, refillMs, episodeGapMs, new ExecutorTimer());
+    }
+
+    AlertDispatcher(Sink sink, long cooldownMs, int burst, long refillMs, long episodeGapMs, Timer timer) {
+        if (burst <= 0 || refillMs <= 0) {
+            throw new IllegalArgumentException("Parametri del secchiello non validi: " + burst + ", " + refillMs);
+        }
+        this.sink = sink;
+        this.cooldownMs = cooldownMs;
+        this.burst = burst;
+        this.refillMs = refillMs;
+        this.episodeGapMs = episodeGapMs;
+        this.timer = timer;
+    }
+
+    /**
+     * Registra una rilevazione di {@code keyword}. Non blocca e non alloca oltre la prima volta per parola.
+     */
+    public void submit(String keyword, int severity, float confidence) {
+        long nowMs = timer.nowMs();
+        KeywordState state = states.get(keyword);
+        if (state == null) {
+            state = states.computeIfAbsent(keyword, k -> new KeywordState(k, nextSlot.getAndIncrement(), burst, nowMs));
+        }
+        submitted.incrementAndGet();
+        long delayMs;
+        synchronized (state) {
+            if (nowMs - state.lastHitMs > episodeGapMs) {
+                state.episodeCount = 0;
+                state.episodePeak = 0f;
+                state.episodeSeverity = KeywordRules.SEVERITY_NONE;
+                state.episodeEmits = 0;
+            }
+            state.lastHitMs = nowMs;
+            state.episodeCount++;
+            state.episodePeak = Math.max(state.episodePeak, confidence);
+            state.episodeSeverity = Math.max(state.episodeSeverity, severity);
+            if (state.flushScheduled) {
+                // Un invio è già in programma: mostrerà anche questa rilevazione.
+                suppressed.incrementAndGet();
+                return;
+            }
+            refill(state, nowMs);
+            delayMs = Math.max(0, state.lastEmitMs + cooldownMs - nowMs);
+            if (state.tokens < 1) {
+                delayMs = Math.max(delayMs, (long) Math.ceil((1 - state.tokens) * refillMs));
+            }
+            state.flushScheduled = true;
+        }
+        KeywordState target = state;
+        try {
+            timer.schedule(() -> flush(target), delayMs);
+        } catch (RejectedExecutionException e) {
+            // Dispatcher già chiuso: l'ultima rilevazione dopo lo stop non viene mostrata.
+            suppressed.incrementAndGet();
+        }
+    }
+
+    private void flush(KeywordState state) {
+        Alert alert;
+        synchronized (state) {
+            long nowMs = timer.nowMs();
+            refill(state, nowMs);
+            state.tokens = Math.max(0, state.tokens - 1);
+            state.lastEmitMs = nowMs;
+            state.flushScheduled = false;
+            alert = new Alert(state.keyword, state.slot, state.episodeSeverity, state.episodeCount,
+                    state.episodePeak, state.episodeEmits > 0);
+            state.episodeEmits++;
+        }
+        emitted.incrementAndGet();
+        sink.onAlert(alert);
+    }
+
+    private void refill(KeywordState state, long nowMs) {
+        long elapsed = nowMs - state.lastRefillMs;
+        if (elapsed > 0) {
+            state.tokens = Math.min(burst, state.tokens + elapsed / (double) refillMs);
+            state.lastRefillMs = nowMs;
+        }
+    }
+
+    /**
+     * Rilevazioni ricevute da {@link #submit}.
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * Avvisi consegnati al {@link Sink}, aggiornamenti compresi.
+     */
+    public long getEmitted() {
+        return emitted.get();
+    }
+
+    /**
+     * Rilevazioni accorpate in un invio già programmato invece di produrne uno proprio.
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    /**
+     * Scarta gli invii in attesa e ferma il thread del dispatcher.
+     */
+    public void close() {
+        timer.shutdown();
+    }
+}
@@ -1,97 +1,188 @@
 package com.example.kspotting; 
 
 import android.content.Context;
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
 import android.os.Process;
 import android.util.Log;
 
-// Importazioni necessarie per TensorFlow Lite Task Library
-import org.tensorflow.lite.support.audio.TensorAudio;
-import org.tensorflow.lite.support.label.Category;
-import org.tensorflow.lite.task.audio.classifier.AudioClassifier;
-import org.tensorflow.lite.task.audio.classifier.AudioClassifier.AudioClassifierOptions;
-import org.tensorflow.lite.task.core.BaseOptions;
-import org.tensorflow.lite.task.audio.classifier.Classifications;
-
 import java.io.IOException;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class AudioClassificationHelper {
 
     private static final String TAG = "AudioClassifierHelper";
-    private static final String MODEL_NAME = "speech_commands.tflite";
-    private static final long CLASSIFIER_INTERVAL_MS = 200; // Intervallo di inferenza per responsività
+
+    private static final TraceLog.Event TRACE_WINDOW_OVERWRITTEN = TraceLog.event(TraceLog.WARN, TAG,
+            "Finestra che termina al campione %2$d sovrascritta prima della lettura, salto alla successiva.");
+    public static final String DEFAULT_MODEL_NAME = "speech_commands.tflite";
+    private static final long DEFAULT_MIN_HOP_MS = 100; // Passo tra finestre durante il parlato
+    private static final long DEFAULT_MAX_HOP_MS = 500; // Passo massimo in silenzio o rumore di fondo prolungati
+    private static final float NEAR_THRESHOLD_SCORE = 0.5f; // Punteggio che riporta il passo al minimo
+    private static final long RING_BUFFER_DURATION_MS = 3000; // Storico audio trattenuto dal buffer circolare
+    private static final long CAPTURE_CHUNK_MS = 20; // Blocco letto dalla sorgente audio a ogni iterazione
+    private static final int CAPTURE_BUFFER_CHUNKS = 4; // Blocchi assorbiti dal buffer della sorgente
+    private static final long WINDOW_WAIT_TIMEOUT_MS = 500;
+    private static final long MODEL_LOADER_TIMEOUT_MS = 5000; // Attesa massima di un caricamento in corso al rilascio
+    static final int MAX_RESULTS = 5; // Categorie consegnate al listener per ogni finestra
+    private static final boolean VAD_GATE_ENABLED = true; // Salta l'inferenza sulle finestre senza attività vocale
+    private static final boolean BATCH_ENABLED = true; // Recupera gli arretrati con finestre classificate in sequenza
+    private static final int BATCH_BACKLOG_THRESHOLD_WINDOWS = 1; // Audio non esaminato oltre il quale si recupera a lotti
+    private static final int MAX_BATCH_WINDOWS = 8; // Finestre per lotto; l'arretrato più vecchio resta scoperto
+    private static final int PREPROCESSING_STAGES = AudioPreprocessor.ALL_STAGES; // 0 per passare l'audio così com'è
 
     private final Context context;
     private final ClassifierListener classifierListener;
-    private AudioClassifier classifier;
-    private TensorAudio tensorAudio;
-    private AudioRecord record;
+    private final String modelName;
+    private volatile InferenceEngine engine;
+    private AudioSource audioSource;
     private ScheduledExecutorService executorService;
+    private InferenceExit inferenceExit; // Dell'esecuzione corrente di inferenceLoop
+    private Thread captureThread;
+    private PcmRingBuffer ringBuffer;
+    // Blocco acquisito: buffer diretto in ordine nativo riempito dalla sorgente, convertito
+    // in float direttamente nel buffer circolare.
+    private ByteBuffer captureBuffer;
+    private ShortBuffer captureSamples;
+    private int captureChunkSamples;
+    private AudioPreprocessor preprocessor;
+    private final long minHopMs;
+    private final long maxHopMs;
+    private volatile int windowSamples;
+    private volatile AdaptiveHopScheduler hopScheduler;
+    private volatile long skippedWindows = 0;
+    private final VoiceActivityDetector voiceActivityDetector = new VoiceActivityDetector();
+    private volatile long gatedWindows = 0;
+    private volatile long passedWindows = 0;
+    private volatile long batches = 0;
+    private volatile long batchedWindows = 0;
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private volatile LabelTable labelTable;
+    private volatile InferenceCalibration calibration; // Null con un motore fornito dal chiamante
+    private ClassificationResult result;
+    // Sostituzione del modello: il nuovo motore viene caricato a parte e installato dal
+    // thread di inferenza tra una finestra e l'altra.
+    private ExecutorService modelLoader;
+    private final AtomicReference<PendingEngine> pendingEngine = new AtomicReference<>();
+    private volatile long modelSwaps = 0;
+    private volatile long lastSwapLatencyMs = 0;
+    private volatile long lastSwapGapMs = 0;
     private AtomicBoolean isRecording = new AtomicBoolean(false);
     private AtomicBoolean isClassifierInitialized = new AtomicBoolean(false);
 
+    // Motore caricato in attesa di essere installato, con gli istanti per misurare la sostituzione.
+    private static final class PendingEngine {
+        final InferenceEngine engine;
+        final String name;
+        final long requestNanos;
+        final long loadedNanos;
+
+        PendingEngine(InferenceEngine engine, String name, long requestNanos, long loadedNanos) {
+            this.engine = engine;
+            this.name = name;
+            this.requestNanos = requestNanos;
+            this.loadedNanos = loadedNanos;
+        }
+    }
+
     public interface ClassifierListener {
         void onError(String error);
-        void onResults(List<Category> results, long inferenceTime);
+        /**
+         * Chiamato sul thread di inferenza. {@code result} viene riutilizzato per la finestra
+         * successiva: va consumato durante la chiamata o copiato.
+         */
+        void onResults(ClassificationResult result);
+        /**
+         * Chiamato sul thread che ha caricato un nuovo modello, prima che il thread di inferenza lo
+         * installi: il momento per preparare ciò che dipende dalle sue etichette.
+         */
+        void onModelLoaded(LabelTable labelTable);
     }
 
     public AudioClassificationHelper(Context context, ClassifierListener listener) {
+        this(context, listener, DEFAULT_MIN_HOP_MS, DEFAULT_MAX_HOP_MS);
+    }
+
+    /**
+     * @param hopMs passo fisso tra l'inizio di due finestre consecutive; la lunghezza della finestra
+     *              è quella richiesta dal tensore di input del modello
+     */
+    public AudioClassificationHelper(Context context, ClassifierListener listener, long hopMs) {
+        this(context, listener, hopMs, hopMs);
+    }
+
+    /**
+     * @param minHopMs passo usato durante il parlato e dopo punteggi vicini alla soglia
+     * @param maxHopMs passo raggiunto con silenzio o rumore di fondo prolungati
+     *                 (limitato alla lunghezza della finestra)
+     */
+    public AudioClassificationHelper(Context context, ClassifierListener listener, long minHopMs, long maxHopMs) {
+        this(context, listener, DEFAULT_MODEL_NAME, minHopMs, maxHopMs);
+    }
+
+    /**
+     * @param modelName file del modello negli asset, caricato all'avvio
+     */
+    public AudioClassificationHelper(Context context, ClassifierListener listener, String modelName,
+                                     long minHopMs, long maxHopMs) {
         this.context = context;
         this.classifierListener = listener;
+        this.modelName = modelName;
+        this.minHopMs = minHopMs;
+        this.maxHopMs = maxHopMs;
         initClassifier();
     }
 
+    /**
+     * Pipeline con sorgente e motore forniti dal chiamante (ad esempio {@link PcmFileAudioSource}
+     * e {@link FakeInferenceEngine} per misure fuori dal dispositivo). L'helper ne assume la
+     * proprietà e li rilascia in {@link #stop()}.
+     */
+    public AudioClassificationHelper(AudioSource audioSource, InferenceEngine engine,
+                                     ClassifierListener listener, long hopMs) {
+        this(audioSource, engine, listener, hopMs, hopMs);
+    }
+
+    public AudioClassificationHelper(AudioSource audioSource, InferenceEngine engine,
+                                     ClassifierListener listener, long minHopMs, long maxHopMs) {
+        this.context = null;
+        this.classifierListener = listener;
+        this.modelName = null;
+        this.minHopMs = minHopMs;
+        this.maxHopMs = maxHopMs;
+        this.audioSource = audioSource;
+        this.engine = engine;
+        initPipeline();
+    }
+
     private void initClassifier() {
         releaseResources(); // Assicurati di rilasciare le risorse precedenti
 
         try {
-            BaseOptions.Builder baseOptionsBuilder = BaseOptions.builder()
-                    .setNumThreads(2);
-
-            AudioClassifierOptions options =
-                    AudioClassifierOptions.builder()
-                            .setBaseOptions(baseOptionsBuilder.build())
-                            .setMaxResults(5)
-                            .build();
-
-            classifier = AudioClassifier.createFromFileAndOptions(context, MODEL_NAME, options);
-            tensorAudio = classifier.createInputTensorAudio();
-
-            int sampleRate = classifier.getRequiredTensorAudioFormat().getSampleRate();
-            int channelConfig = AudioFormat.CHANNEL_IN_MONO;
-            int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
-
-            int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, channelConfig, audioFormat);
-            if (minBufferSize == AudioRecord.ERROR || minBufferSize == AudioRecord.ERROR_BAD_VALUE) {
-                Log.e(TAG, "Errore nella dimensione minima del buffer audio");
-                classifierListener.onError("Errore nella configurazione dell'audio.");
-                return;
-            }
+            // Numero di thread misurato sul dispositivo per questo modello (calibrato al primo uso).
+            calibration = InferenceCalibration.obtain(context, modelName);
+            Log.d(TAG, "Configurazione del motore: " + calibration);
+            engine = TfliteInferenceEngine.create(context, modelName, calibration.getNumThreads());
 
-            record = new AudioRecord(
-                    MediaRecorder.AudioSource.MIC,
-                    sampleRate,
-                    channelConfig,
-                    audioFormat,
-                    minBufferSize
-            );
+            int sampleRate = engine.getSampleRate();
+            int chunkSamples = captureChunkSamples(sampleRate);
+            AudioRecordSource recordSource = new AudioRecordSource(sampleRate, chunkSamples * CAPTURE_BUFFER_CHUNKS);
+            audioSource = recordSource;
 
-            if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            if (!recordSource.isInitialized()) {
                 Log.e(TAG, "AudioRecord non inizializzato correttamente.");
                 classifierListener.onError("Microfono non disponibile o inizializzazione fallita.");
                 releaseResources();
                 return;
             }
 
-            isClassifierInitialized.set(true);
+            initPipeline();
             Log.d(TAG, "Classificatore TFLite e AudioRecord inizializzati con successo in Helper.");
         } catch (IOException e) {
             Log.e(TAG, "Errore nel caricamento del modello TFLite: " + e.getMessage());
@@ -104,14 +195,75 @@ public class AudioClassificationHelper {
         }
     }
 
+    private AdaptiveHopScheduler createHopScheduler(int sampleRate, int windowSamples, LabelTable labelTable) {
+        int minHopSamples = Math.max(1, (int) (sampleRate * minHopMs / 1000));
+        int maxHopSamples = Math.max(minHopSamples, Math.min(windowSamples, (int) (sampleRate * maxHopMs / 1000)));
+        AdaptiveHopScheduler scheduler = new AdaptiveHopScheduler(sampleRate, minHopSamples, maxHopSamples,
+                NEAR_THRESHOLD_SCORE, labelTable.size());
+        scheduler.setBackgroundLabel(labelTable.findByNormalizedLabel("_background_noise_"));
+        scheduler.setBackgroundLabel(labelTable.findByNormalizedLabel("silence"));
+        return scheduler;
+    }
+
+    // Anche la durata di un frame del VAD: OfflineClassifier la riusa per decidere come dal vivo.
+    static int captureChunkSamples(int sampleRate) {
+        return Math.max(1, (int) (sampleRate * CAPTURE_CHUNK_MS / 1000));
+    }
+
+    // Buffer e finestre dipendono solo dal formato del motore: comune a tutte le sorgenti.
+    private void initPipeline() {
+        int sampleRate = engine.getSampleRate();
+        if (audioSource.getSampleRate() != sampleRate) {
+            throw new IllegalArgumentException("Frequenza della sorgente (" + audioSource.getSampleRate()
+                    + " Hz) diversa da quella del modello (" + sampleRate + " Hz).");
+        }
+        labelTable = engine.getLabelTable();
+        result = new ClassificationResult(MAX_RESULTS, labelTable);
+        Log.d(TAG, "Tabella etichette del modello: " + labelTable);
+
+        windowSamples = engine.getInputLength();
+        hopScheduler = createHopScheduler(sampleRate, windowSamples, labelTable);
+        int ringCapacity = Math.max(windowSamples * 2, (int) (sampleRate * RING_BUFFER_DURATION_MS / 1000));
+        ringBuffer = new PcmRingBuffer(ringCapacity);
+        captureChunkSamples = captureChunkSamples(sampleRate);
+        captureBuffer = ByteBuffer.allocateDirect(captureChunkSamples * 2).order(ByteOrder.nativeOrder());
+        captureSamples = captureBuffer.asShortBuffer();
+        if (PREPROCESSING_STAGES != 0) {
+            preprocessor = new AudioPreprocessor(sampleRate, PREPROCESSING_STAGES, metrics);
+        }
+        isClassifierInitialized.set(true);
+    }
+
+    /**
+     * Esegue {@code inferences} inferenze su finestre di silenzio prima di {@link #start()}, così la
+     * prima finestra reale non paga l'allocazione dei tensori e il primo passaggio nel modello.
+     * I risultati vengono scartati e non arrivano al listener.
+     *
+     * @return durata complessiva in nanosecondi, 0 se il classificatore non è pronto o è già avviato
+     */
+    public long warmUp(int inferences) {
+        if (!isClassifierInitialized.get() || isRecording.get()) {
+            return 0;
+        }
+        InferenceEngine localEngine = engine;
+        float[] silence = new float[localEngine.getInputLength()];
+        ClassificationResult scratch = new ClassificationResult(MAX_RESULTS, localEngine.getLabelTable());
+        long start = System.nanoTime();
+        for (int i = 0; i < inferences; i++) {
+            localEngine.accept(silence, 0, silence.length);
+            localEngine.classify(scratch);
+        }
+        return System.nanoTime() - start;
+    }
+
     public void start() {
         if (!isClassifierInitialized.get()) {
             classifierListener.onError("Classificatore non inizializzato. Impossibile avviare la registrazione.");
             return;
         }
-        if (record == null || record.getState() != AudioRecord.STATE_INITIALIZED) {
-            classifierListener.onError("AudioRecord non pronto. Inizializzare il classificatore prima di avviare.");
-            Log.e(TAG, "AudioRecord non pronto allo start, stato: " + (record != null ? record.getState() : "null"));
+        if (audioSource == null || engine == null) {
+            classifierListener.onError("Sorgente audio non pronta. Inizializzare il classificatore prima di avviare.");
+            Log.e(TAG, "Sorgente audio o motore non pronti allo start.");
             return;
         }
 
@@ -121,47 +273,369 @@ public class AudioClassificationHelper {
         }
 
         isRecording.set(true);
-        record.startRecording();
+        voiceActivityDetector.reset();
+        if (preprocessor != null) {
+            preprocessor.reset();
+        }
+        metrics.reset();
+        hopScheduler.reset();
+        audioSource.start();
+
+        captureThread = new Thread(this::captureLoop, "kspotting-capture");
+        captureThread.start();
 
         executorService = Executors.newSingleThreadScheduledExecutor();
+        InferenceExit exit = new InferenceExit();
+        inferenceExit = exit;
+        executorService.execute(() -> {
+            try {
+                inferenceLoop();
+            } finally {
+                exit.onExit();
+            }
+        });
+        Log.d(TAG, "Registrazione e classificazione avviate in Helper. Finestra: " + windowSamples
+                + " campioni, passo: " + minHopMs + "-" + maxHopMs + " ms.");
+    }
+
+    /**
+     * Carica {@code newModelName} dagli asset in background mentre il modello corrente continua
+     * a classificare. Il nuovo motore viene installato al confine della finestra successiva e il
+     * precedente chiuso subito dopo; l'acquisizione audio non si interrompe. Se il caricamento
+     * fallisce o il modello non è compatibile resta in servizio quello corrente.
+     */
+    public void loadModel(String newModelName) {
+        if (context == null) {
+            Log.e(TAG, "Caricamento del modello " + newModelName + " non disponibile con un motore fornito dal chiamante.");
+            return;
+        }
+        if (!isClassifierInitialized.get()) {
+            Log.e(TAG, "Caricamento del modello " + newModelName + " richiesto senza una pipeline attiva.");
+            return;
+        }
+        long requestNanos = System.nanoTime();
+        obtainModelLoader().execute(() -> {
+            try {
+                InferenceCalibration newCalibration = InferenceCalibration.obtain(context, newModelName);
+                InferenceEngine newEngine = TfliteInferenceEngine.create(context, newModelName,
+                        newCalibration.getNumThreads());
+                if (offerEngine(new PendingEngine(newEngine, newModelName, requestNanos, System.nanoTime()))) {
+                    calibration = newCalibration;
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Errore nel caricamento del modello " + newModelName + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Come {@link #loadModel(String)} per un motore già pronto: l'helper ne assume la proprietà.
+     */
+    public void swapEngine(InferenceEngine newEngine) {
+        long now = System.nanoTime();
+        offerEngine(new PendingEngine(newEngine, newEngine.getClass().getSimpleName(), now, now));
+    }
+
+    private synchronized ExecutorService obtainModelLoader() {
+        if (modelLoader == null) {
+            modelLoader = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "kspotting-model-loader"));
+        }
+        return modelLoader;
+    }
+
+    /**
+     * @return false se il motore è stato scartato perché incompatibile
+     */
+    private boolean offerEngine(PendingEngine pending) {
+        String incompatibility = checkCompatible(pending.engine);
+        if (incompatibility != null) {
+            Log.e(TAG, "Modello " + pending.name + " scartato: " + incompatibility);
+            pending.engine.close();
+            return false;
+        }
+        classifierListener.onModelLoaded(pending.engine.getLabelTable());
+        PendingEngine superseded = pendingEngine.getAndSet(pending);
+        if (superseded != null) {
+            Log.d(TAG, "Modello " + superseded.name + " sostituito da " + pending.name + " prima dell'installazione.");
+            superseded.engine.close();
+        }
+        if (!isClassifierInitialized.get()) {
+            // Risorse rilasciate nel frattempo: nessuno installerà il motore.
+            PendingEngine orphan = pendingEngine.getAndSet(null);
+            if (orphan != null) {
+                orphan.engine.close();
+            }
+        }
+        return true;
+    }
+
+    // Il buffer circolare e la sorgente restano quelli correnti: il nuovo modello deve adattarvisi.
+    private String checkCompatible(InferenceEngine newEngine) {
+        PcmRingBuffer ring = ringBuffer;
+        AudioSource source = audioSource;
+        if (ring == null || source == null) {
+            return "pipeline non inizializzata";
+        }
+        if (newEngine.getSampleRate() != source.getSampleRate()) {
+            return "frequenza " + newEngine.getSampleRate() + " Hz diversa da quella della sorgente ("
+                    + source.getSampleRate() + " Hz)";
+        }
+        if (newEngine.getInputLength() * 2 > ring.getCapacity()) {
+            return "finestra di " + newEngine.getInputLength() + " campioni troppo lunga per il buffer circolare";
+        }
+        return null;
+    }
+
+    /**
+     * Installa il motore in attesa. Solo dal thread di inferenza, tra due finestre.
+     */
+    private void installEngine(PendingEngine swap) {
+        InferenceEngine newEngine = swap.engine;
+        labelTable = newEngine.getLabelTable();
+        result = new ClassificationResult(MAX_RESULTS, labelTable);
+        windowSamples = newEngine.getInputLength();
+        hopScheduler = createHopScheduler(newEngine.getSampleRate(), windowSamples, labelTable);
+        engine = newEngine;
+        modelSwaps++;
+        long installedNanos = System.nanoTime();
+        lastSwapLatencyMs = TimeUnit.NANOSECONDS.toMillis(installedNanos - swap.requestNanos);
+        Log.i(TAG, "Modello sostituito con " + swap.name + ": caricamento "
+                + TimeUnit.NANOSECONDS.toMillis(swap.loadedNanos - swap.requestNanos) + " ms, attesa della finestra "
+                + TimeUnit.NANOSECONDS.toMillis(installedNanos - swap.loadedNanos) + " ms. Etichette: " + labelTable);
+    }
+
+    /**
+     * Svuota continuamente la sorgente audio nel buffer circolare, indipendentemente dalla durata dell'inferenza.
+     */
+    private void captureLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        AudioSource localSource = audioSource;
+        PcmRingBuffer localRing = ringBuffer;
+        ByteBuffer buffer = captureBuffer;
+        ShortBuffer samples = captureSamples;
+        int chunkSamples = captureChunkSamples;
+        AudioPreprocessor localPreprocessor = preprocessor;
+
+        while (isRecording.get()) {
+            int read = localSource.read(buffer, chunkSamples);
+            if (read == AudioSource.END_OF_STREAM) {
+                Log.d(TAG, "Fine del flusso audio della sorgente.");
+                return;
+            }
+            if (read < 0) {
+                if (isRecording.get()) {
+                    Log.e(TAG, "Errore di lettura dalla sorgente audio in helper: " + read);
+                    classifierListener.onError("Errore durante l'acquisizione audio: codice " + read);
+                    isRecording.set(false);
+                }
+                return;
+            }
+            if (read > 0) {
+                // Conversione e preelaborazione nel buffer circolare; anche il VAD vede l'audio condizionato.
+                localRing.write(samples, read, localPreprocessor);
+                if (VAD_GATE_ENABLED) {
+                    long position = localRing.getWritePosition();
+                    localRing.readWindow(position, read, voiceActivityDetector);
+                    voiceActivityDetector.finishFrame(position);
+                }
+            }
+        }
+    }
 
-        executorService.scheduleAtFixedRate(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        if (!isRecording.get() || classifier == null || tensorAudio == null || record == null) {
-                            Log.w(TAG, "Skipping inference: resources not ready in helper.");
-                            return;
-                        }
-
-                        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
-
-                        try {
-                            tensorAudio.load(record);
-                        } catch (IllegalStateException e) {
-                            Log.e(TAG, "Failed to load audio from AudioRecord in helper: " + e.getMessage());
-                            classifierListener.onError("Errore durante l'acquisizione audio: " + e.getMessage());
-                            stop();
-                            return;
-                        }
-
-                        long startTime = System.currentTimeMillis();
-                        List<Classifications> classifications = classifier.classify(tensorAudio);
-                        long endTime = System.currentTimeMillis();
-                        long inferenceTime = endTime - startTime;
-
-                        List<Category> output = classifications.stream()
-                                .flatMap(c -> c.getCategories().stream())
-                                .collect(Collectors.toList());
-
-                        classifierListener.onResults(output, inferenceTime);
-                    }
-                },
-                0,
-                CLASSIFIER_INTERVAL_MS,
-                TimeUnit.MILLISECONDS
-        );
-        Log.d(TAG, "Registrazione e classificazione avviate in Helper.");
+    /**
+     * Consuma finestre sovrapposte dal buffer circolare con il passo scelto da {@link AdaptiveHopScheduler}.
+     * Se l'inferenza resta indietro oltre il passo ma meno di una finestra, salta direttamente alla
+     * finestra più recente: le finestre si sovrappongono e nessun campione resta escluso. Con un
+     * arretrato maggiore (dopo una pausa o all'avvio, con audio già nel buffer) salterebbe audio mai
+     * esaminato, quindi lo recupera a lotti con {@link #classifyBatch}.
+     */
+    private void inferenceLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+        PcmRingBuffer localRing = ringBuffer;
+        TraceLog trace = TraceLog.shared();
+        InferenceEngine localEngine = engine;
+        PipelineMetrics localMetrics = metrics;
+        AdaptiveHopScheduler scheduler = hopScheduler;
+        int sampleRate = localEngine.getSampleRate();
+        int localWindowSamples = windowSamples;
+        long nextWindowEnd = localWindowSamples;
+        boolean silenceNotified = false;
+        long lastWindowEnd = 0; // Fine dell'ultima finestra esaminata (classificata o scartata dal VAD)
+        long swapCoverageEnd = -1; // Copertura del motore precedente, finché il nuovo non esamina una finestra
+
+        while (isRecording.get()) {
+            PendingEngine swap = pendingEngine.getAndSet(null);
+            if (swap != null) {
+                InferenceEngine previous = localEngine;
+                installEngine(swap);
+                localEngine = engine;
+                scheduler = hopScheduler;
+                localWindowSamples = windowSamples;
+                nextWindowEnd = Math.max(nextWindowEnd, localWindowSamples);
+                swapCoverageEnd = lastWindowEnd;
+                // Il motore precedente non è più usato da questo thread: lo chiude il thread di caricamento.
+                obtainModelLoader().execute(previous::close);
+            }
+
+            long waitStart = System.nanoTime();
+            try {
+                if (!localRing.awaitPosition(nextWindowEnd, WINDOW_WAIT_TIMEOUT_MS)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (!isRecording.get()) {
+                return;
+            }
+            localMetrics.record(PipelineMetrics.STAGE_CAPTURE_WAIT, System.nanoTime() - waitStart);
+
+            int hopSamples = scheduler.getHopSamples();
+            long available = localRing.getWritePosition();
+            if (BATCH_ENABLED && available - lastWindowEnd > (long) localWindowSamples * BATCH_BACKLOG_THRESHOLD_WINDOWS
+                    && (!VAD_GATE_ENABLED || voiceActivityDetector.hasActivitySince(lastWindowEnd))) {
+                int count = batchWindowCount(localRing, localWindowSamples, lastWindowEnd, available);
+                long firstStart = available - (long) count * localWindowSamples;
+                if (swapCoverageEnd >= 0) {
+                    reportSwapGap(firstStart - swapCoverageEnd, sampleRate);
+                    swapCoverageEnd = -1;
+                }
+                skippedWindows += Math.max(0, firstStart - lastWindowEnd) / hopSamples;
+                if (silenceNotified) {
+                    scheduler.onSpeechOnset();
+                    silenceNotified = false;
+                }
+                classifyBatch(localRing, localEngine, localMetrics, localWindowSamples, firstStart + localWindowSamples, count);
+                lastWindowEnd = available;
+                nextWindowEnd = available + scheduler.getHopSamples();
+                continue;
+            }
+            if (available - nextWindowEnd >= hopSamples) {
+                skippedWindows += (available - nextWindowEnd) / hopSamples;
+                nextWindowEnd = available;
+            }
+            long windowEnd = nextWindowEnd;
+            if (swapCoverageEnd >= 0) {
+                reportSwapGap(windowEnd - localWindowSamples - swapCoverageEnd, sampleRate);
+                swapCoverageEnd = -1;
+            }
+            lastWindowEnd = windowEnd;
+
+            if (VAD_GATE_ENABLED && !voiceActivityDetector.hasActivitySince(windowEnd - localWindowSamples)) {
+                gatedWindows++;
+                scheduler.onSilence();
+                nextWindowEnd = windowEnd + scheduler.getHopSamples();
+                if (!silenceNotified) {
+                    // Una sola notifica vuota per tratto di silenzio, così i client possono tornare allo stato di riposo.
+                    result.clear();
+                    long silenceCaptureNanos = localRing.estimateWriteTimeNanos(windowEnd, sampleRate);
+                    result.setTimestampMs(captureWallTimeMs(silenceCaptureNanos));
+                    result.setCaptureTimeNanos(silenceCaptureNanos);
+                    classifierListener.onResults(result);
+                    silenceNotified = true;
+                }
+                continue;
+            }
+            if (silenceNotified) {
+                scheduler.onSpeechOnset();
+                silenceNotified = false;
+            }
+            passedWindows++;
+
+            long loadStart = System.nanoTime();
+            if (!localRing.readWindow(windowEnd, localWindowSamples, localEngine)) {
+                trace.trace(TRACE_WINDOW_OVERWRITTEN, windowEnd);
+                nextWindowEnd = windowEnd + hopSamples;
+                skippedWindows++;
+                continue;
+            }
+            long classifyStart = System.nanoTime();
+            localMetrics.record(PipelineMetrics.STAGE_AUDIO_LOAD, classifyStart - loadStart);
+            long captureTimeNanos = localRing.estimateWriteTimeNanos(windowEnd, sampleRate);
+
+            localEngine.classify(result);
+            long classifyEnd = System.nanoTime();
+            long conversionNanos = localEngine.getLastConversionNanos();
+            localMetrics.record(PipelineMetrics.STAGE_CLASSIFY, classifyEnd - classifyStart - conversionNanos);
+            localMetrics.record(PipelineMetrics.STAGE_RESULT_CONVERSION, conversionNanos);
+
+            result.setInferenceTimeMs(TimeUnit.NANOSECONDS.toMillis(classifyEnd - classifyStart));
+            result.setTimestampMs(captureWallTimeMs(captureTimeNanos));
+            result.setCaptureTimeNanos(captureTimeNanos);
+            classifierListener.onResults(result);
+            long dispatchEnd = System.nanoTime();
+            localMetrics.record(PipelineMetrics.STAGE_DISPATCH, dispatchEnd - classifyEnd);
+
+            scheduler.onInference(dispatchEnd - loadStart, result.getTopLabelId(), result.getTopScore());
+            nextWindowEnd = windowEnd + scheduler.getHopSamples();
+        }
+    }
+
+    /**
+     * Istante di acquisizione della fine di una finestra riportato sull'orologio di sistema: i
+     * risultati restano in ordine cronologico anche quando una parte viene classificata in ritardo.
+     */
+    private static long captureWallTimeMs(long captureTimeNanos) {
+        return System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - captureTimeNanos);
+    }
+
+    private void reportSwapGap(long gapSamples, int sampleRate) {
+        lastSwapGapMs = Math.max(0, gapSamples) * 1000 / sampleRate;
+        Log.i(TAG, "Primo esame con il nuovo modello: audio non coperto " + lastSwapGapMs + " ms.");
+    }
+
+    /**
+     * Finestre affiancate che coprono l'audio in ({@code coveredEnd}, {@code available}], al più
+     * {@link #MAX_BATCH_WINDOWS} e tutte ancora presenti nel buffer circolare.
+     */
+    private static int batchWindowCount(PcmRingBuffer ring, int window, long coveredEnd, long available) {
+        long uncovered = available - coveredEnd;
+        int count = (int) Math.min(MAX_BATCH_WINDOWS, (uncovered + window - 1) / window);
+        long oldest = ring.getOldestPosition();
+        while (count > 1 && available - (long) count * window < oldest) {
+            count--;
+        }
+        return Math.max(1, count);
+    }
+
+    /**
+     * Classifica {@code count} finestre affiancate (passo pari alla finestra) a partire da quella che
+     * termina in {@code firstEnd}, una dopo l'altra senza attese: stesso input del motore e stesso
+     * risultato riutilizzati, nessuna decisione del passo tra le finestre. Il motore TFLite non
+     * accetta un batch nel tensore di input, quindi il lotto è una sequenza di invocazioni ravvicinate.
+     * Ogni risultato viene consegnato con il timestamp di acquisizione della propria finestra.
+     */
+    private void classifyBatch(PcmRingBuffer ring, InferenceEngine localEngine, PipelineMetrics localMetrics,
+                               int window, long firstEnd, int count) {
+        int sampleRate = localEngine.getSampleRate();
+        batches++;
+        for (int i = 0; i < count; i++) {
+            long windowEnd = firstEnd + (long) i * window;
+            long loadStart = System.nanoTime();
+            if (!ring.readWindow(windowEnd, window, localEngine)) {
+                skippedWindows++;
+                continue;
+            }
+            long classifyStart = System.nanoTime();
+            localMetrics.record(PipelineMetrics.STAGE_AUDIO_LOAD, classifyStart - loadStart);
+            long captureTimeNanos = ring.estimateWriteTimeNanos(windowEnd, sampleRate);
+
+            localEngine.classify(result);
+            long classifyEnd = System.nanoTime();
+            long conversionNanos = localEngine.getLastConversionNanos();
+            localMetrics.record(PipelineMetrics.STAGE_CLASSIFY, classifyEnd - classifyStart - conversionNanos);
+            localMetrics.record(PipelineMetrics.STAGE_RESULT_CONVERSION, conversionNanos);
+
+            result.setInferenceTimeMs(TimeUnit.NANOSECONDS.toMillis(classifyEnd - classifyStart));
+            result.setTimestampMs(captureWallTimeMs(captureTimeNanos));
+            result.setCaptureTimeNanos(captureTimeNanos);
+            classifierListener.onResults(result);
+            localMetrics.record(PipelineMetrics.STAGE_DISPATCH, System.nanoTime() - classifyEnd);
+            passedWindows++;
+            batchedWindows++;
+        }
     }
 
     public void stop() {
@@ -176,26 +650,103 @@ public class AudioClassificationHelper {
     private void releaseResources() {
         isRecording.set(false);
 
+        boolean inferenceTerminated = true;
         if (executorService != null) {
             executorService.shutdownNow();
+            try {
+                // L'inferenza in corso deve terminare prima di chiudere il classificatore.
+                inferenceTerminated = executorService.awaitTermination(WINDOW_WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                inferenceTerminated = false;
+                Thread.currentThread().interrupt();
+            }
             executorService = null;
         }
-        if (record != null) {
-            if (record.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
-                record.stop();
+        synchronized (this) {
+            if (modelLoader != null) {
+                // Attende i caricamenti e le chiusure dei motori sostituiti ancora in corso.
+                modelLoader.shutdown();
+                try {
+                    modelLoader.awaitTermination(MODEL_LOADER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                modelLoader = null;
             }
-            record.release();
-            record = null;
         }
-        if (classifier != null) {
-            classifier.close();
-            classifier = null;
+        PendingEngine pending = pendingEngine.getAndSet(null);
+        if (pending != null) {
+            pending.engine.close();
+        }
+        if (audioSource != null) {
+            audioSource.stop(); // Sblocca la read() in corso nel thread di acquisizione
         }
-        tensorAudio = null;
+        if (captureThread != null) {
+            if (captureThread != Thread.currentThread()) {
+                try {
+                    captureThread.join(WINDOW_WAIT_TIMEOUT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            captureThread = null;
+        }
+        if (audioSource != null) {
+            audioSource.release();
+            audioSource = null;
+        }
+        InferenceEngine currentEngine = engine;
+        if (currentEngine != null) {
+            if (inferenceTerminated || inferenceExit == null) {
+                currentEngine.close();
+            } else {
+                // classify ancora in corso (modello lento o dispositivo carico): chiuderlo adesso
+                // libererebbe la memoria nativa sotto l'inferenza. Lo chiude il thread di inferenza all'uscita.
+                Log.w(TAG, "Inferenza ancora in corso dopo " + WINDOW_WAIT_TIMEOUT_MS
+                        + " ms: il motore verrà chiuso dal thread di inferenza.");
+                inferenceExit.closeOnExit(currentEngine);
+            }
+            engine = null;
+        }
+        inferenceExit = null;
+        ringBuffer = null;
+        captureBuffer = null;
+        captureSamples = null;
+        preprocessor = null;
 
         isClassifierInitialized.set(false);
     }
 
+    /**
+     * Chiusura del motore affidata al thread di inferenza quando il rilascio non può attenderne
+     * la fine. Il motore viene chiuso una sola volta, da chi tra i due arriva per ultimo.
+     */
+    private static final class InferenceExit {
+        private final AtomicReference<InferenceEngine> engineToClose = new AtomicReference<>();
+        private final AtomicBoolean exited = new AtomicBoolean(false);
+
+        // Dal thread di inferenza, all'uscita da inferenceLoop.
+        void onExit() {
+            exited.set(true);
+            closeEngine();
+        }
+
+        // Dal rilascio delle risorse, con il thread di inferenza ancora attivo.
+        void closeOnExit(InferenceEngine engine) {
+            engineToClose.set(engine);
+            if (exited.get()) {
+                closeEngine();
+            }
+        }
+
+        private void closeEngine() {
+            InferenceEngine engine = engineToClose.getAndSet(null);
+            if (engine != null) {
+                engine.close();
+            }
+        }
+    }
+
     public boolean isRecording() {
         return isRecording.get();
     }
@@ -203,4 +754,101 @@ public class AudioClassificationHelper {
     public boolean isClassifierInitialized() {
         return isClassifierInitialized.get();
     }
+
+    public LabelTable getLabelTable() {
+        return labelTable;
+    }
+
+    /**
+     * Configurazione del motore TFLite e misure delle alternative; null con un motore fornito dal chiamante.
+     */
+    public InferenceCalibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Preelaborazione dell'audio acquisito, null se disattivata o se la pipeline non è inizializzata.
+     */
+    public AudioPreprocessor getPreprocessor() {
+        return preprocessor;
+    }
+
+    /**
+     * Istogrammi di latenza per stadio dell'ultima sessione, azzerati a ogni {@link #start()}.
+     */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Passo corrente tra due finestre, in millisecondi.
+     */
+    public long getCurrentHopMs() {
+        AdaptiveHopScheduler scheduler = hopScheduler;
+        return scheduler != null ? scheduler.getHopMs() : 0;
+    }
+
+    /**
+     * Finestre il cui costo di elaborazione ha superato il passo in vigore.
+     */
+    public long getOverrunWindows() {
+        AdaptiveHopScheduler scheduler = hopScheduler;
+        return scheduler != null ? scheduler.getOverruns() : 0;
+    }
+
+    /**
+     * Modelli sostituiti durante la sessione con {@link #loadModel} o {@link #swapEngine}.
+     */
+    public long getModelSwaps() {
+        return modelSwaps;
+    }
+
+    /**
+     * Dalla richiesta di sostituzione all'installazione del nuovo motore, in millisecondi.
+     */
+    public long getLastSwapLatencyMs() {
+        return lastSwapLatencyMs;
+    }
+
+    /**
+     * Audio non esaminato da nessun motore attorno all'ultima sostituzione, in millisecondi.
+     */
+    public long getLastSwapGapMs() {
+        return lastSwapGapMs;
+    }
+
+    /**
+     * Finestre saltate perché l'inferenza è rimasta indietro rispetto all'acquisizione.
+     */
+    public long getSkippedWindows() {
+        return skippedWindows;
+    }
+
+    /**
+     * Lotti eseguiti per recuperare un arretrato (vedi {@link #classifyBatch}).
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Finestre classificate all'interno dei lotti.
+     */
+    public long getBatchedWindows() {
+        return batchedWindows;
+    }
+
+    /**
+     * Finestre scartate dal VAD senza invocare il classificatore.
+     */
+    public long getGatedWindows() {
+        return gatedWindows;
+    }
+
+    /**
+     * Finestre con attività vocale inoltrate al classificatore.
+     */
+    public long getPassedWindows() {
+        return passedWindows;
+    }
 }
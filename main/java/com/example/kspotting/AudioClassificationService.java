@@ -7,63 +7,383 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
-import android.os.Parcelable;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
-import org.tensorflow.lite.support.label.Category;
-
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class AudioClassificationService extends Service implements AudioClassificationHelper.ClassifierListener {
 
     private static final String TAG = "AudioClassificationService";
+
+    private static final TraceLog.Event TRACE_TOP_RESULT = TraceLog.event(TraceLog.DEBUG, TAG,
+            "Top Result per parola sensibile - Etichetta: '%1$s', Confidenza: %4$.2f%%");
+    private static final TraceLog.Event TRACE_DECISION = TraceLog.event(TraceLog.INFO, TAG,
+            "Decisione: '%1$s', Confidenza: %4$.2f%%");
     private static final String CHANNEL_ID = "AudioClassifierChannel";
     private static final int NOTIFICATION_ID = 1;
     private static final int MAX_BACKGROUND_LOG_ENTRIES = 50;
+    private static final String DETECTION_LOG_DIRECTORY = "detections";
 
     private static final String SENSITIVE_WORDS_CHANNEL_ID = "SensitiveWordsChannel";
+    // Ogni parola usa l'id di base più il proprio slot nel dispatcher: gli aggiornamenti sostituiscono la notifica.
     private static final int SENSITIVE_WORDS_NOTIFICATION_ID = 2;
-    private static final List<String> SENSITIVE_WORDS = Arrays.asList("stop", "off");
 
-    private static final float UI_BACKGROUND_LOG_THRESHOLD = 0.80f;
+    static final float UI_BACKGROUND_LOG_THRESHOLD = 0.80f;
     private static final long UI_BACKGROUND_LOG_GROUPING_TIME_MS = 1000;
+    static final int DETECTION_SMOOTHING_WINDOWS = 3;
+    static final long DETECTION_REFRACTORY_MS = 1000;
+    private static final int MAX_POOL_ENGINES = 4; // Motori del pool per i flussi aggiuntivi
+    private static final long OFFLINE_HOP_MS = 100; // Passo delle registrazioni, pari al passo minimo dal vivo
+    private static final long FILE_FEED_HOP_MS = 100; // Passo dei flussi da file, pari al passo minimo dal vivo
+    private static final int WARM_UP_INFERENCES = 2; // Inferenze su silenzio prima di avviare l'acquisizione
+
+    // Ciclo di vita del classificatore: IDLE -> LOADING -> WARMING -> READY -> RUNNING,
+    // con ritorno a IDLE allo stop o in caso di errore in qualsiasi stato.
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_LOADING = 1;
+    public static final int STATE_WARMING = 2;
+    public static final int STATE_READY = 3;
+    public static final int STATE_RUNNING = 4;
+
+    private static final String[] STATE_NAMES = {"IDLE", "LOADING", "WARMING", "READY", "RUNNING"};
 
     public static final String ACTION_START_CLASSIFICATION = "com.example.kspotting.START_CLASSIFICATION";
     public static final String ACTION_STOP_CLASSIFICATION = "com.example.kspotting.STOP_CLASSIFICATION";
     public static final String ACTION_REQUEST_LOG_HISTORY = "com.example.kspotting.REQUEST_LOG_HISTORY";
 
-    public static final String ACTION_CLASSIFICATION_RESULT = "com.example.kspotting.CLASSIFICATION_RESULT";
     public static final String ACTION_CLASSIFICATION_ERROR = "com.example.kspotting.CLASSIFICATION_ERROR";
     public static final String ACTION_SERVICE_INITIALIZED = "com.example.kspotting.SERVICE_INITIALIZED";
     public static final String ACTION_SERVICE_STOPPED = "com.example.kspotting.SERVICE_STOPPED";
     public static final String ACTION_LOG_HISTORY_RESPONSE = "com.example.kspotting.LOG_HISTORY_RESPONSE";
+    public static final String ACTION_CLASSIFIER_STATE_CHANGED = "com.example.kspotting.CLASSIFIER_STATE_CHANGED";
 
-    public static final String EXTRA_LABELS = "extra_labels";
-    public static final String EXTRA_SCORES = "extra_scores";
-    public static final String EXTRA_INFERENCE_TIME = "extra_inference_time";
     public static final String EXTRA_ERROR_MESSAGE = "extra_error_message";
+    public static final String EXTRA_CLASSIFIER_STATE = "extra_classifier_state"; // Uno degli STATE_*
     public static final String EXTRA_LOG_HISTORY = "extra_log_history";
+    // Richiesta: sequenza dell'ultima voce già ricevuta dal client, -1 per la cronologia completa.
+    public static final String EXTRA_LOG_HISTORY_FROM_SEQUENCE = "extra_log_history_from_sequence";
+    // Risposta: sequenze delle voci in EXTRA_LOG_HISTORY e se il client deve scartare la propria copia.
+    public static final String EXTRA_LOG_HISTORY_SEQUENCES = "extra_log_history_sequences";
+    public static final String EXTRA_LOG_HISTORY_FULL_RESYNC = "extra_log_history_full_resync";
 
-    private AudioClassificationHelper audioHelper;
+    private volatile AudioClassificationHelper audioHelper;
     private LocalBroadcastManager localBroadcastManager;
-    private LinkedList<ClassificationLogEntry> backgroundLogEntries;
+    private DetectionHistory backgroundLogEntries;
+    private DetectionLogStore detectionLog; // Registro persistente, sopravvive a stop e riavvii del processo
+    private PosteriorSmoother detectionSmoother; // Usato solo dal thread di inferenza
+    private KeywordRules.Compiled keywordRules; // Regole con cui è stato creato lo smoother
+    // Regole compilate per l'ultima tabella del modello dal vivo, anche se ancora in attesa di
+    // installazione. Preparate fuori dal thread di inferenza, che legge soltanto il campo.
+    private volatile KeywordRules.Compiled preparedKeywordRules;
+    private final Object keywordRulesLock = new Object();
+    private final TraceLog trace = TraceLog.shared();
+    private AlertDispatcher alertDispatcher;
+    private PendingIntent sensitiveWordPendingIntent; // Creato e usato solo sul thread del dispatcher
+
+    // Il caricamento del modello, l'apertura della sorgente audio e il rilascio delle risorse non
+    // avvengono sul thread principale. Un solo thread: il rilascio di una sessione precede sempre
+    // l'inizializzazione della successiva.
+    private final ExecutorService initExecutor =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "kspotting-init"));
+    private Handler mainHandler;
+    private final Object stateLock = new Object();
+    private volatile int classifierState = STATE_IDLE;
+    // Incrementata a ogni avvio e stop: un'inizializzazione di una generazione precedente viene scartata.
+    private int startGeneration = 0;
+    private volatile long timeToReadyMs = -1;
+    private EnginePool enginePool; // Creato al primo flusso da file, protetto dal monitor del binder
+    private final AtomicReference<FileFeedClassifier> fileFeed = new AtomicReference<>();
+
+    private final ClassificationBinder binder = new ClassificationBinder();
+    // Copia-su-scrittura: il thread di inferenza scorre l'array senza lock né iteratori.
+    private volatile ResultListener[] resultListeners = new ResultListener[0];
+
+    /**
+     * Listener dei risultati per i client nello stesso processo, collegati tramite bindService.
+     */
+    public interface ResultListener {
+        /**
+         * Chiamato sul thread di inferenza; {@code result} viene riutilizzato alla finestra successiva.
+         */
+        void onClassificationResult(ClassificationResult result);
+    }
+
+    /**
+     * Binder locale: sostituisce i broadcast per-risultato con chiamate dirette.
+     */
+    public class ClassificationBinder extends Binder {
+
+        public void registerResultListener(ResultListener listener) {
+            synchronized (this) {
+                for (ResultListener existing : resultListeners) {
+                    if (existing == listener) {
+                        return;
+                    }
+                }
+                ResultListener[] updated = Arrays.copyOf(resultListeners, resultListeners.length + 1);
+                updated[updated.length - 1] = listener;
+                resultListeners = updated;
+            }
+        }
+
+        public void unregisterResultListener(ResultListener listener) {
+            synchronized (this) {
+                ResultListener[] current = resultListeners;
+                for (int i = 0; i < current.length; i++) {
+                    if (current[i] == listener) {
+                        ResultListener[] updated = new ResultListener[current.length - 1];
+                        System.arraycopy(current, 0, updated, 0, i);
+                        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                        resultListeners = updated;
+                        return;
+                    }
+                }
+            }
+        }
+
+        public boolean isClassificationRunning() {
+            AudioClassificationHelper helper = audioHelper;
+            return helper != null && helper.isRecording();
+        }
+
+        /**
+         * Stato corrente del classificatore, uno degli {@code STATE_*}.
+         */
+        public int getClassifierState() {
+            return classifierState;
+        }
+
+        /**
+         * Classifica una registrazione (WAV o PCM grezzo, alla frequenza del modello) con un motore a
+         * thread singolo per core e le stesse soglie e regole della classificazione dal vivo. I motori
+         * condividono un'unica mappatura del modello. Blocca il chiamante: da chiamare fuori dal
+         * thread principale. Non usa né altera la classificazione in corso.
+         *
+         * @param rawSampleRate frequenza del file se è PCM grezzo senza intestazione WAV
+         * @param startTimeMs   istante di inizio della registrazione, base dei timestamp delle rilevazioni
+         */
+        public OfflineClassifier.Report classifyRecording(File file, int rawSampleRate, long startTimeMs)
+                throws IOException, InterruptedException {
+            int workers = Runtime.getRuntime().availableProcessors();
+            MappedByteBuffer model = TfliteInferenceEngine.mapModel(AudioClassificationService.this,
+                    AudioClassificationHelper.DEFAULT_MODEL_NAME);
+            OfflineClassifier classifier = new OfflineClassifier(
+                    () -> TfliteInferenceEngine.create(model, 1), workers, OFFLINE_HOP_MS);
+            try {
+                OfflineClassifier.Report report = classifier.classify(file, rawSampleRate, startTimeMs,
+                        KeywordRules.shared(AudioClassificationService.this));
+                Log.i(TAG, "Registrazione " + file.getName() + " classificata con " + workers + " worker: " + report);
+                return report;
+            } finally {
+                classifier.close();
+            }
+        }
+
+        /**
+         * Classifica in tempo reale un file audio (WAV o PCM grezzo, alla frequenza del modello) sul
+         * pool di motori, accanto al microfono; un flusso da file già attivo viene fermato. Le
+         * rilevazioni finiscono nel registro persistente e negli avvisi come quelle dal vivo, non
+         * nella cronologia recente. Da chiamare fuori dal thread principale.
+         *
+         * @param rawSampleRate frequenza del file se è PCM grezzo senza intestazione WAV
+         */
+        public void startFileStream(File file, int rawSampleRate) throws IOException {
+            FileFeedClassifier feed = new FileFeedClassifier(obtainEnginePool(), file, rawSampleRate, FILE_FEED_HOP_MS,
+                    KeywordRules.shared(AudioClassificationService.this), fileFeedListener);
+            FileFeedClassifier previous = fileFeed.getAndSet(feed);
+            if (previous != null) {
+                previous.stop();
+            }
+            feed.start();
+            Log.i(TAG, "Flusso da file avviato: " + file.getName());
+        }
+
+        /**
+         * Ferma il flusso da file in corso, se c'è. Può attendere fino a un secondo.
+         */
+        public void stopFileStream() {
+            FileFeedClassifier feed = fileFeed.getAndSet(null);
+            if (feed != null) {
+                feed.stop();
+            }
+        }
+
+        public boolean isFileStreamRunning() {
+            FileFeedClassifier feed = fileFeed.get();
+            return feed != null && feed.isRunning();
+        }
+
+        /**
+         * Numero di thread scelto per il modello corrente e latenze misurate per le alternative.
+         */
+        @Nullable
+        public InferenceCalibration getCalibration() {
+            AudioClassificationHelper helper = audioHelper;
+            return helper != null ? helper.getCalibration() : null;
+        }
+
+        /**
+         * Dall'avvio richiesto allo stato READY nell'ultimo avvio, in millisecondi; -1 se non ancora misurato.
+         */
+        public long getTimeToReadyMs() {
+            return timeToReadyMs;
+        }
+
+        @Nullable
+        public LabelTable getLabelTable() {
+            AudioClassificationHelper helper = audioHelper;
+            return helper != null ? helper.getLabelTable() : null;
+        }
+
+        /**
+         * Regole delle parole chiave in uso, le stesse consultate da MainActivity.
+         */
+        public KeywordRules getKeywordRules() {
+            return KeywordRules.shared(AudioClassificationService.this);
+        }
+
+        /**
+         * Rilegge {@value KeywordRules#CONFIG_FILE_NAME}; le nuove soglie valgono dal risultato successivo.
+         * Legge da file: da chiamare fuori dal thread principale.
+         */
+        public KeywordRules reloadKeywordRules() {
+            synchronized (keywordRulesLock) {
+                KeywordRules rules = KeywordRules.reload(AudioClassificationService.this);
+                KeywordRules.Compiled prepared = preparedKeywordRules;
+                if (prepared != null) {
+                    preparedKeywordRules = rules.compile(prepared.getLabelTable());
+                }
+                return rules;
+            }
+        }
+
+        /**
+         * Rilevazioni persistite con timestamp in [{@code fromMs}, {@code toMs}], in ordine cronologico.
+         * Legge da file: da chiamare fuori dal thread principale.
+         */
+        public List<ClassificationLogEntry> queryDetections(long fromMs, long toMs, int maxEntries) throws IOException {
+            return detectionLog.query(fromMs, toMs, maxEntries);
+        }
+
+        /**
+         * Scrive su logcat la traccia diagnostica in memoria (vedi {@link TraceLog}).
+         */
+        public void dumpTrace(String reason) {
+            trace.dump(reason);
+        }
+
+        /**
+         * Sostituisce il modello senza fermare l'acquisizione (vedi {@link AudioClassificationHelper#loadModel}).
+         *
+         * @return false se la classificazione non è attiva
+         */
+        public boolean swapModel(String modelName) {
+            AudioClassificationHelper helper = audioHelper;
+            if (helper == null || !helper.isClassifierInitialized()) {
+                return false;
+            }
+            helper.loadModel(modelName);
+            return true;
+        }
+
+        /**
+         * Passo corrente tra due finestre di inferenza, 0 se la classificazione non è attiva.
+         */
+        public long getCurrentHopMs() {
+            AudioClassificationHelper helper = audioHelper;
+            return helper != null ? helper.getCurrentHopMs() : 0;
+        }
+
+        /**
+         * Percentili di latenza di uno stadio ({@code PipelineMetrics.STAGE_*}) della sessione in corso.
+         */
+        @Nullable
+        public LatencyHistogram.Snapshot getLatencySnapshot(int stage) {
+            AudioClassificationHelper helper = audioHelper;
+            return helper != null ? helper.getMetrics().snapshot(stage) : null;
+        }
+
+        /**
+         * Registra la latenza dal microfono alla UI di un risultato appena mostrato.
+         * Da chiamare sempre dallo stesso thread (quello UI del client).
+         */
+        public void recordDisplayLatency(long captureTimeNanos) {
+            AudioClassificationHelper helper = audioHelper;
+            if (helper != null && captureTimeNanos != 0) {
+                helper.getMetrics().record(PipelineMetrics.STAGE_END_TO_END, System.nanoTime() - captureTimeNanos);
+            }
+        }
+    }
+
+    /**
+     * Pool di motori per i flussi da file, creato al primo uso da un'unica mappatura del modello.
+     * La classificazione dal microfono mantiene il proprio motore.
+     */
+    private EnginePool obtainEnginePool() throws IOException {
+        synchronized (binder) {
+            if (enginePool == null) {
+                MappedByteBuffer model = TfliteInferenceEngine.mapModel(this, AudioClassificationHelper.DEFAULT_MODEL_NAME);
+                int size = Math.max(1, Math.min(MAX_POOL_ENGINES, Runtime.getRuntime().availableProcessors() / 2));
+                enginePool = new EnginePool(() -> TfliteInferenceEngine.create(model, 1), size);
+                Log.i(TAG, "Pool di motori creato: " + size + " motori.");
+            }
+            return enginePool;
+        }
+    }
+
+    private final FileFeedClassifier.Listener fileFeedListener = new FileFeedClassifier.Listener() {
+        // Su un worker del pool. La cronologia recente resta del solo thread di inferenza dal vivo.
+        @Override
+        public void onDetection(FileFeedClassifier feed, int labelId, float confidence, long timestampMs) {
+            LabelTable labelTable = feed.getLabelTable();
+            String label = labelTable.getLabel(labelId);
+            trace.trace(TRACE_DECISION, label, confidence * 100);
+            dispatchKeyword(labelTable.getNormalizedLabel(labelId), feed.getKeywordRules().getSeverity(labelId), confidence);
+            detectionLog.append(label, confidence, timestampMs);
+        }
+
+        @Override
+        public void onFinished(FileFeedClassifier feed, String error) {
+            fileFeed.compareAndSet(feed, null);
+            if (error != null) {
+                Log.e(TAG, error);
+            }
+            Log.i(TAG, "Flusso da file " + feed.getFile().getName() + " terminato: " + feed.getStats());
+        }
+    };
 
     @Override
     public void onCreate() {
         super.onCreate();
         localBroadcastManager = LocalBroadcastManager.getInstance(this);
+        mainHandler = new Handler(Looper.getMainLooper());
         createNotificationChannels();
-        backgroundLogEntries = new LinkedList<>();
+        alertDispatcher = new AlertDispatcher(this::showSensitiveWordNotification);
+        backgroundLogEntries = new DetectionHistory(MAX_BACKGROUND_LOG_ENTRIES, UI_BACKGROUND_LOG_GROUPING_TIME_MS);
+        detectionLog = new DetectionLogStore(new File(getFilesDir(), DETECTION_LOG_DIRECTORY));
+        // Il file delle regole viene letto qui, non dal primo risultato né dal thread principale.
+        runInBackground(() -> KeywordRules.shared(this));
         Log.d(TAG, "Service onCreate");
     }
 
@@ -77,137 +397,331 @@ public class AudioClassificationService extends Service implements AudioClassifi
         } else if (ACTION_STOP_CLASSIFICATION.equals(action)) {
             stopClassificationLogic();
         } else if (ACTION_REQUEST_LOG_HISTORY.equals(action)) {
-            sendLogHistoryToActivity();
+            sendLogHistoryToActivity(intent.getLongExtra(EXTRA_LOG_HISTORY_FROM_SEQUENCE, -1));
         }
 
         return START_STICKY;
     }
 
     private void startClassificationLogic() {
-        startForeground(NOTIFICATION_ID, createMainNotification("Inizializzazione classificatore..."));
-
-        if (audioHelper == null || !audioHelper.isClassifierInitialized()) {
-            audioHelper = new AudioClassificationHelper(this, this);
+        int generation;
+        synchronized (stateLock) {
+            if (classifierState != STATE_IDLE) {
+                Log.d(TAG, "Avvio ignorato, classificatore nello stato " + STATE_NAMES[classifierState]);
+                if (classifierState == STATE_RUNNING) {
+                    sendServiceInitializedBroadcast();
+                }
+                return;
+            }
+            startForeground(NOTIFICATION_ID, createMainNotification(describeState(STATE_LOADING)));
+            generation = ++startGeneration;
+            setStateLocked(STATE_LOADING);
         }
+        long requestNanos = System.nanoTime();
+        initExecutor.execute(() -> initializeClassifier(generation, requestNanos));
+    }
 
-        if (audioHelper.isClassifierInitialized()) {
-            audioHelper.start();
-            updateMainNotification("Classificazione audio attiva");
+    /**
+     * Sul thread di inizializzazione: carica il modello, apre la sorgente audio ed esegue le
+     * inferenze di riscaldamento; l'avvio dell'acquisizione torna sul thread principale.
+     */
+    private void initializeClassifier(int generation, long requestNanos) {
+        synchronized (stateLock) {
+            if (generation != startGeneration) {
+                Log.d(TAG, "Inizializzazione annullata prima del caricamento del modello.");
+                return;
+            }
+        }
+        AudioClassificationHelper helper = new AudioClassificationHelper(this, this);
+        if (!helper.isClassifierInitialized()) {
+            // L'helper ha già segnalato l'errore con onError, che riporta lo stato a IDLE.
+            return;
+        }
+        prepareKeywordRules(helper.getLabelTable());
+        if (!advanceState(generation, STATE_WARMING)) {
+            helper.stop();
+            return;
+        }
+        long warmUpNanos = helper.warmUp(WARM_UP_INFERENCES);
+        if (!advanceState(generation, STATE_READY)) {
+            helper.stop();
+            return;
+        }
+        timeToReadyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestNanos);
+        Log.i(TAG, "Classificatore pronto in " + timeToReadyMs + " ms (riscaldamento: "
+                + TimeUnit.NANOSECONDS.toMillis(warmUpNanos) + " ms).");
+
+        mainHandler.post(() -> {
+            synchronized (stateLock) {
+                if (generation != startGeneration) {
+                    runInBackground(helper::stop);
+                    return;
+                }
+                audioHelper = helper;
+                helper.start();
+                setStateLocked(STATE_RUNNING);
+            }
             sendServiceInitializedBroadcast();
             Log.d(TAG, "Classificazione avviata con successo in service.");
-        } else {
-            String errorMsg = "Impossibile inizializzare il classificatore audio.";
-            Log.e(TAG, errorMsg);
-            onError(errorMsg);
+        });
+    }
+
+    private boolean advanceState(int generation, int newState) {
+        synchronized (stateLock) {
+            if (generation != startGeneration) {
+                Log.d(TAG, "Inizializzazione annullata prima dello stato " + STATE_NAMES[newState]);
+                return false;
+            }
+            setStateLocked(newState);
+            return true;
+        }
+    }
+
+    // Notifica e broadcast sotto lock, così i client ricevono le transizioni nell'ordine in cui avvengono.
+    private void setStateLocked(int newState) {
+        classifierState = newState;
+        Log.d(TAG, "Stato del classificatore: " + STATE_NAMES[newState]);
+        if (newState != STATE_IDLE) {
+            updateMainNotification(describeState(newState));
+        }
+        Intent intent = new Intent(ACTION_CLASSIFIER_STATE_CHANGED);
+        intent.putExtra(EXTRA_CLASSIFIER_STATE, newState);
+        localBroadcastManager.sendBroadcast(intent);
+    }
+
+    private static String describeState(int state) {
+        switch (state) {
+            case STATE_LOADING: return "Caricamento modello...";
+            case STATE_WARMING: return "Preparazione classificatore...";
+            case STATE_READY: return "Classificatore pronto";
+            case STATE_RUNNING: return "Classificazione audio attiva";
+            default: return "Classificatore inattivo";
         }
     }
 
+    /**
+     * Sul thread principale cambia solo lo stato; l'arresto dell'acquisizione, che attende la fine
+     * dei thread audio e di inferenza, avviene sul thread di inizializzazione.
+     */
     private void stopClassificationLogic() {
         Log.d(TAG, "Stopping classification logic.");
-        if (audioHelper != null) {
-            audioHelper.stop();
-            audioHelper = null;
+        synchronized (stateLock) {
+            // Annulla un'eventuale inizializzazione in corso.
+            startGeneration++;
+            if (classifierState != STATE_IDLE) {
+                setStateLocked(STATE_IDLE);
+            }
         }
-        backgroundLogEntries.clear();
+        AudioClassificationHelper helper = audioHelper;
+        audioHelper = null;
+        runInBackground(() -> releaseClassifier(helper));
         sendServiceStoppedBroadcast();
         stopForeground(true);
         stopSelf();
         Log.d(TAG, "Classificazione interrotta e service terminato.");
     }
 
+    // Sul thread di inizializzazione.
+    private void releaseClassifier(@Nullable AudioClassificationHelper helper) {
+        if (helper != null) {
+            Log.i(TAG, "Finestre filtrate dal VAD: " + helper.getGatedWindows()
+                    + ", inoltrate al classificatore: " + helper.getPassedWindows());
+            Log.i(TAG, "Passo finale: " + helper.getCurrentHopMs() + " ms, finestre oltre il passo: "
+                    + helper.getOverrunWindows() + ", saltate: " + helper.getSkippedWindows());
+            Log.i(TAG, "Arretrati recuperati a lotti: " + helper.getBatches() + " lotti, "
+                    + helper.getBatchedWindows() + " finestre.");
+            if (helper.getModelSwaps() > 0) {
+                Log.i(TAG, "Modelli sostituiti: " + helper.getModelSwaps() + ", ultima sostituzione in "
+                        + helper.getLastSwapLatencyMs() + " ms con " + helper.getLastSwapGapMs()
+                        + " ms di audio non coperto.");
+            }
+            Log.i(TAG, "Avvisi parole sensibili: " + alertDispatcher.getSubmitted() + " rilevazioni, "
+                    + alertDispatcher.getEmitted() + " notifiche, " + alertDispatcher.getSuppressed() + " accorpate.");
+            AudioPreprocessor preprocessor = helper.getPreprocessor();
+            if (preprocessor != null) {
+                Log.i(TAG, String.format(Locale.US, "Guadagno automatico finale: %.1f dB, ultimo livello %.1f dBFS.",
+                        preprocessor.getGainDb(), preprocessor.getLastLevelDb()));
+            }
+            Log.i(TAG, "Latenze per stadio:\n" + helper.getMetrics());
+            helper.stop();
+        }
+        // Il thread di inferenza, unico scrittore della cronologia, è terminato.
+        backgroundLogEntries.clear();
+    }
+
+    private void runInBackground(Runnable task) {
+        try {
+            initExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Service già distrutto: non resta nulla di attivo da attendere.
+            task.run();
+        }
+    }
+
     @Override
     public void onDestroy() {
         Log.d(TAG, "Service onDestroy");
-        if (audioHelper != null) {
-            audioHelper.stop();
-            audioHelper = null;
+        synchronized (stateLock) {
+            startGeneration++;
+            classifierState = STATE_IDLE;
         }
-        backgroundLogEntries.clear();
+        AudioClassificationHelper helper = audioHelper;
+        audioHelper = null;
+        resultListeners = new ResultListener[0];
+        // Accodato dopo un eventuale arresto ancora in corso; shutdown e non shutdownNow, così viene eseguito.
+        runInBackground(() -> {
+            releaseClassifier(helper);
+            FileFeedClassifier feed = fileFeed.getAndSet(null);
+            if (feed != null) {
+                feed.stop();
+            }
+            synchronized (binder) {
+                if (enginePool != null) {
+                    Log.i(TAG, "Utilizzo del pool di motori: " + Math.round(enginePool.getUtilization() * 100) + "%");
+                    enginePool.close();
+                    enginePool = null;
+                }
+            }
+            alertDispatcher.close();
+            detectionLog.close();
+        });
+        initExecutor.shutdown();
         super.onDestroy();
     }
 
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
     }
 
     @Override
     public void onError(String error) {
         Log.e(TAG, "Errore da AudioClassificationHelper: " + error);
+        trace.dump("errore del classificatore");
         Intent errorIntent = new Intent(ACTION_CLASSIFICATION_ERROR);
         errorIntent.putExtra(EXTRA_ERROR_MESSAGE, error);
         localBroadcastManager.sendBroadcast(errorIntent);
-        stopClassificationLogic();
+        // Gli errori arrivano dai thread di inizializzazione, acquisizione o inferenza.
+        mainHandler.post(this::stopClassificationLogic);
     }
 
     @Override
-    public void onResults(List<Category> results, long inferenceTime) {
-        String[] labels = new String[results.size()];
-        float[] scores = new float[results.size()];
-        for (int i = 0; i < results.size(); i++) {
-            Category category = results.get(i);
-            labels[i] = category.getLabel();
-            scores[i] = category.getScore();
-        }
-        Intent resultIntent = new Intent(ACTION_CLASSIFICATION_RESULT);
-        resultIntent.putExtra(EXTRA_LABELS, labels);
-        resultIntent.putExtra(EXTRA_SCORES, scores);
-        resultIntent.putExtra(EXTRA_INFERENCE_TIME, inferenceTime);
-        localBroadcastManager.sendBroadcast(resultIntent);
-
-        if (!results.isEmpty()) {
-            Category topResult = results.get(0);
-            long now = System.currentTimeMillis();
-
-            String normalizedTopLabel = topResult.getLabel().toLowerCase(Locale.ROOT).trim();
-            Log.d(TAG, String.format(Locale.getDefault(),
-                    "Top Result per parola sensibile - Etichetta: '%s', Confidenza: %.2f%%",
-                    normalizedTopLabel, topResult.getScore() * 100));
-
-            if (SENSITIVE_WORDS.contains(normalizedTopLabel) && topResult.getScore() >= UI_BACKGROUND_LOG_THRESHOLD) {
-                showSensitiveWordNotification(normalizedTopLabel, topResult.getScore());
-                Log.i(TAG, "Attivata notifica per parola sensibile: " + normalizedTopLabel);
-            }
+    public void onModelLoaded(LabelTable labelTable) {
+        prepareKeywordRules(labelTable);
+    }
 
-            if (topResult.getScore() >= UI_BACKGROUND_LOG_THRESHOLD) {
-                boolean foundExistingEntry = false;
-                if (!backgroundLogEntries.isEmpty()) {
-                    ClassificationLogEntry lastEntry = backgroundLogEntries.getFirst();
-                    if (lastEntry.label.toLowerCase(Locale.ROOT).trim().equals(normalizedTopLabel) &&
-                            (now - lastEntry.timestamp < UI_BACKGROUND_LOG_GROUPING_TIME_MS)) {
-
-                        if (topResult.getScore() > lastEntry.confidence) {
-                            lastEntry.confidence = topResult.getScore();
-                            lastEntry.timestamp = now;
-                            backgroundLogEntries.removeFirst();
-                            backgroundLogEntries.addFirst(lastEntry);
-                        }
-                        foundExistingEntry = true;
-                    }
-                }
+    // Fuori dal thread di inferenza: carica le regole se serve e le compila per la tabella.
+    private void prepareKeywordRules(LabelTable labelTable) {
+        synchronized (keywordRulesLock) {
+            preparedKeywordRules = KeywordRules.shared(this).compile(labelTable);
+        }
+    }
 
-                if (!foundExistingEntry) {
-                    ClassificationLogEntry newEntry = new ClassificationLogEntry(
-                            topResult.getLabel(),
-                            topResult.getScore(),
-                            now
-                    );
-                    backgroundLogEntries.addFirst(newEntry);
+    @Override
+    public void onResults(ClassificationResult result) {
+        ResultListener[] listeners = resultListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onClassificationResult(result);
+        }
 
-                    if (backgroundLogEntries.size() > MAX_BACKGROUND_LOG_ENTRIES) {
-                        backgroundLogEntries.removeLast();
-                    }
-                }
-            }
+        LabelTable labelTable = result.getLabelTable();
+        PosteriorSmoother smoother = obtainDetectionSmoother(labelTable);
+        int detectedLabelId = smoother.update(result);
+
+        if (!result.isEmpty()) {
+            trace.trace(TRACE_TOP_RESULT, labelTable.getNormalizedLabel(result.getTopLabelId()),
+                    result.getTopScore() * 100);
+        }
+        if (detectedLabelId == PosteriorSmoother.NO_DECISION) {
+            return;
+        }
+
+        // La decisione arriva dal punteggio livellato: soglia e periodo refrattario sono nello smoother.
+        float confidence = smoother.getLastDecisionScore();
+        long now = result.getTimestampMs();
+        String detectedLabel = labelTable.getLabel(detectedLabelId);
+        String normalizedLabel = labelTable.getNormalizedLabel(detectedLabelId);
+        trace.trace(TRACE_DECISION, detectedLabel, confidence * 100);
+
+        // Una sola lettura per id: le regole sono già compilate sulla tabella delle etichette.
+        dispatchKeyword(normalizedLabel, keywordRules.getSeverity(detectedLabelId), confidence);
+
+        // Le etichette provengono dalla stessa LabelTable: nessuna normalizzazione per risultato.
+        backgroundLogEntries.record(detectedLabel, confidence, now);
+        // Il registro persistente conserva ogni decisione, senza raggruppamento.
+        detectionLog.append(detectedLabel, confidence, now);
+    }
+
+    private void dispatchKeyword(String normalizedLabel, int severity, float confidence) {
+        if (severity >= KeywordRules.SEVERITY_WARNING) {
+            // La notifica viene limitata, accorpata e costruita sul thread del dispatcher.
+            alertDispatcher.submit(normalizedLabel, severity, confidence);
+        } else if (severity == KeywordRules.SEVERITY_INFO) {
+            Log.i(TAG, "Parola osservata: " + normalizedLabel + " con confidenza " + confidence * 100 + "%");
         }
     }
 
-    private void sendLogHistoryToActivity() {
+    private PosteriorSmoother obtainDetectionSmoother(LabelTable labelTable) {
+        // Una sostituzione del modello porta una nuova tabella: le medie precedenti non valgono più.
+        // Le regole compilate dipendono dalla tabella e dalla configurazione: la stessa istanza le copre entrambe.
+        // Quelle preparate per un modello non ancora installato restano in attesa della sua tabella.
+        KeywordRules.Compiled prepared = preparedKeywordRules;
+        if (prepared != null && prepared != keywordRules && prepared.getLabelTable() == labelTable) {
+            detectionSmoother = newDetectionSmoother(prepared);
+            keywordRules = prepared;
+        } else if (keywordRules == null || keywordRules.getLabelTable() != labelTable) {
+            // Ogni modello passa da onModelLoaded o da initializeClassifier prima di produrre risultati.
+            Log.w(TAG, "Regole non preparate per le etichette correnti: compilazione sul thread di inferenza.");
+            keywordRules = KeywordRules.shared(this).compile(labelTable);
+            detectionSmoother = newDetectionSmoother(keywordRules);
+        }
+        return detectionSmoother;
+    }
+
+    /**
+     * Smoother delle decisioni con le soglie di {@code rules}: lo stesso per la classificazione dal
+     * vivo e per le registrazioni, così a parità di audio le rilevazioni coincidono.
+     */
+    static PosteriorSmoother newDetectionSmoother(KeywordRules.Compiled rules) {
+        PosteriorSmoother smoother = new PosteriorSmoother(rules.getLabelTable().size(), DETECTION_SMOOTHING_WINDOWS,
+                DETECTION_REFRACTORY_MS, UI_BACKGROUND_LOG_THRESHOLD);
+        rules.applyThresholds(smoother);
+        return smoother;
+    }
+
+    /**
+     * Invia le voci con sequenza maggiore o uguale a {@code fromSequence}, in ordine cronologico.
+     * La voce {@code fromSequence} viene reinviata perché potrebbe essere stata aggiornata da un
+     * raggruppamento. Se la sequenza non è più nella cronologia (o è di un'istanza precedente del
+     * service) si invia tutto con la richiesta di risincronizzazione completa.
+     */
+    private void sendLogHistoryToActivity(long fromSequence) {
+        long oldest = backgroundLogEntries.getOldestSequence();
+        boolean fullResync = fromSequence < oldest || fromSequence > backgroundLogEntries.getHeadSequence();
+        long startSequence = fullResync ? oldest : fromSequence;
+
+        ArrayList<ClassificationLogEntry> entries = new ArrayList<>();
+        long firstSequence = startSequence;
+        DetectionHistory.Cursor cursor = backgroundLogEntries.newCursor();
+        while (cursor.next() && cursor.getSequence() >= startSequence) {
+            entries.add(new ClassificationLogEntry(cursor.getLabel(), cursor.getConfidence(), cursor.getTimestampMs()));
+            firstSequence = cursor.getSequence();
+        }
+        // Il cursore scorre dalla più recente: si inverte una volta qui, il client non riordina.
+        Collections.reverse(entries);
+        long[] sequences = new long[entries.size()];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = firstSequence + i;
+        }
+
         Intent historyIntent = new Intent(ACTION_LOG_HISTORY_RESPONSE);
-        historyIntent.putParcelableArrayListExtra(EXTRA_LOG_HISTORY, new ArrayList<Parcelable>(backgroundLogEntries));
+        historyIntent.putParcelableArrayListExtra(EXTRA_LOG_HISTORY, entries);
+        historyIntent.putExtra(EXTRA_LOG_HISTORY_SEQUENCES, sequences);
+        historyIntent.putExtra(EXTRA_LOG_HISTORY_FULL_RESYNC, fullResync);
         localBroadcastManager.sendBroadcast(historyIntent);
-        Log.d(TAG, "Inviata cronologia dei log alla MainActivity. Numero di voci: " + backgroundLogEntries.size());
+        Log.d(TAG, "Inviata cronologia dei log alla MainActivity dalla sequenza " + startSequence
+                + (fullResync ? " (completa)" : "") + ". Numero di voci: " + entries.size());
     }
 
     private void sendServiceInitializedBroadcast() {
@@ -278,30 +792,42 @@ public class AudioClassificationService extends Service implements AudioClassifi
         }
     }
 
-    private void showSensitiveWordNotification(String word, float confidence) {
+    // Chiamato sul thread del dispatcher, al più una volta per periodo di attesa e per parola.
+    private void showSensitiveWordNotification(AlertDispatcher.Alert alert) {
         NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
         if (manager == null) return;
 
-        String notificationText = String.format(Locale.getDefault(),
-                "ATTENZIONE: PAROLA SENSIBILE RILEVATA - '%s' - %.2f%%", word, confidence * 100);
-
-        Intent notificationIntent = new Intent(this, MainActivity.class);
-        notificationIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
-        PendingIntent pendingIntent = PendingIntent.getActivity(
-                this, 0, notificationIntent,
-                Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0
-        );
+        String notificationText = alert.count > 1
+                ? String.format(Locale.getDefault(),
+                        "ATTENZIONE: PAROLA SENSIBILE RILEVATA %d VOLTE - '%s' - picco %.2f%%",
+                        alert.count, alert.keyword, alert.peakConfidence * 100)
+                : String.format(Locale.getDefault(),
+                        "ATTENZIONE: PAROLA SENSIBILE RILEVATA - '%s' - %.2f%%", alert.keyword, alert.peakConfidence * 100);
+
+        if (sensitiveWordPendingIntent == null) {
+            Intent notificationIntent = new Intent(this, MainActivity.class);
+            notificationIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+            sensitiveWordPendingIntent = PendingIntent.getActivity(
+                    this, 0, notificationIntent,
+                    Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0
+            );
+        }
+        int severity = alert.severity;
 
         NotificationCompat.Builder builder = new NotificationCompat.Builder(this, SENSITIVE_WORDS_CHANNEL_ID)
                 .setSmallIcon(android.R.drawable.ic_dialog_alert)
                 .setContentTitle("Avviso Parola Sensibile")
                 .setContentText(notificationText)
-                .setPriority(NotificationCompat.PRIORITY_HIGH)
-                .setCategory(NotificationCompat.CATEGORY_ALARM)
+                .setPriority(severity == KeywordRules.SEVERITY_ALERT
+                        ? NotificationCompat.PRIORITY_HIGH : NotificationCompat.PRIORITY_DEFAULT)
+                .setCategory(severity == KeywordRules.SEVERITY_ALERT
+                        ? NotificationCompat.CATEGORY_ALARM : NotificationCompat.CATEGORY_STATUS)
                 .setAutoCancel(true)
-                .setContentIntent(pendingIntent);
+                // Gli aggiornamenti di un episodio non suonano né vibrano di nuovo.
+                .setOnlyAlertOnce(true)
+                .setContentIntent(sensitiveWordPendingIntent);
 
-        manager.notify(SENSITIVE_WORDS_NOTIFICATION_ID, builder.build());
-        Log.i(TAG, "Notifica parola sensibile: " + word + " con confidenza " + confidence * 100 + "%");
+        manager.notify(SENSITIVE_WORDS_NOTIFICATION_ID + alert.slot, builder.build());
+        Log.i(TAG, (alert.update ? "Aggiornata" : "Inviata") + " notifica parola sensibile: " + alert);
     }
 }
@@ -0,0 +1,270 @@
+package com.example.kspotting;
+
+/**
+ * Condizionamento dell'audio tra acquisizione e inferenza, sul thread di acquisizione.
+ *
+ * Tre stadi, attivabili singolarmente, che lavorano sul frame {@code float[]} sul posto e senza
+ * allocazioni:
+ * <ul>
+ *     <li>rimozione della componente continua: la media di ogni frame aggiorna una stima lenta che
+ *     viene sottratta a tutti i campioni;</li>
+ *     <li>passa-alto biquad (RBJ, Butterworth) contro rimbombi e rumori meccanici sotto la voce;</li>
+ *     <li>controllo automatico del guadagno: il livello RMS del frame porta il guadagno verso il
+ *     livello obiettivo, velocemente quando deve scendere (attacco) e lentamente quando deve salire
+ *     (rilascio). Sotto la soglia di gate il guadagno resta fermo, così il silenzio non viene
+ *     amplificato fino al rumore di fondo.</li>
+ * </ul>
+ * Rimozione della continua e guadagno decidono una volta per frame e applicano la stessa
+ * operazione a tutti i campioni, con cicli senza dipendenze tra iterazioni che il JIT può
+ * vettorizzare; le somme usano quattro accumulatori indipendenti. Il biquad è ricorsivo per
+ * natura: il suo stato resta in variabili locali per tutto il frame.
+ *
+ * Un frame può arrivare in due segmenti dello stesso array, come un blocco che attraversa la fine
+ * di un buffer circolare: statistiche, stato del filtro e metriche coprono il frame intero, con lo
+ * stesso risultato che si avrebbe su un array contiguo.
+ *
+ * Il costo per frame di ogni stadio viene registrato negli stadi di {@link PipelineMetrics}.
+ */
+public class AudioPreprocessor {
+
+    public static final int STAGE_DC_REMOVAL = 1;
+    public static final int STAGE_HIGH_PASS = 1 << 1;
+    public static final int STAGE_AGC = 1 << 2;
+    public static final int ALL_STAGES = STAGE_DC_REMOVAL | STAGE_HIGH_PASS | STAGE_AGC;
+
+    private static final float MIN_MEAN_SQUARE = 1e-10f;
+
+    private final int sampleRate;
+    private final int stages;
+    private final PipelineMetrics metrics;
+
+    // Rimozione della continua
+    private final float dcTimeConstantMs;
+    private float dcEstimate = 0f;
+
+    // Passa-alto, coefficienti normalizzati (a0 = 1) e stato in forma diretta II trasposta
+    private final float b0, b1, b2, a1, a2;
+    private float z1 = 0f, z2 = 0f;
+
+    // Controllo del guadagno
+    private final float targetDb;
+    private final float minGainDb;
+    private final float maxGainDb;
+    private final float attackMs;
+    private final float releaseMs;
+    private final float gateDb;
+    private volatile float gainDb = 0f;
+    private volatile float lastLevelDb = -100f;
+
+    public AudioPreprocessor(int sampleRate, int stages, PipelineMetrics metrics) {
+        this(sampleRate, stages, metrics, 200f, 80f, -20f, -12f, 24f, 10f, 500f, -55f);
+    }
+
+    /**
+     * @param stages           combinazione di {@link #STAGE_DC_REMOVAL}, {@link #STAGE_HIGH_PASS}, {@link #STAGE_AGC}
+     * @param metrics          dove registrare il costo degli stadi, o null
+     * @param dcTimeConstantMs costante di tempo della stima della componente continua
+     * @param highPassHz       frequenza di taglio del passa-alto
+     * @param targetDb         livello RMS obiettivo del guadagno, in dBFS
+     * @param minGainDb        guadagno minimo (attenuazione massima)
+     * @param maxGainDb        guadagno massimo
+     * @param attackMs         costante di tempo con cui il guadagno scende
+     * @param releaseMs        costante di tempo con cui il guadagno sale
+     * @param gateDb           livello RMS (dBFS) sotto cui il guadagno non cambia
+     */
+    public AudioPreprocessor(int sampleRate, int stages, PipelineMetrics metrics, float dcTimeConstantMs,
+                             float highPassHz, float targetDb, float minGainDb, float maxGainDb,
+                             float attackMs, float releaseMs, float gateDb) {
+        if (minGainDb > maxGainDb || attackMs <= 0 || releaseMs <= 0 || dcTimeConstantMs <= 0) {
+            throw new IllegalArgumentException("Parametri di preelaborazione non validi.");
+        }
+        if (highPassHz <= 0 || highPassHz >= sampleRate / 2f) {
+            throw new IllegalArgumentException("Frequenza di taglio non valida: " + highPassHz + " Hz");
+        }
+        this.sampleRate = sampleRate;
+        this.stages = stages;
+        this.metrics = metrics;
+        this.dcTimeConstantMs = dcTimeConstantMs;
+        this.targetDb = targetDb;
+        this.minGainDb = minGainDb;
+        this.maxGainDb = maxGainDb;
+        this.attackMs = attackMs;
+        this.releaseMs = releaseMs;
+        this.gateDb = gateDb;
+
+        double w0 = 2 * Math.PI * highPassHz / sampleRate;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * Math.sqrt(0.5));
+        double a0 = 1 + alpha;
+        this.b0 = (float) ((1 + cos) / 2 / a0);
+        this.b1 = (float) (-(1 + cos) / a0);
+        this.b2 = b0;
+        this.a1 = (float) (-2 * cos / a0);
+        this.a2 = (float) ((1 - alpha) / a0);
+    }
+
+    /**
+     * Elabora sul posto {@code length} campioni a partire da {@code offset}. Solo dal thread di acquisizione.
+     */
+    public void process(float[] frame, int offset, int length) {
+        process(frame, offset, length, 0);
+    }
+
+    /**
+     * Elabora sul posto un frame diviso in due segmenti: {@code firstLength} campioni da
+     * {@code firstOffset}, seguiti da {@code secondLength} campioni dall'indice 0. Solo dal thread
+     * di acquisizione.
+     */
+    public void process(float[] samples, int firstOffset, int firstLength, int secondLength) {
+        int length = firstLength + secondLength;
+        if (length <= 0) {
+            return;
+        }
+        float frameMs = length * 1000f / sampleRate;
+        long start = System.nanoTime();
+        if ((stages & STAGE_DC_REMOVAL) != 0) {
+            removeDc(samples, firstOffset, firstLength, secondLength, frameMs);
+            start = record(PipelineMetrics.STAGE_PREPROCESS_DC, start);
+        }
+        if ((stages & STAGE_HIGH_PASS) != 0) {
+            // Lo stato del filtro prosegue dal primo al secondo segmento.
+            highPass(samples, firstOffset, firstLength);
+            highPass(samples, 0, secondLength);
+            start = record(PipelineMetrics.STAGE_PREPROCESS_HIGH_PASS, start);
+        }
+        if ((stages & STAGE_AGC) != 0) {
+            applyGain(samples, firstOffset, firstLength, secondLength, frameMs);
+            record(PipelineMetrics.STAGE_PREPROCESS_AGC, start);
+        }
+    }
+
+    private long record(int stage, long start) {
+        long now = System.nanoTime();
+        if (metrics != null) {
+            metrics.record(stage, now - start);
+        }
+        return now;
+    }
+
+    private void removeDc(float[] samples, int firstOffset, int firstLength, int secondLength, float frameMs) {
+        float mean = (sum(samples, firstOffset, firstLength) + sum(samples, 0, secondLength))
+                / (firstLength + secondLength);
+        float dc = dcEstimate + (mean - dcEstimate) * smoothing(frameMs, dcTimeConstantMs);
+        dcEstimate = dc;
+        subtract(samples, firstOffset, firstLength, dc);
+        subtract(samples, 0, secondLength, dc);
+    }
+
+    private static void subtract(float[] frame, int offset, int length, float value) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            frame[i] -= value;
+        }
+    }
+
+    private void highPass(float[] frame, int offset, int length) {
+        float s1 = z1;
+        float s2 = z2;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            float x = frame[i];
+            float y = b0 * x + s1;
+            s1 = b1 * x - a1 * y + s2;
+            s2 = b2 * x - a2 * y;
+            frame[i] = y;
+        }
+        z1 = s1;
+        z2 = s2;
+    }
+
+    private void applyGain(float[] samples, int firstOffset, int firstLength, int secondLength, float frameMs) {
+        float meanSquare = (sumSquares(samples, firstOffset, firstLength) + sumSquares(samples, 0, secondLength))
+                / (firstLength + secondLength);
+        float levelDb = 10f * (float) Math.log10(Math.max(meanSquare, MIN_MEAN_SQUARE));
+        lastLevelDb = levelDb;
+        float current = gainDb;
+        if (levelDb >= gateDb) {
+            float desired = Math.max(minGainDb, Math.min(maxGainDb, targetDb - levelDb));
+            float timeConstant = desired < current ? attackMs : releaseMs;
+            current += (desired - current) * smoothing(frameMs, timeConstant);
+            gainDb = current;
+        }
+        float gain = (float) Math.pow(10, current / 20f);
+        scale(samples, firstOffset, firstLength, gain);
+        scale(samples, 0, secondLength, gain);
+    }
+
+    private static void scale(float[] frame, int offset, int length, float gain) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            frame[i] = Math.max(-1f, Math.min(1f, frame[i] * gain));
+        }
+    }
+
+    // Coefficiente di un filtro a un polo con costante di tempo timeConstantMs, per un passo di stepMs.
+    private static float smoothing(float stepMs, float timeConstantMs) {
+        return 1f - (float) Math.exp(-stepMs / timeConstantMs);
+    }
+
+    // Quattro accumulatori indipendenti: la somma non è una catena di dipendenze campione per campione.
+    private static float sum(float[] frame, int offset, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int end = offset + length;
+        int i = offset;
+        for (; i + 3 < end; i += 4) {
+            s0 += frame[i];
+            s1 += frame[i + 1];
+            s2 += frame[i + 2];
+            s3 += frame[i + 3];
+        }
+        for (; i < end; i++) {
+            s0 += frame[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static float sumSquares(float[] frame, int offset, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int end = offset + length;
+        int i = offset;
+        for (; i + 3 < end; i += 4) {
+            s0 += frame[i] * frame[i];
+            s1 += frame[i + 1] * frame[i + 1];
+            s2 += frame[i + 2] * frame[i + 2];
+            s3 += frame[i + 3] * frame[i + 3];
+        }
+        for (; i < end; i++) {
+            s0 += frame[i] * frame[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Azzera filtri e guadagno, ad esempio a ogni nuova registrazione.
+     */
+    public void reset() {
+        dcEstimate = 0f;
+        z1 = 0f;
+        z2 = 0f;
+        gainDb = 0f;
+        lastLevelDb = -100f;
+    }
+
+    public int getStages() {
+        return stages;
+    }
+
+    /**
+     * Guadagno applicato all'ultimo frame, in dB.
+     */
+    public float getGainDb() {
+        return gainDb;
+    }
+
+    /**
+     * Livello RMS dell'ultimo frame prima del guadagno, in dBFS.
+     */
+    public float getLastLevelDb() {
+        return lastLevelDb;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.kspotting;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link AudioSource} sul microfono del dispositivo.
+ */
+public class AudioRecordSource implements AudioSource {
+
+    private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
+    private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
+
+    private final int sampleRate;
+    private AudioRecord record;
+
+    /**
+     * @param minimumBufferSamples dimensione minima del buffer interno di AudioRecord, in campioni
+     */
+    public AudioRecordSource(int sampleRate, int minimumBufferSamples) {
+        this.sampleRate = sampleRate;
+        int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, CHANNEL_CONFIG, AUDIO_FORMAT);
+        if (minBufferSize == AudioRecord.ERROR || minBufferSize == AudioRecord.ERROR_BAD_VALUE) {
+            return;
+        }
+        // Il buffer interno di AudioRecord deve assorbire i ritardi del thread di acquisizione.
+        int bufferSize = Math.max(minBufferSize, minimumBufferSamples * 2);
+        record = new AudioRecord(
+                MediaRecorder.AudioSource.MIC,
+                sampleRate,
+                CHANNEL_CONFIG,
+                AUDIO_FORMAT,
+                bufferSize
+        );
+    }
+
+    /**
+     * false se la dimensione del buffer non è valida o il microfono non è disponibile.
+     */
+    public boolean isInitialized() {
+        return record != null && record.getState() == AudioRecord.STATE_INITIALIZED;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public void start() {
+        record.startRecording();
+    }
+
+    // AudioRecord scrive direttamente nella memoria del buffer, senza passare da un array Java.
+    @Override
+    public int read(ByteBuffer buffer, int length) {
+        int bytes = record.read(buffer, length * 2, AudioRecord.READ_BLOCKING);
+        return bytes < 0 ? bytes : bytes / 2;
+    }
+
+    @Override
+    public void stop() {
+        if (record != null && record.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+            record.stop();
+        }
+    }
+
+    @Override
+    public void release() {
+        if (record != null) {
+            record.release();
+            record = null;
+        }
+    }
+}
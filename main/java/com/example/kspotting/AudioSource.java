@@ -0,0 +1,34 @@
+package com.example.kspotting;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sorgente di campioni PCM mono a 16 bit, letta dal thread di acquisizione.
+ * L'implementazione di produzione è {@link AudioRecordSource}; {@link PcmFileAudioSource}
+ * riproduce file registrati e funziona anche su JVM senza Android.
+ */
+public interface AudioSource {
+
+    /** Valore restituito da {@link #read} quando la sorgente non ha altri campioni. */
+    int END_OF_STREAM = -1000;
+
+    /** Errore di lettura generico (stesso valore di AudioRecord.ERROR). */
+    int ERROR = -1;
+
+    int getSampleRate();
+
+    void start();
+
+    /**
+     * Lettura bloccante di {@code length} campioni in {@code buffer}, diretto e in ordine di byte
+     * nativo, a partire dall'indice 0. La posizione del buffer non cambia.
+     *
+     * @return numero di campioni letti, {@link #END_OF_STREAM} a fine flusso,
+     *         un altro valore negativo in caso di errore
+     */
+    int read(ByteBuffer buffer, int length);
+
+    void stop();
+
+    void release();
+}
@@ -0,0 +1,112 @@
+package com.example.kspotting;
+
+/**
+ * Risultato di una singola inferenza, preallocato e riutilizzato a ogni finestra.
+ * Contiene le prime {@code capacity} categorie come identificativi della {@link LabelTable}
+ * e punteggi, ordinati per punteggio decrescente.
+ *
+ * L'istanza è valida solo durante la callback che la riceve: chi deve conservarne
+ * il contenuto deve copiarlo.
+ */
+public class ClassificationResult {
+
+    private final int[] labelIds;
+    private final float[] scores;
+    private int count = 0;
+    private final LabelTable labelTable;
+    private long inferenceTimeMs = 0;
+    private long timestampMs = 0;
+    private long captureTimeNanos = 0;
+
+    public ClassificationResult(int capacity, LabelTable labelTable) {
+        this.labelIds = new int[capacity];
+        this.scores = new float[capacity];
+        this.labelTable = labelTable;
+    }
+
+    public void clear() {
+        count = 0;
+        inferenceTimeMs = 0;
+    }
+
+    /**
+     * Inserisce una categoria mantenendo l'ordinamento decrescente; scarta quelle fuori dalla top-K.
+     */
+    public void offer(int labelId, float score) {
+        if (Float.isNaN(score)) {
+            return;
+        }
+        int capacity = labelIds.length;
+        if (count == capacity && score <= scores[count - 1]) {
+            return;
+        }
+        int position = count < capacity ? count++ : capacity - 1;
+        while (position > 0 && scores[position - 1] < score) {
+            labelIds[position] = labelIds[position - 1];
+            scores[position] = scores[position - 1];
+            position--;
+        }
+        labelIds[position] = labelId;
+        scores[position] = score;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int getLabelId(int index) {
+        return labelIds[index];
+    }
+
+    public float getScore(int index) {
+        return scores[index];
+    }
+
+    public String getLabel(int index) {
+        return labelTable.getLabel(labelIds[index]);
+    }
+
+    public int getTopLabelId() {
+        return count > 0 ? labelIds[0] : LabelTable.UNKNOWN_LABEL_ID;
+    }
+
+    public float getTopScore() {
+        return count > 0 ? scores[0] : 0f;
+    }
+
+    public LabelTable getLabelTable() {
+        return labelTable;
+    }
+
+    public long getInferenceTimeMs() {
+        return inferenceTimeMs;
+    }
+
+    public void setInferenceTimeMs(long inferenceTimeMs) {
+        this.inferenceTimeMs = inferenceTimeMs;
+    }
+
+    public long getTimestampMs() {
+        return timestampMs;
+    }
+
+    public void setTimestampMs(long timestampMs) {
+        this.timestampMs = timestampMs;
+    }
+
+    /**
+     * Istante ({@link System#nanoTime()}) in cui la sorgente ha restituito l'ultimo campione
+     * della finestra classificata; base della latenza dal microfono alla UI.
+     */
+    public long getCaptureTimeNanos() {
+        return captureTimeNanos;
+    }
+
+    public void setCaptureTimeNanos(long captureTimeNanos) {
+        this.captureTimeNanos = captureTimeNanos;
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.kspotting;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cronologia delle rilevazioni a capacità fissa, condivisa da service e activity.
+ * Rilevazioni della stessa etichetta entro {@code groupingTimeMs} dalla più recente vengono
+ * raggruppate in un'unica voce che conserva la confidenza massima.
+ *
+ * Le voci sono in array paralleli primitivi usati come buffer circolare: aggiunta e
+ * raggruppamento costano O(1) e non allocano. Ogni voce ha un numero di sequenza crescente
+ * (mai riutilizzato, nemmeno dopo {@link #clear()}). Un solo thread alla volta scrive; i lettori
+ * usano un {@link Cursor} che legge senza lock e scarta le letture incoerenti (contatore di
+ * versione dispari durante le modifiche).
+ *
+ * Anche i campi delle voci sono letti e scritti come volatili (array atomici): con array
+ * semplici il modello di memoria permetterebbe di spostare le letture dei dati dopo la seconda
+ * lettura della versione, e un lettore potrebbe accettare una voce incompleta. VarHandle e i suoi
+ * fence richiederebbero API 33.
+ */
+public class DetectionHistory {
+
+    private final int capacity;
+    private final long groupingTimeMs;
+
+    private final AtomicIntegerArray labelIds;
+    private final AtomicIntegerArray confidenceBits; // Float.floatToRawIntBits della confidenza
+    private final AtomicLongArray timestamps;
+
+    // Etichette incontrate finora: le voci ne conservano solo l'indice.
+    private volatile String[] labelNames = new String[0];
+
+    // Sequenza della prossima voce e della più vecchia ancora valida.
+    private volatile long headSequence = 0;
+    private volatile long oldestSequence = 0;
+    private volatile int version = 0;
+
+    public DetectionHistory(int capacity, long groupingTimeMs) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacità della cronologia non valida: " + capacity);
+        }
+        this.capacity = capacity;
+        this.groupingTimeMs = groupingTimeMs;
+        this.labelIds = new AtomicIntegerArray(capacity);
+        this.confidenceBits = new AtomicIntegerArray(capacity);
+        this.timestamps = new AtomicLongArray(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return true se è stata aggiunta una nuova voce, false se la rilevazione è stata raggruppata
+     */
+    public boolean record(String label, float confidence, long timestampMs) {
+        int labelId = internLabel(label);
+        long head = headSequence;
+        if (head > oldestSequence) {
+            int slot = slot(head - 1);
+            if (labelIds.get(slot) == labelId && timestampMs - timestamps.get(slot) < groupingTimeMs) {
+                if (confidence > Float.intBitsToFloat(confidenceBits.get(slot))) {
+                    version++;
+                    confidenceBits.set(slot, Float.floatToRawIntBits(confidence));
+                    timestamps.set(slot, timestampMs);
+                    version++;
+                }
+                return false;
+            }
+        }
+        appendEntry(labelId, confidence, timestampMs);
+        return true;
+    }
+
+    /**
+     * Aggiunge sempre una nuova voce, senza raggruppamento: per copiare voci già raggruppate
+     * altrove, come la cronologia del service.
+     *
+     * @return sequenza della voce aggiunta
+     */
+    public long append(String label, float confidence, long timestampMs) {
+        long sequence = headSequence;
+        appendEntry(internLabel(label), confidence, timestampMs);
+        return sequence;
+    }
+
+    /**
+     * Sostituisce confidenza e istante della voce {@code sequence}, se è ancora presente.
+     *
+     * @return false se la voce è stata sovrascritta o cancellata
+     */
+    public boolean update(long sequence, float confidence, long timestampMs) {
+        if (sequence < oldestSequence || sequence >= headSequence) {
+            return false;
+        }
+        int slot = slot(sequence);
+        version++;
+        confidenceBits.set(slot, Float.floatToRawIntBits(confidence));
+        timestamps.set(slot, timestampMs);
+        version++;
+        return true;
+    }
+
+    private void appendEntry(int labelId, float confidence, long timestampMs) {
+        long head = headSequence;
+        version++;
+        if (head - oldestSequence >= capacity) {
+            oldestSequence = head - capacity + 1;
+        }
+        int slot = slot(head);
+        labelIds.set(slot, labelId);
+        confidenceBits.set(slot, Float.floatToRawIntBits(confidence));
+        timestamps.set(slot, timestampMs);
+        headSequence = head + 1;
+        version++;
+    }
+
+    public void clear() {
+        version++;
+        oldestSequence = headSequence;
+        version++;
+    }
+
+    /**
+     * Sequenza che riceverà la prossima voce aggiunta.
+     */
+    public long getHeadSequence() {
+        return headSequence;
+    }
+
+    /**
+     * Sequenza della voce più vecchia ancora presente (uguale a {@link #getHeadSequence()} se vuota).
+     */
+    public long getOldestSequence() {
+        return oldestSequence;
+    }
+
+    public int size() {
+        int startVersion;
+        long size;
+        do {
+            startVersion = version;
+            size = headSequence - oldestSequence;
+        } while ((startVersion & 1) != 0 || startVersion != version);
+        return (int) size;
+    }
+
+    public String getLabel(int labelId) {
+        return labelNames[labelId];
+    }
+
+    /**
+     * Cursore posizionato sulla voce più recente.
+     */
+    public Cursor newCursor() {
+        return new Cursor().resetToNewest();
+    }
+
+    // Confronto per identità prima che per contenuto: le etichette arrivano dalla stessa LabelTable.
+    private int internLabel(String label) {
+        String[] names = labelNames;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == label) {
+                return i;
+            }
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(label)) {
+                return i;
+            }
+        }
+        String[] grown = Arrays.copyOf(names, names.length + 1);
+        grown[names.length] = label;
+        labelNames = grown;
+        return names.length;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    /**
+     * Lettore riutilizzabile che scorre le voci dalla più recente alla più vecchia.
+     * Non blocca lo scrittore: una voce modificata durante la lettura viene riletta, e la
+     * scansione termina se le voci restanti sono state sovrascritte o cancellate.
+     */
+    public final class Cursor {
+        private long nextSequence;
+        private long sequence;
+        private int labelId;
+        private float confidence;
+        private long timestampMs;
+
+        private Cursor() {
+        }
+
+        /**
+         * Riposiziona il cursore sulla voce più recente; le voci aggiunte dopo non vengono visitate.
+         */
+        public Cursor resetToNewest() {
+            nextSequence = headSequence - 1;
+            return this;
+        }
+
+        /**
+         * Legge la voce con la sequenza indicata; la scansione con {@link #next()} prosegue da lì.
+         *
+         * @return false se la voce non è (più) presente
+         */
+        public boolean moveTo(long targetSequence) {
+            if (targetSequence >= headSequence) {
+                return false;
+            }
+            nextSequence = targetSequence;
+            return next();
+        }
+
+        /**
+         * Avanza alla voce precedente.
+         *
+         * @return false se non ci sono altre voci valide
+         */
+        public boolean next() {
+            while (true) {
+                long target = nextSequence;
+                int startVersion = version;
+                if ((startVersion & 1) != 0) {
+                    continue;
+                }
+                if (target < oldestSequence) {
+                    return false;
+                }
+                int slot = slot(target);
+                int readLabelId = labelIds.get(slot);
+                float readConfidence = Float.intBitsToFloat(confidenceBits.get(slot));
+                long readTimestamp = timestamps.get(slot);
+                if (startVersion != version) {
+                    continue;
+                }
+                sequence = target;
+                labelId = readLabelId;
+                confidence = readConfidence;
+                timestampMs = readTimestamp;
+                nextSequence = target - 1;
+                return true;
+            }
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public int getLabelId() {
+            return labelId;
+        }
+
+        public String getLabel() {
+            return labelNames[labelId];
+        }
+
+        public float getConfidence() {
+            return confidence;
+        }
+
+        public long getTimestampMs() {
+            return timestampMs;
+        }
+    }
+}
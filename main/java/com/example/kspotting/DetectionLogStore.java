@@ -0,0 +1,372 @@
+package com.example.kspotting;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registro persistente delle rilevazioni, solo in aggiunta, suddiviso in segmenti su file.
+ *
+ * Ogni record ha dimensione fissa ({@link #RECORD_SIZE} byte):
+ * timestamp (long, ms) | confidenza (float) | lunghezza etichetta (byte) | ritardo (3 byte, ms) |
+ * etichetta UTF-8 (fino a {@link #LABEL_BYTES} byte, troncata oltre).
+ * Un segmento contiene al più {@code recordsPerSegment} record; quando è pieno se ne apre
+ * uno nuovo e i più vecchi oltre {@code maxSegments} vengono eliminati.
+ *
+ * {@link #append} non fa I/O: accoda il record e la scrittura avviene a blocchi su un thread
+ * dedicato. Il timestamp è salvato così com'è; il ritardo rispetto al massimo già scritto nel
+ * segmento rende non decrescente la chiave timestamp + ritardo, così le letture per intervallo
+ * possono usare la ricerca binaria sui segmenti mappati in memoria. Un salto indietro oltre
+ * {@link #MAX_REORDER_MS} (orologio di sistema spostato) apre un nuovo segmento.
+ */
+public class DetectionLogStore {
+
+    private static final String TAG = "DetectionLogStore";
+
+    static final int RECORD_SIZE = 48;
+    static final int LABEL_BYTES = 32;
+    private static final int TIMESTAMP_OFFSET = 0;
+    private static final int CONFIDENCE_OFFSET = 8;
+    private static final int LABEL_LENGTH_OFFSET = 12;
+    private static final int LAG_OFFSET = 13;
+    private static final int LABEL_OFFSET = 16;
+
+    private static final int DEFAULT_RECORDS_PER_SEGMENT = 8192; // 384 KB per segmento
+    private static final int DEFAULT_MAX_SEGMENTS = 64;
+    private static final long FLUSH_DELAY_MS = 1000; // Raccoglie le rilevazioni vicine in una sola scrittura
+    // Ritardo massimo di un record nel suo segmento: rilevazioni di flussi diversi arrivano in
+    // ordine sparso, salti più lunghi vengono dall'orologio. Deve stare nei 3 byte del record.
+    static final long MAX_REORDER_MS = 60_000;
+
+    private static final String SEGMENT_PREFIX = "detections-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File directory;
+    private final int recordsPerSegment;
+    private final int maxSegments;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+
+    private final Object pendingLock = new Object();
+    private ArrayList<ClassificationLogEntry> pending = new ArrayList<>();
+    private boolean flushScheduled = false;
+
+    // Stato del segmento in scrittura, protetto da writeLock.
+    private final Object writeLock = new Object();
+    private RandomAccessFile activeFile;
+    private int activeSegmentIndex = -1;
+    private int activeRecords = 0;
+    private long segmentMaxMs = Long.MIN_VALUE; // Chiave dell'ultimo record del segmento in scrittura
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(RECORD_SIZE * 16);
+
+    public DetectionLogStore(File directory) {
+        this(directory, DEFAULT_RECORDS_PER_SEGMENT, DEFAULT_MAX_SEGMENTS);
+    }
+
+    public DetectionLogStore(File directory, int recordsPerSegment, int maxSegments) {
+        if (recordsPerSegment <= 0 || maxSegments <= 0) {
+            throw new IllegalArgumentException("Dimensioni del registro non valide.");
+        }
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Accoda una rilevazione; la scrittura su disco avviene entro {@link #FLUSH_DELAY_MS}.
+     * Sicuro da chiamare dal thread di inferenza.
+     */
+    public void append(String label, float confidence, long timestampMs) {
+        synchronized (pendingLock) {
+            pending.add(new ClassificationLogEntry(label, confidence, timestampMs));
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        try {
+            writer.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Registro chiuso, rilevazione non salvata: " + label);
+        }
+    }
+
+    /**
+     * Scrive subito le rilevazioni in attesa.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            // Scambio sotto writeLock: i blocchi arrivano su disco nell'ordine in cui sono stati accodati.
+            ArrayList<ClassificationLogEntry> batch;
+            synchronized (pendingLock) {
+                batch = pending;
+                pending = new ArrayList<>();
+                flushScheduled = false;
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                writeBatch(batch);
+            } catch (IOException e) {
+                Log.e(TAG, "Errore di scrittura del registro rilevazioni: " + e.getMessage());
+                closeActiveSegment();
+            }
+        }
+    }
+
+    private void writeBatch(List<ClassificationLogEntry> batch) throws IOException {
+        int index = 0;
+        while (index < batch.size()) {
+            // Anche il segmento ripreso dal disco può precedere un salto indietro dell'orologio.
+            while (activeFile == null || activeRecords >= recordsPerSegment
+                    || isClockStepBack(batch.get(index).timestamp)) {
+                openSegmentForAppend();
+            }
+            int limit = Math.min(batch.size() - index, recordsPerSegment - activeRecords);
+            if (writeBuffer.capacity() < limit * RECORD_SIZE) {
+                writeBuffer = ByteBuffer.allocate(limit * RECORD_SIZE);
+            }
+            writeBuffer.clear();
+            int count = 0;
+            while (count < limit) {
+                ClassificationLogEntry entry = batch.get(index + count);
+                if (isClockStepBack(entry.timestamp)) {
+                    break;
+                }
+                long lagMs = segmentMaxMs > entry.timestamp ? segmentMaxMs - entry.timestamp : 0;
+                segmentMaxMs = entry.timestamp + lagMs;
+                encode(writeBuffer, entry.timestamp, (int) lagMs, entry.confidence, entry.label);
+                count++;
+            }
+            writeBuffer.flip();
+            FileChannel channel = activeFile.getChannel();
+            channel.position((long) activeRecords * RECORD_SIZE);
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer);
+            }
+            channel.force(false);
+            activeRecords += count;
+            index += count;
+        }
+    }
+
+    private boolean isClockStepBack(long timestampMs) {
+        return segmentMaxMs != Long.MIN_VALUE && timestampMs < segmentMaxMs - MAX_REORDER_MS;
+    }
+
+    // Al primo accesso riprende l'ultimo segmento se ha ancora spazio, altrimenti ne apre uno
+    // nuovo e applica la ritenzione.
+    private void openSegmentForAppend() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Impossibile creare la cartella " + directory);
+        }
+        if (activeFile == null && activeSegmentIndex < 0) {
+            int[] segments = listSegments();
+            if (segments.length > 0) {
+                activeSegmentIndex = segments[segments.length - 1];
+                RandomAccessFile file = new RandomAccessFile(segmentFile(activeSegmentIndex), "rw");
+                // Un record incompleto (processo terminato durante la scrittura) viene scartato.
+                int records = (int) (file.length() / RECORD_SIZE);
+                file.setLength((long) records * RECORD_SIZE);
+                segmentMaxMs = records > 0 ? readSortKey(file.getChannel(), records - 1) : Long.MIN_VALUE;
+                if (records < recordsPerSegment) {
+                    activeFile = file;
+                    activeRecords = records;
+                    return;
+                }
+                file.close();
+            }
+        }
+
+        closeActiveSegment();
+        activeSegmentIndex++;
+        activeFile = new RandomAccessFile(segmentFile(activeSegmentIndex), "rw");
+        activeRecords = 0;
+        segmentMaxMs = Long.MIN_VALUE;
+        enforceRetention();
+    }
+
+    private void enforceRetention() {
+        int[] segments = listSegments();
+        for (int i = 0; i < segments.length - maxSegments; i++) {
+            if (!segmentFile(segments[i]).delete()) {
+                Log.w(TAG, "Impossibile eliminare il segmento " + segments[i]);
+            }
+        }
+    }
+
+    private void closeActiveSegment() {
+        if (activeFile != null) {
+            try {
+                activeFile.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Errore nella chiusura del segmento: " + e.getMessage());
+            }
+            activeFile = null;
+        }
+    }
+
+    /**
+     * Rilevazioni con timestamp in [{@code fromMs}, {@code toMs}], nell'ordine di scrittura:
+     * cronologico salvo rilevazioni arrivate in ritardo o salti indietro dell'orologio.
+     * Esegue I/O su file: da non chiamare dal thread principale.
+     */
+    public List<ClassificationLogEntry> query(long fromMs, long toMs, int maxEntries) throws IOException {
+        flush();
+        List<ClassificationLogEntry> entries = new ArrayList<>();
+        synchronized (writeLock) {
+            for (int segmentIndex : listSegments()) {
+                if (entries.size() >= maxEntries) {
+                    break;
+                }
+                try (RandomAccessFile file = new RandomAccessFile(segmentFile(segmentIndex), "r")) {
+                    int records = (int) (file.length() / RECORD_SIZE);
+                    if (records == 0) {
+                        continue;
+                    }
+                    MappedByteBuffer segment = file.getChannel()
+                            .map(FileChannel.MapMode.READ_ONLY, 0, (long) records * RECORD_SIZE);
+                    // Chiave >= timestamp >= chiave - MAX_REORDER_MS. Dopo un salto indietro
+                    // dell'orologio i segmenti non sono in ordine tra loro: nessuno interrompe la ricerca.
+                    if (sortKey(segment, (records - 1) * RECORD_SIZE) < fromMs
+                            || sortKey(segment, 0) - MAX_REORDER_MS > toMs) {
+                        continue;
+                    }
+                    for (int i = lowerBound(segment, records, fromMs); i < records; i++) {
+                        if (entries.size() >= maxEntries || sortKey(segment, i * RECORD_SIZE) - MAX_REORDER_MS > toMs) {
+                            break;
+                        }
+                        long timestampMs = segment.getLong(i * RECORD_SIZE + TIMESTAMP_OFFSET);
+                        if (timestampMs >= fromMs && timestampMs <= toMs) {
+                            entries.add(decode(segment, i * RECORD_SIZE));
+                        }
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    // Primo record con chiave >= timestampMs (records se nessuno): i precedenti hanno tutti
+    // timestamp < timestampMs.
+    static int lowerBound(ByteBuffer segment, int records, long timestampMs) {
+        int low = 0;
+        int high = records;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortKey(segment, mid * RECORD_SIZE) < timestampMs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Timestamp più ritardo: non decrescente all'interno di un segmento. I record scritti prima
+    // del campo ritardo hanno quei byte a zero.
+    static long sortKey(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset + TIMESTAMP_OFFSET) + readLag(buffer, offset);
+    }
+
+    private static int readLag(ByteBuffer buffer, int offset) {
+        return (buffer.get(offset + LAG_OFFSET) & 0xFF) << 16
+                | (buffer.get(offset + LAG_OFFSET + 1) & 0xFF) << 8
+                | buffer.get(offset + LAG_OFFSET + 2) & 0xFF;
+    }
+
+    /**
+     * @param lagMs ritardo rispetto al record più recente del segmento, al più {@link #MAX_REORDER_MS}
+     */
+    static void encode(ByteBuffer buffer, long timestampMs, int lagMs, float confidence, String label) {
+        byte[] labelBytes = (label != null ? label : "").getBytes(StandardCharsets.UTF_8);
+        int labelLength = Math.min(labelBytes.length, LABEL_BYTES);
+        int start = buffer.position();
+        buffer.putLong(timestampMs);
+        buffer.putFloat(confidence);
+        buffer.put((byte) labelLength);
+        buffer.put((byte) (lagMs >>> 16));
+        buffer.put((byte) (lagMs >>> 8));
+        buffer.put((byte) lagMs);
+        buffer.put(labelBytes, 0, labelLength);
+        buffer.position(start + RECORD_SIZE);
+    }
+
+    static ClassificationLogEntry decode(ByteBuffer buffer, int offset) {
+        long timestampMs = buffer.getLong(offset + TIMESTAMP_OFFSET);
+        float confidence = buffer.getFloat(offset + CONFIDENCE_OFFSET);
+        int labelLength = buffer.get(offset + LABEL_LENGTH_OFFSET) & 0xFF;
+        byte[] labelBytes = new byte[Math.min(labelLength, LABEL_BYTES)];
+        for (int i = 0; i < labelBytes.length; i++) {
+            labelBytes[i] = buffer.get(offset + LABEL_OFFSET + i);
+        }
+        return new ClassificationLogEntry(new String(labelBytes, StandardCharsets.UTF_8), confidence, timestampMs);
+    }
+
+    private static long readSortKey(FileChannel channel, int record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(LABEL_OFFSET);
+        long position = (long) record * RECORD_SIZE;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Segmento troncato");
+            }
+        }
+        return sortKey(buffer, 0);
+    }
+
+    private int[] listSegments() {
+        String[] names = directory.list();
+        if (names == null) {
+            return new int[0];
+        }
+        int[] indices = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    int index = Integer.parseInt(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    indices[count++] = index;
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Nome di segmento non riconosciuto: " + name);
+                }
+            }
+        }
+        int[] segments = Arrays.copyOf(indices, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private File segmentFile(int index) {
+        return new File(directory, String.format(Locale.ROOT, "%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Scrive le rilevazioni in attesa e chiude il registro; le {@link #append} successive vengono ignorate.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (writeLock) {
+            closeActiveSegment();
+        }
+    }
+}
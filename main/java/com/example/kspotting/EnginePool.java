@@ -0,0 +1,361 @@
+package com.example.kspotting;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pool condiviso di motori di inferenza al servizio di più flussi audio contemporanei
+ * (ad esempio file in riproduzione, vedi {@link FileFeedClassifier}), accanto al motore del microfono.
+ *
+ * Ogni flusso ha il proprio {@link PcmRingBuffer} e accoda solo la posizione delle finestre da
+ * classificare, in una coda limitata: quando è piena {@link Stream#offer} rifiuta e
+ * {@link Stream#put} attende, senza rallentare gli altri flussi. Un worker legge la finestra
+ * direttamente dal buffer del flusso nel proprio motore, quindi la memoria cresce con il numero
+ * di motori e non con quello dei flussi.
+ *
+ * Un flusso con finestre in attesa è nella coda dei worker al più una volta ed è servito da un
+ * solo worker alla volta: le sue finestre vengono classificate e consegnate in ordine, mentre
+ * flussi diversi si alternano tra i worker.
+ */
+public class EnginePool {
+
+    private static final String TAG = "EnginePool";
+    private static final long WORKER_POLL_MS = 200;
+    private static final long CLOSE_JOIN_TIMEOUT_MS = WORKER_POLL_MS * 5;
+
+    /**
+     * Chiamato su un worker del pool, in ordine per ciascun flusso. {@code result} appartiene al
+     * worker: va consumato durante la chiamata o copiato.
+     */
+    public interface StreamListener {
+        void onResult(Stream stream, ClassificationResult result);
+    }
+
+    /**
+     * Flusso audio che sottopone finestre al pool. I metodi di accodamento vanno chiamati dal
+     * thread che scrive nel buffer del flusso.
+     */
+    public final class Stream {
+        private final String name;
+        private final PcmRingBuffer ring;
+        private final StreamListener listener;
+        // Finestre in attesa (fine della finestra e istante di acquisizione), coda circolare.
+        private final long[] pendingEnds;
+        private final long[] pendingCaptureNanos;
+        private int pendingHead = 0;
+        private int pendingCount = 0;
+        // In coda ai worker o in elaborazione: nessun altro worker può prenderlo.
+        private boolean scheduled = false;
+        private boolean closed = false;
+
+        private volatile long submitted = 0;
+        private volatile long completed = 0;
+        private volatile long rejected = 0;
+        private volatile long overwritten = 0;
+
+        private Stream(String name, PcmRingBuffer ring, int maxPending, StreamListener listener) {
+            this.name = name;
+            this.ring = ring;
+            this.listener = listener;
+            this.pendingEnds = new long[maxPending];
+            this.pendingCaptureNanos = new long[maxPending];
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Accoda la finestra che termina in {@code windowEnd}.
+         *
+         * @return false se la coda del flusso è piena o il flusso è chiuso
+         */
+        public boolean offer(long windowEnd, long captureTimeNanos) {
+            synchronized (this) {
+                if (closed || pendingCount == pendingEnds.length) {
+                    rejected++;
+                    return false;
+                }
+                enqueueLocked(windowEnd, captureTimeNanos);
+            }
+            return true;
+        }
+
+        /**
+         * Come {@link #offer}, ma attende fino a {@code timeoutMs} che si liberi un posto.
+         */
+        public boolean put(long windowEnd, long captureTimeNanos, long timeoutMs) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            synchronized (this) {
+                long remaining;
+                while (!closed && pendingCount == pendingEnds.length
+                        && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                if (closed || pendingCount == pendingEnds.length) {
+                    rejected++;
+                    return false;
+                }
+                enqueueLocked(windowEnd, captureTimeNanos);
+            }
+            return true;
+        }
+
+        private void enqueueLocked(long windowEnd, long captureTimeNanos) {
+            int tail = (pendingHead + pendingCount) % pendingEnds.length;
+            pendingEnds[tail] = windowEnd;
+            pendingCaptureNanos[tail] = captureTimeNanos;
+            pendingCount++;
+            submitted++;
+            if (!scheduled) {
+                scheduled = true;
+                runQueue.add(this);
+            }
+        }
+
+        /**
+         * Scarta le finestre in attesa; quella eventualmente in elaborazione viene ancora consegnata.
+         */
+        public void close() {
+            synchronized (this) {
+                closed = true;
+                pendingCount = 0;
+                notifyAll();
+            }
+        }
+
+        public synchronized int getPendingCount() {
+            return pendingCount;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * Finestre rifiutate perché la coda del flusso era piena.
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * Finestre sovrascritte nel buffer del flusso prima che un worker le leggesse.
+         */
+        public long getOverwritten() {
+            return overwritten;
+        }
+    }
+
+    private final InferenceEngine[] engines;
+    private final Thread[] workers;
+    private final LinkedBlockingQueue<Stream> runQueue = new LinkedBlockingQueue<>();
+    private final AtomicLongArray busyNanos;
+    private final int sampleRate;
+    private final int windowLength;
+    private final LabelTable labelTable;
+    private volatile long utilizationStartNanos;
+    private volatile boolean running = true;
+
+    /**
+     * @param size numero di motori (e di worker) del pool
+     */
+    public EnginePool(InferenceEngine.Factory factory, int size) throws IOException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Dimensione del pool non valida: " + size);
+        }
+        engines = new InferenceEngine[size];
+        try {
+            for (int i = 0; i < size; i++) {
+                engines[i] = factory.create();
+                if (engines[i].getSampleRate() != engines[0].getSampleRate()
+                        || engines[i].getInputLength() != engines[0].getInputLength()) {
+                    throw new IOException("I motori del pool hanno formati di input diversi.");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            closeEngines();
+            throw e;
+        }
+        sampleRate = engines[0].getSampleRate();
+        windowLength = engines[0].getInputLength();
+        labelTable = engines[0].getLabelTable();
+        busyNanos = new AtomicLongArray(size);
+        utilizationStartNanos = System.nanoTime();
+        workers = new Thread[size];
+        for (int i = 0; i < size; i++) {
+            int workerIndex = i;
+            workers[i] = new Thread(() -> workerLoop(workerIndex), "kspotting-pool-" + i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * @param ring       buffer in cui il chiamante scrive l'audio del flusso, alla frequenza del pool
+     * @param maxPending finestre in attesa oltre le quali il flusso subisce la contropressione
+     */
+    public Stream openStream(String name, PcmRingBuffer ring, int maxPending, StreamListener listener) {
+        if (ring.getCapacity() < windowLength * 2) {
+            throw new IllegalArgumentException("Buffer del flusso " + name + " troppo piccolo per la finestra del modello.");
+        }
+        return new Stream(name, ring, Math.max(1, maxPending), listener);
+    }
+
+    /**
+     * Il motore del worker viene chiuso solo qui, all'uscita dal ciclo: {@link #close()} non può
+     * chiuderlo mentre {@code classify} è ancora in corso.
+     */
+    private void workerLoop(int workerIndex) {
+        try {
+            serveStreams(workerIndex);
+        } finally {
+            engines[workerIndex].close();
+        }
+    }
+
+    private void serveStreams(int workerIndex) {
+        InferenceEngine engine = engines[workerIndex];
+        ClassificationResult result = new ClassificationResult(AudioClassificationHelper.MAX_RESULTS, labelTable);
+        while (running) {
+            Stream stream;
+            try {
+                stream = runQueue.poll(WORKER_POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (stream == null) {
+                continue;
+            }
+            long windowEnd;
+            long captureTimeNanos;
+            synchronized (stream) {
+                if (stream.pendingCount == 0) {
+                    stream.scheduled = false;
+                    continue;
+                }
+                windowEnd = stream.pendingEnds[stream.pendingHead];
+                captureTimeNanos = stream.pendingCaptureNanos[stream.pendingHead];
+                stream.pendingHead = (stream.pendingHead + 1) % stream.pendingEnds.length;
+                stream.pendingCount--;
+                stream.notifyAll();
+            }
+
+            long start = System.nanoTime();
+            if (stream.ring.readWindow(windowEnd, windowLength, engine)) {
+                long classifyStart = System.nanoTime();
+                engine.classify(result);
+                long classifyEnd = System.nanoTime();
+                result.setInferenceTimeMs(TimeUnit.NANOSECONDS.toMillis(classifyEnd - classifyStart));
+                result.setTimestampMs(System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(classifyEnd - captureTimeNanos));
+                result.setCaptureTimeNanos(captureTimeNanos);
+                stream.listener.onResult(stream, result);
+                stream.completed++;
+            } else {
+                stream.overwritten++;
+            }
+            busyNanos.addAndGet(workerIndex, System.nanoTime() - start);
+
+            synchronized (stream) {
+                if (stream.pendingCount > 0) {
+                    // In fondo alla coda: i flussi si alternano anche quando sono tutti in arretrato.
+                    runQueue.add(stream);
+                } else {
+                    stream.scheduled = false;
+                }
+            }
+        }
+    }
+
+    public int getSize() {
+        return engines.length;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    public LabelTable getLabelTable() {
+        return labelTable;
+    }
+
+    /**
+     * Flussi con finestre in attesa di un worker.
+     */
+    public int getQueuedStreams() {
+        return runQueue.size();
+    }
+
+    /**
+     * Frazione del tempo dei worker spesa a classificare dall'ultimo {@link #resetUtilization()}, tra 0 e 1.
+     */
+    public float getUtilization() {
+        long elapsed = System.nanoTime() - utilizationStartNanos;
+        if (elapsed <= 0) {
+            return 0f;
+        }
+        long busy = 0;
+        for (int i = 0; i < busyNanos.length(); i++) {
+            busy += busyNanos.get(i);
+        }
+        return Math.min(1f, busy / (float) (elapsed * (double) engines.length));
+    }
+
+    public void resetUtilization() {
+        for (int i = 0; i < busyNanos.length(); i++) {
+            busyNanos.set(i, 0);
+        }
+        utilizationStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Ferma i worker; le finestre ancora in coda vengono scartate. Ogni worker chiude il proprio
+     * motore quando esce dal ciclo: se una classificazione è ancora in corso allo scadere
+     * dell'attesa, il motore viene chiuso al suo termine.
+     */
+    public void close() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_JOIN_TIMEOUT_MS);
+        for (Thread worker : workers) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            try {
+                if (remainingMs > 0) {
+                    worker.join(remainingMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Thread worker : workers) {
+            if (worker.isAlive()) {
+                Log.w(TAG, "Il worker " + worker.getName() + " è ancora in esecuzione: il suo motore verrà chiuso all'uscita.");
+            }
+        }
+    }
+
+    /**
+     * Solo per i motori creati prima dell'avvio dei worker.
+     */
+    private void closeEngines() {
+        for (InferenceEngine engine : engines) {
+            if (engine != null) {
+                engine.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.kspotting;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link InferenceEngine} deterministico che non esegue alcun modello: i punteggi sono
+ * calcolati da una {@link ScoreFunction} (programmati per indice di finestra o derivati
+ * dall'energia della finestra). Una latenza simulata permette di riprodurre il costo
+ * di classify() del dispositivo. Non dipende da Android.
+ */
+public class FakeInferenceEngine implements InferenceEngine {
+
+    /**
+     * Calcola i punteggi densi (indicizzati per etichetta) di una finestra.
+     */
+    public interface ScoreFunction {
+        void computeScores(long windowIndex, float windowRms, float[] scores);
+    }
+
+    private final LabelTable labelTable;
+    private final int sampleRate;
+    private final int inputLength;
+    private final ScoreFunction scoreFunction;
+    private final long simulatedLatencyNanos;
+    private final float[] scores;
+
+    private double sumSquares = 0;
+    private int loadedSamples = 0;
+    private long windowIndex = 0;
+    private long lastConversionNanos = 0;
+
+    public FakeInferenceEngine(LabelTable labelTable, int sampleRate, int inputLength,
+                               ScoreFunction scoreFunction, long simulatedLatencyNanos) {
+        this.labelTable = labelTable;
+        this.sampleRate = sampleRate;
+        this.inputLength = inputLength;
+        this.scoreFunction = scoreFunction;
+        this.simulatedLatencyNanos = simulatedLatencyNanos;
+        this.scores = new float[labelTable.size()];
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    @Override
+    public LabelTable getLabelTable() {
+        return labelTable;
+    }
+
+    @Override
+    public void accept(float[] samples, int offset, int length) {
+        double squares = 0;
+        for (int i = offset; i < offset + length; i++) {
+            squares += samples[i] * samples[i];
+        }
+        sumSquares += squares;
+        loadedSamples += length;
+    }
+
+    @Override
+    public void classify(ClassificationResult out) {
+        float rms = loadedSamples > 0 ? (float) Math.sqrt(sumSquares / loadedSamples) : 0f;
+        sumSquares = 0;
+        loadedSamples = 0;
+
+        Arrays.fill(scores, 0f);
+        scoreFunction.computeScores(windowIndex++, rms, scores);
+
+        if (simulatedLatencyNanos > 0) {
+            long deadline = System.nanoTime() + simulatedLatencyNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+
+        long conversionStart = System.nanoTime();
+        out.clear();
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] > 0f) {
+                out.offer(i, scores[i]);
+            }
+        }
+        lastConversionNanos = System.nanoTime() - conversionStart;
+    }
+
+    @Override
+    public long getLastConversionNanos() {
+        return lastConversionNanos;
+    }
+
+    @Override
+    public void close() {
+        // Nessuna risorsa nativa da rilasciare.
+    }
+
+    /**
+     * Punteggio di {@code speechLabelId} proporzionale all'RMS della finestra (saturato a
+     * {@code fullScaleRms}); il complemento va a {@code backgroundLabelId}.
+     */
+    public static ScoreFunction energyScores(int speechLabelId, int backgroundLabelId, float fullScaleRms) {
+        return (windowIndex, windowRms, scores) -> {
+            float speech = Math.min(1f, windowRms / fullScaleRms);
+            scores[speechLabelId] = speech;
+            scores[backgroundLabelId] = 1f - speech;
+        };
+    }
+
+    /**
+     * Punteggi programmati: alla finestra {@code windowIndices[i]} l'etichetta {@code labelIds[i]}
+     * riceve {@code labelScores[i]}; tutte le altre finestre sono attribuite a {@code backgroundLabelId}.
+     * Gli indici devono essere in ordine crescente.
+     */
+    public static ScoreFunction scriptedScores(long[] windowIndices, int[] labelIds, float[] labelScores,
+                                               int backgroundLabelId) {
+        return (windowIndex, windowRms, scores) -> {
+            int position = Arrays.binarySearch(windowIndices, windowIndex);
+            if (position >= 0) {
+                scores[labelIds[position]] = labelScores[position];
+                scores[backgroundLabelId] = 1f - labelScores[position];
+            } else {
+                scores[backgroundLabelId] = 1f;
+            }
+        };
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.kspotting;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Flusso audio da file, riprodotto in tempo reale e classificato dal {@link EnginePool} accanto
+ * al microfono (ad esempio l'audio di un video o di una chiamata registrata).
+ *
+ * Un thread legge il file con {@link PcmFileAudioSource} al ritmo del tempo reale, converte i
+ * campioni nel {@link PcmRingBuffer} del flusso e accoda una finestra a ogni passo; i worker del
+ * pool la classificano direttamente dal buffer. I risultati passano per un {@link PosteriorSmoother}
+ * proprio, con le stesse soglie della classificazione dal vivo e le {@link KeywordRules} in vigore
+ * all'avvio, e le decisioni arrivano al {@link Listener}. Se il pool è saturo la lettura del
+ * file attende ({@link EnginePool.Stream#put}): il flusso rallenta invece di perdere finestre,
+ * che vengono scartate solo dopo un secondo di attesa.
+ *
+ * Non dipende da Android.
+ */
+public class FileFeedClassifier {
+
+    private static final int CHUNK_MS = 20;
+    private static final int MAX_PENDING_WINDOWS = 4;
+    private static final long PUT_TIMEOUT_MS = 1000;
+    private static final long JOIN_TIMEOUT_MS = 1000;
+
+    /**
+     * Chiamato su un worker del pool per {@link #onDetection} e sul thread del flusso per
+     * {@link #onFinished}.
+     */
+    public interface Listener {
+        void onDetection(FileFeedClassifier feed, int labelId, float confidence, long timestampMs);
+
+        /**
+         * Fine del file o arresto con {@link #stop()}; {@code error} è null se non ci sono stati errori.
+         */
+        void onFinished(FileFeedClassifier feed, String error);
+    }
+
+    private final File file;
+    private final PcmFileAudioSource source;
+    private final PcmRingBuffer ring;
+    private final EnginePool.Stream stream;
+    private final KeywordRules.Compiled keywordRules;
+    private final PosteriorSmoother smoother; // Usato da un worker alla volta, in ordine
+    private final Listener listener;
+    private final int hop;
+    private final int windowLength;
+    private final int chunkSamples;
+    private volatile Thread thread; // Scritto da start(), letto da stop() su un altro thread
+    private volatile boolean running = false;
+
+    private volatile long detections = 0;
+
+    /**
+     * @param rawSampleRate frequenza del file se è PCM grezzo senza intestazione WAV
+     * @param hopMs         passo tra due finestre classificate
+     * @param keywordRules  regole delle parole chiave, compilate sulle etichette del pool
+     */
+    public FileFeedClassifier(EnginePool pool, File file, int rawSampleRate, long hopMs,
+                              KeywordRules keywordRules, Listener listener) throws IOException {
+        this.file = file;
+        this.source = new PcmFileAudioSource(file, rawSampleRate, 1f, false);
+        int sampleRate = pool.getSampleRate();
+        if (source.getSampleRate() != sampleRate) {
+            throw new IOException("Frequenza del file (" + source.getSampleRate() + " Hz) diversa da quella del modello ("
+                    + sampleRate + " Hz): " + file);
+        }
+        this.windowLength = pool.getWindowLength();
+        this.hop = Math.max(1, (int) (sampleRate * hopMs / 1000));
+        this.chunkSamples = sampleRate * CHUNK_MS / 1000;
+        this.ring = new PcmRingBuffer(windowLength * 2 + hop * MAX_PENDING_WINDOWS);
+        this.keywordRules = keywordRules.compile(pool.getLabelTable());
+        this.smoother = AudioClassificationService.newDetectionSmoother(this.keywordRules);
+        this.listener = listener;
+        this.stream = pool.openStream("file:" + file.getName(), ring, MAX_PENDING_WINDOWS, this::onResult);
+    }
+
+    public void start() {
+        running = true;
+        Thread feedThread = new Thread(this::feedLoop, "kspotting-file-feed");
+        thread = feedThread;
+        feedThread.start();
+    }
+
+    /**
+     * Interrompe la riproduzione e scarta le finestre in attesa. Attende al più un secondo la
+     * fine del thread del flusso.
+     */
+    public void stop() {
+        running = false;
+        source.stop();
+        stream.close();
+        Thread feedThread = thread;
+        if (feedThread != null && feedThread != Thread.currentThread()) {
+            try {
+                feedThread.join(JOIN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void feedLoop() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(chunkSamples * 2).order(ByteOrder.nativeOrder());
+        ShortBuffer samples = buffer.asShortBuffer();
+        long nextWindowEnd = windowLength;
+        String error = null;
+        source.start();
+        try {
+            while (running) {
+                int read = source.read(buffer, chunkSamples);
+                if (read == AudioSource.END_OF_STREAM) {
+                    break;
+                }
+                if (read < 0) {
+                    error = "Errore di lettura dal file " + file.getName() + ": codice " + read;
+                    break;
+                }
+                ring.write(samples, read, null);
+                long captureTimeNanos = System.nanoTime();
+                while (running && ring.getWritePosition() >= nextWindowEnd) {
+                    // Con il pool saturo attende: il file viene letto più lentamente invece di perdere finestre.
+                    stream.put(nextWindowEnd, captureTimeNanos, PUT_TIMEOUT_MS);
+                    nextWindowEnd += hop;
+                }
+            }
+            // Lascia classificare le ultime finestre accodate.
+            while (running && stream.getPendingCount() > 0) {
+                Thread.sleep(CHUNK_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            source.release();
+            stream.close();
+            running = false;
+        }
+        listener.onFinished(this, error);
+    }
+
+    // Su un worker del pool, un solo worker alla volta per questo flusso.
+    private void onResult(EnginePool.Stream stream, ClassificationResult result) {
+        int decision = smoother.update(result);
+        if (decision != PosteriorSmoother.NO_DECISION) {
+            detections++;
+            listener.onDetection(this, decision, smoother.getLastDecisionScore(), result.getTimestampMs());
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Regole compilate sulle etichette del pool: gravità e soglie delle decisioni di questo flusso.
+     */
+    public KeywordRules.Compiled getKeywordRules() {
+        return keywordRules;
+    }
+
+    public LabelTable getLabelTable() {
+        return keywordRules.getLabelTable();
+    }
+
+    public long getDetections() {
+        return detections;
+    }
+
+    /**
+     * Finestre classificate, rifiutate per coda piena e sovrascritte prima della lettura.
+     */
+    public String getStats() {
+        return stream.getCompleted() + " finestre classificate, " + stream.getRejected() + " rifiutate, "
+                + stream.getOverwritten() + " sovrascritte, " + detections + " rilevazioni";
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.kspotting;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Configurazione del motore TFLite scelta misurando il modello sul dispositivo.
+ *
+ * Al primo avvio, o quando cambiano il modello (hash SHA-256 del file) o il dispositivo
+ * (fingerprint di build e numero di core), {@link #obtain} prova ogni numero di thread
+ * candidato con inferenze ripetute e ne raccoglie la distribuzione di latenza in un
+ * {@link LatencyHistogram}. Vince il p95 più basso; un numero di thread maggiore viene preferito
+ * solo se migliora il p95 di almeno {@link #MIN_IMPROVEMENT}, perché costa più energia.
+ * Il risultato e tutte le misure vengono salvati nelle SharedPreferences e riusati.
+ */
+public final class InferenceCalibration {
+
+    private static final String TAG = "InferenceCalibration";
+
+    public static final int DEFAULT_NUM_THREADS = 2;
+
+    private static final String PREFS_NAME = "inference_calibration";
+    private static final int[] CANDIDATE_THREADS = {1, 2, 4, 6, 8};
+    private static final int WARM_UP_INFERENCES = 3;
+    private static final int MEASURED_INFERENCES = 40;
+    private static final float MIN_IMPROVEMENT = 0.10f;
+
+    /**
+     * Distribuzione di latenza di una configurazione candidata.
+     */
+    public static final class Measurement {
+        public final int numThreads;
+        public final LatencyHistogram.Snapshot latency;
+
+        Measurement(int numThreads, LatencyHistogram.Snapshot latency) {
+            this.numThreads = numThreads;
+            this.latency = latency;
+        }
+
+        @Override
+        public String toString() {
+            return numThreads + " thread: " + latency;
+        }
+    }
+
+    private final String modelHash;
+    private final int numThreads;
+    private final List<Measurement> measurements;
+    private final boolean fromCache;
+
+    private InferenceCalibration(String modelHash, int numThreads, List<Measurement> measurements, boolean fromCache) {
+        this.modelHash = modelHash;
+        this.numThreads = numThreads;
+        this.measurements = Collections.unmodifiableList(measurements);
+        this.fromCache = fromCache;
+    }
+
+    /**
+     * Configurazione per {@code modelName}: quella salvata se ancora valida, altrimenti misurata ora.
+     * Può richiedere alcuni secondi: da chiamare fuori dal thread principale. In caso di errore
+     * restituisce {@link #DEFAULT_NUM_THREADS} senza misure.
+     */
+    public static InferenceCalibration obtain(Context context, String modelName) {
+        String modelHash;
+        try {
+            modelHash = hashAsset(context, modelName);
+        } catch (IOException e) {
+            Log.e(TAG, "Impossibile leggere il modello " + modelName + " per la calibrazione: " + e.getMessage());
+            return new InferenceCalibration("", DEFAULT_NUM_THREADS, new ArrayList<>(), false);
+        }
+
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String device = deviceKey();
+        if (device.equals(prefs.getString(modelHash + ".device", null))) {
+            List<Measurement> stored = decodeMeasurements(prefs.getString(modelHash + ".measurements", ""));
+            int storedThreads = prefs.getInt(modelHash + ".threads", 0);
+            if (storedThreads > 0) {
+                return new InferenceCalibration(modelHash, storedThreads, stored, true);
+            }
+        }
+
+        InferenceCalibration calibration = calibrate(context, modelName, modelHash);
+        if (!calibration.measurements.isEmpty()) {
+            prefs.edit()
+                    .putString(modelHash + ".device", device)
+                    .putInt(modelHash + ".threads", calibration.numThreads)
+                    .putString(modelHash + ".measurements", encodeMeasurements(calibration.measurements))
+                    .apply();
+        }
+        return calibration;
+    }
+
+    private static InferenceCalibration calibrate(Context context, String modelName, String modelHash) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Measurement> measurements = new ArrayList<>();
+        for (int threads : CANDIDATE_THREADS) {
+            if (threads > cores) {
+                break;
+            }
+            InferenceEngine engine = null;
+            try {
+                engine = TfliteInferenceEngine.create(context, modelName, threads);
+                Measurement measurement = measure(engine, threads, WARM_UP_INFERENCES, MEASURED_INFERENCES);
+                measurements.add(measurement);
+                Log.d(TAG, "Calibrazione " + modelName + ", " + measurement);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Calibrazione con " + threads + " thread non riuscita: " + e.getMessage());
+            } finally {
+                if (engine != null) {
+                    engine.close();
+                }
+            }
+        }
+        int chosen = choose(measurements);
+        Log.i(TAG, "Calibrazione di " + modelName + " su " + cores + " core: scelti " + chosen + " thread.");
+        return new InferenceCalibration(modelHash, chosen, measurements, false);
+    }
+
+    /**
+     * Latenza di {@link InferenceEngine#classify} su finestre di rumore, dopo {@code warmUp} inferenze scartate.
+     */
+    static Measurement measure(InferenceEngine engine, int numThreads, int warmUp, int iterations) {
+        float[] window = new float[engine.getInputLength()];
+        Random random = new Random(numThreads);
+        for (int i = 0; i < window.length; i++) {
+            window[i] = (random.nextFloat() - 0.5f) * 0.1f;
+        }
+        ClassificationResult result = new ClassificationResult(1, engine.getLabelTable());
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < warmUp + iterations; i++) {
+            engine.accept(window, 0, window.length);
+            long start = System.nanoTime();
+            engine.classify(result);
+            if (i >= warmUp) {
+                histogram.record(System.nanoTime() - start);
+            }
+        }
+        return new Measurement(numThreads, histogram.snapshot());
+    }
+
+    // Le misure sono in ordine crescente di thread.
+    static int choose(List<Measurement> measurements) {
+        Measurement best = null;
+        for (Measurement measurement : measurements) {
+            if (best == null || measurement.latency.p95Nanos < best.latency.p95Nanos * (1 - MIN_IMPROVEMENT)) {
+                best = measurement;
+            }
+        }
+        return best != null ? best.numThreads : DEFAULT_NUM_THREADS;
+    }
+
+    private static String deviceKey() {
+        return Build.FINGERPRINT + "/" + Runtime.getRuntime().availableProcessors();
+    }
+
+    private static String hashAsset(Context context, String modelName) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 non disponibile", e);
+        }
+        try (InputStream input = context.getAssets().open(modelName)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    // Formato: "thread,conteggio,p50,p95,p99,max;..." con tempi in nanosecondi.
+    private static String encodeMeasurements(List<Measurement> measurements) {
+        StringBuilder builder = new StringBuilder();
+        for (Measurement measurement : measurements) {
+            LatencyHistogram.Snapshot latency = measurement.latency;
+            if (builder.length() > 0) {
+                builder.append(';');
+            }
+            builder.append(measurement.numThreads).append(',').append(latency.count).append(',')
+                    .append(latency.p50Nanos).append(',').append(latency.p95Nanos).append(',')
+                    .append(latency.p99Nanos).append(',').append(latency.maxNanos);
+        }
+        return builder.toString();
+    }
+
+    private static List<Measurement> decodeMeasurements(String encoded) {
+        List<Measurement> measurements = new ArrayList<>();
+        if (encoded.isEmpty()) {
+            return measurements;
+        }
+        try {
+            for (String item : encoded.split(";")) {
+                String[] fields = item.split(",");
+                measurements.add(new Measurement(Integer.parseInt(fields[0]), new LatencyHistogram.Snapshot(
+                        Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                        Long.parseLong(fields[4]), Long.parseLong(fields[5]))));
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Misure di calibrazione salvate non leggibili: " + e.getMessage());
+            measurements.clear();
+        }
+        return measurements;
+    }
+
+    /**
+     * Hash SHA-256 del modello calibrato, vuoto se non è stato possibile leggerlo.
+     */
+    public String getModelHash() {
+        return modelHash;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Misure di tutte le configurazioni provate, in ordine crescente di thread.
+     */
+    public List<Measurement> getMeasurements() {
+        return measurements;
+    }
+
+    /**
+     * true se la configurazione è stata letta dalle preferenze invece che misurata ora.
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    @Override
+    public String toString() {
+        return numThreads + " thread" + (fromCache ? " (salvata)" : "") + ", misure: " + measurements;
+    }
+}
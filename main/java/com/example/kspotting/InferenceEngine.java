@@ -0,0 +1,42 @@
+package com.example.kspotting;
+
+import java.io.IOException;
+
+/**
+ * Motore di inferenza su finestre audio di lunghezza fissa.
+ * La finestra viene caricata tramite {@link #accept} (eventualmente in più segmenti,
+ * come li consegna {@link PcmRingBuffer#readWindow}) e poi classificata con {@link #classify}.
+ *
+ * L'implementazione di produzione è {@link TfliteInferenceEngine}; {@link FakeInferenceEngine}
+ * restituisce punteggi programmati o calcolati e funziona anche su JVM senza Android.
+ */
+public interface InferenceEngine extends PcmRingBuffer.WindowSink {
+
+    /**
+     * Crea motori equivalenti (stesso modello e formato), ad esempio per un pool di worker.
+     */
+    interface Factory {
+        InferenceEngine create() throws IOException;
+    }
+
+    int getSampleRate();
+
+    /** Numero di campioni di una finestra di input. */
+    int getInputLength();
+
+    LabelTable getLabelTable();
+
+    /**
+     * Classifica la finestra caricata e scrive le categorie migliori in {@code out}
+     * (che viene prima svuotato). Tempi e timestamp sono a carico del chiamante.
+     */
+    void classify(ClassificationResult out);
+
+    /**
+     * Parte dell'ultima {@link #classify} spesa a convertire l'output del modello in
+     * {@link ClassificationResult}, in nanosecondi; il resto è tempo di esecuzione del modello.
+     */
+    long getLastConversionNanos();
+
+    void close();
+}
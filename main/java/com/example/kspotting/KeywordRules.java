@@ -0,0 +1,277 @@
+package com.example.kspotting;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Parole chiave osservate, con soglia e gravità per ciascuna, lette da un file di configurazione.
+ *
+ * Il file {@value #CONFIG_FILE_NAME} viene cercato prima nella cartella dei file dell'app, poi
+ * negli asset; se manca valgono le regole predefinite ("stop" e "off"). Una riga per parola:
+ * <pre>
+ * # parola  soglia  gravità (info, warning, alert)
+ * stop      0.80    alert
+ * left      0.85    info
+ * </pre>
+ * Soglia e gravità sono facoltative. Le regole vengono poi compilate con {@link #compile} sulla
+ * {@link LabelTable} del modello: verificare un risultato costa un accesso a un array per id.
+ * L'istanza di processo ({@link #shared}) è la stessa per service e MainActivity, quindi anche le
+ * regole compilate per una tabella sono condivise. Ogni tabella in uso (modello dal vivo, pool,
+ * classificazione offline) ha le proprie regole compilate, che restano in cache finché qualcuno
+ * le tiene.
+ */
+public final class KeywordRules {
+
+    private static final String TAG = "KeywordRules";
+
+    public static final String CONFIG_FILE_NAME = "keyword_rules.txt";
+
+    public static final int SEVERITY_NONE = 0;
+    public static final int SEVERITY_INFO = 1;
+    public static final int SEVERITY_WARNING = 2;
+    public static final int SEVERITY_ALERT = 3;
+    private static final String[] SEVERITY_NAMES = {"none", "info", "warning", "alert"};
+
+    public static final float DEFAULT_THRESHOLD = 0.80f;
+    private static final String[] DEFAULT_KEYWORDS = {"stop", "off"};
+
+    private static volatile KeywordRules shared;
+
+    /**
+     * Regola di una parola chiave, con la parola già normalizzata come in {@link LabelTable}.
+     */
+    public static final class Rule {
+        public final String keyword;
+        public final float threshold;
+        public final int severity;
+
+        Rule(String keyword, float threshold, int severity) {
+            this.keyword = keyword;
+            this.threshold = threshold;
+            this.severity = severity;
+        }
+
+        @Override
+        public String toString() {
+            return keyword + " " + threshold + " " + SEVERITY_NAMES[severity];
+        }
+    }
+
+    /**
+     * Regole risolte sugli id di una {@link LabelTable}. Immutabile: si può leggere da qualsiasi thread.
+     */
+    public static final class Compiled {
+        private final LabelTable labelTable;
+        private final long[] watched;
+        private final float[] thresholds;
+        private final int[] severities;
+
+        private Compiled(LabelTable labelTable, List<Rule> rules) {
+            int labelCount = labelTable.size();
+            this.labelTable = labelTable;
+            this.watched = new long[(labelCount + 63) >>> 6];
+            this.thresholds = new float[labelCount];
+            this.severities = new int[labelCount];
+            for (Rule rule : rules) {
+                int labelId = labelTable.findByNormalizedLabel(rule.keyword);
+                if (labelId == LabelTable.UNKNOWN_LABEL_ID) {
+                    Log.w(TAG, "Parola chiave '" + rule.keyword + "' assente dalle etichette del modello.");
+                    continue;
+                }
+                watched[labelId >>> 6] |= 1L << labelId;
+                thresholds[labelId] = rule.threshold;
+                severities[labelId] = rule.severity;
+            }
+        }
+
+        public LabelTable getLabelTable() {
+            return labelTable;
+        }
+
+        public boolean isWatched(int labelId) {
+            return (watched[labelId >>> 6] & (1L << labelId)) != 0;
+        }
+
+        /**
+         * Gravità dell'etichetta, {@link #SEVERITY_NONE} se non è osservata.
+         */
+        public int getSeverity(int labelId) {
+            return severities[labelId];
+        }
+
+        /**
+         * Soglia dell'etichetta; valida solo se {@link #isWatched} è true.
+         */
+        public float getThreshold(int labelId) {
+            return thresholds[labelId];
+        }
+
+        /**
+         * Imposta sullo smoother la soglia di ogni etichetta osservata.
+         */
+        public void applyThresholds(PosteriorSmoother smoother) {
+            for (int i = 0; i < watched.length; i++) {
+                long bits = watched[i];
+                while (bits != 0) {
+                    int labelId = (i << 6) + Long.numberOfTrailingZeros(bits);
+                    smoother.setThreshold(labelId, thresholds[labelId]);
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+    private final List<Rule> rules;
+    // Regole compilate per tabella (LabelTable non ridefinisce equals: confronto per identità).
+    // Il valore è debole perché Compiled tiene la tabella: una chiave debole da sola non basterebbe.
+    private final Map<LabelTable, WeakReference<Compiled>> compiledByTable = new WeakHashMap<>();
+    // Ultime regole restituite, per evitare il lock quando la tabella è la stessa della chiamata precedente.
+    private volatile Compiled lastCompiled;
+
+    private KeywordRules(List<Rule> rules) {
+        this.rules = Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * Regole del processo, caricate dal file di configurazione alla prima chiamata.
+     */
+    public static KeywordRules shared(Context context) {
+        KeywordRules rules = shared;
+        if (rules == null) {
+            synchronized (KeywordRules.class) {
+                rules = shared;
+                if (rules == null) {
+                    rules = load(context);
+                    shared = rules;
+                }
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Rilegge il file di configurazione. Chi ha già compilato le regole le ricompila alla prossima
+     * chiamata di {@link #compile} sull'istanza restituita da {@link #shared}.
+     */
+    public static KeywordRules reload(Context context) {
+        synchronized (KeywordRules.class) {
+            shared = load(context);
+            return shared;
+        }
+    }
+
+    static KeywordRules defaults() {
+        List<Rule> rules = new ArrayList<>();
+        for (String keyword : DEFAULT_KEYWORDS) {
+            rules.add(new Rule(keyword, DEFAULT_THRESHOLD, SEVERITY_ALERT));
+        }
+        return new KeywordRules(rules);
+    }
+
+    private static KeywordRules load(Context context) {
+        File file = new File(context.getFilesDir(), CONFIG_FILE_NAME);
+        try (InputStream input = file.isFile() ? new FileInputStream(file) : context.getAssets().open(CONFIG_FILE_NAME)) {
+            KeywordRules rules = parse(new InputStreamReader(input, StandardCharsets.UTF_8));
+            Log.i(TAG, "Caricate " + rules.rules.size() + " regole da " + CONFIG_FILE_NAME + ": " + rules.rules);
+            return rules;
+        } catch (IOException e) {
+            Log.i(TAG, "Nessun file " + CONFIG_FILE_NAME + " leggibile, regole predefinite: " + e.getMessage());
+            return defaults();
+        }
+    }
+
+    /**
+     * Le righe non valide vengono scartate con un avviso; una parola ripetuta vale l'ultima volta.
+     */
+    static KeywordRules parse(Reader reader) throws IOException {
+        List<Rule> rules = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            try {
+                String keyword = fields[0].toLowerCase(Locale.ROOT);
+                float threshold = fields.length > 1 ? Float.parseFloat(fields[1]) : DEFAULT_THRESHOLD;
+                int severity = fields.length > 2 ? parseSeverity(fields[2]) : SEVERITY_ALERT;
+                if (fields.length > 3 || !(threshold >= 0f && threshold <= 1f) || severity == SEVERITY_NONE) {
+                    throw new IllegalArgumentException(line);
+                }
+                rules.removeIf(rule -> rule.keyword.equals(keyword));
+                rules.add(new Rule(keyword, threshold, severity));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, CONFIG_FILE_NAME + ", riga " + lineNumber + " non valida: " + line);
+            }
+        }
+        return new KeywordRules(rules);
+    }
+
+    private static int parseSeverity(String name) {
+        for (int i = 0; i < SEVERITY_NAMES.length; i++) {
+            if (SEVERITY_NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Gravità sconosciuta: " + name);
+    }
+
+    public static String severityName(int severity) {
+        return SEVERITY_NAMES[severity];
+    }
+
+    /**
+     * Regole compilate per {@code labelTable}: sempre la stessa istanza per la stessa tabella, anche
+     * se più tabelle vengono usate in alternanza. Un'istanza diversa significa regole ricaricate
+     * ({@link #reload}) o un altro modello.
+     */
+    public Compiled compile(LabelTable labelTable) {
+        Compiled compiled = lastCompiled;
+        if (compiled != null && compiled.labelTable == labelTable) {
+            return compiled;
+        }
+        synchronized (compiledByTable) {
+            WeakReference<Compiled> cached = compiledByTable.get(labelTable);
+            compiled = cached != null ? cached.get() : null;
+            if (compiled == null) {
+                compiled = new Compiled(labelTable, rules);
+                compiledByTable.put(labelTable, new WeakReference<>(compiled));
+            }
+        }
+        lastCompiled = compiled;
+        return compiled;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    @Override
+    public String toString() {
+        return rules.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.kspotting;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Tabella delle etichette del modello, costruita una sola volta all'inizializzazione.
+ * L'identificativo di un'etichetta è l'indice della categoria nel modello; la forma
+ * normalizzata (minuscolo, senza spazi) viene calcolata qui e non più a ogni risultato.
+ */
+public class LabelTable {
+
+    public static final int UNKNOWN_LABEL_ID = -1;
+
+    private final String[] labels;
+    private final String[] normalizedLabels;
+
+    private LabelTable(String[] labels) {
+        this.labels = labels;
+        this.normalizedLabels = new String[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            String label = labels[i] != null ? labels[i] : "";
+            labels[i] = label;
+            normalizedLabels[i] = label.toLowerCase(Locale.ROOT).trim();
+        }
+    }
+
+    public int size() {
+        return labels.length;
+    }
+
+    public String getLabel(int labelId) {
+        return labels[labelId];
+    }
+
+    public String getNormalizedLabel(int labelId) {
+        return normalizedLabels[labelId];
+    }
+
+    /**
+     * Ricerca lineare: da usare solo in fase di configurazione, non per ogni risultato.
+     */
+    public int findByNormalizedLabel(String label) {
+        String normalized = label.toLowerCase(Locale.ROOT).trim();
+        for (int i = 0; i < normalizedLabels.length; i++) {
+            if (normalizedLabels[i].equals(normalized)) {
+                return i;
+            }
+        }
+        return UNKNOWN_LABEL_ID;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(labels);
+    }
+
+    public static class Builder {
+        private String[] labels = new String[16];
+        private int size = 0;
+
+        public Builder add(int labelId, String label) {
+            if (labelId < 0) {
+                throw new IllegalArgumentException("Indice di etichetta non valido: " + labelId);
+            }
+            if (labelId >= labels.length) {
+                labels = Arrays.copyOf(labels, Math.max(labelId + 1, labels.length * 2));
+            }
+            labels[labelId] = label;
+            size = Math.max(size, labelId + 1);
+            return this;
+        }
+
+        public LabelTable build() {
+            return new LabelTable(Arrays.copyOf(labels, size));
+        }
+    }
+}
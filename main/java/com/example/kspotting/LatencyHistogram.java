@@ -0,0 +1,123 @@
+package com.example.kspotting;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Istogramma di latenze in nanosecondi con bucket log-lineari (stile HDR): ogni potenza di due
+ * è divisa in {@link #SUB_BUCKETS} sotto-intervalli, con errore relativo massimo di circa il 6%.
+ * I contatori sono array primitivi allocati una volta sola: {@link #record(long)} non alloca
+ * e costa poche operazioni aritmetiche.
+ *
+ * Un solo thread scrive; la lettura da altri thread ({@link #snapshot}) è approssimata,
+ * sufficiente per statistiche di monitoraggio.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Esponente massimo registrabile: 2^40 ns, circa 18 minuti. I valori oltre finiscono nell'ultimo bucket.
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /**
+     * Riepilogo immutabile dei percentili, in nanosecondi.
+     */
+    public static final class Snapshot {
+        public final long count;
+        public final long p50Nanos;
+        public final long p95Nanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+
+        Snapshot(long count, long p50Nanos, long p95Nanos, long p99Nanos, long maxNanos) {
+            this.count = count;
+            this.p50Nanos = p50Nanos;
+            this.p95Nanos = p95Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "n=%d p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms",
+                    count, p50Nanos / 1e6, p95Nanos / 1e6, p99Nanos / 1e6, maxNanos / 1e6);
+        }
+    }
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private volatile long totalCount = 0;
+    private volatile long maxNanos = 0;
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[bucketIndex(nanos)]++;
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+        totalCount++;
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Valore sotto cui cade la frazione {@code quantile} (0..1) dei campioni, approssimato
+     * per eccesso al limite superiore del bucket e mai oltre il massimo osservato.
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = totalCount;
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(totalCount, getValueAtQuantile(0.50), getValueAtQuantile(0.95),
+                getValueAtQuantile(0.99), maxNanos);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        maxNanos = 0;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+    }
+}
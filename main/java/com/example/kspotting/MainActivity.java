@@ -1,19 +1,21 @@
 package com.example.kspotting;
 
 import android.Manifest;
-import android.app.ActivityManager;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Build;
+import android.os.IBinder;
 import android.os.Parcelable;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 import android.widget.Button;
-import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -22,50 +24,98 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.snackbar.Snackbar;
 
-import org.tensorflow.lite.support.label.Category;
-
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "AudioClassifier";
+
+    private static final TraceLog.Event TRACE_INFERENCE = TraceLog.event(TraceLog.DEBUG, TAG,
+            "--- Nuova Inferenza dal Service (Tempo: %2$dms) ---");
+    private static final TraceLog.Event TRACE_CATEGORY = TraceLog.event(TraceLog.DEBUG, TAG,
+            "  %1$s: %4$.2f%%");
     private static final int REQUEST_RECORD_AUDIO = 1337;
     private static final int REQUEST_POST_NOTIFICATIONS = 1338;
 
     private static final float UI_DISPLAY_WORD_THRESHOLD = 0.90f;
     private static final float UI_RECENT_LOG_THRESHOLD = 0.20f;
-    private static final int MAX_LOG_ENTRIES = 10;
+    private static final int MAX_LOG_ENTRIES = 100;
     private static final long UI_DEBOUNCE_DELAY_MS = 750;
     private static final long UI_SILENCE_DEBOUNCE_DELAY_MS = 1500;
     private static final long UI_RECENT_LOG_GROUPING_TIME_MS = 1000;
+    private static final long NO_HISTORY_SEQUENCE = -1;
+    private static final int UI_SMOOTHING_WINDOWS = 3;
+    private static final long UI_REFRACTORY_MS = 1000;
 
     private static final List<String> KNOWN_COMMANDS = Arrays.asList(
             "down", "go", "left", "off", "on", "right", "stop", "up"
     );
-    private static final List<String> SENSITIVE_WORDS = Arrays.asList("stop", "off");
 
     private TextView displayTextView;
-    private TextView recentInferencesTextView;
+    private TextView recentLogHeaderTextView;
     private TextView knownCommandsListTextView;
     private Button recordButton;
-    private ScrollView logScrollView;
+    private RecyclerView recentLogRecyclerView;
+    private RecentLogAdapter recentLogAdapter;
 
     private boolean isAudioServiceRunning = false;
+    private boolean permissionsGranted = false; // Fino alla prima verifica il pulsante resta disattivato
 
     private String lastDisplayedCommandLabel = "";
     private float lastDisplayedConfidence = 0.0f;
     private long lastUIUpdateTime = 0;
 
-    private LinkedList<RecentLogEntry> recentLogEntriesList;
+    private DetectionHistory recentLogHistory;
+    private long serviceHistorySequence = NO_HISTORY_SEQUENCE; // Ultima voce della cronologia del service già ricevuta
+    private long mirroredHistorySequence = NO_HISTORY_SEQUENCE; // Voce locale che la contiene
+
+    private AudioClassificationService.ClassificationBinder serviceBinder;
+    private PosteriorSmoother uiSmoother; // Aggiornato solo dal thread di inferenza
+    private volatile KeywordRules.Compiled uiSmootherRules; // Regole con cui è stato creato uiSmoother, lette anche dalla UI
+    private volatile UiUpdateChannel uiUpdateChannel;
+
+    // Risultati consegnati direttamente dal service sul thread di inferenza, senza Intent.
+    // Il livellamento resta su quel thread; alla UI arriva solo l'ultimo stato per frame.
+    private final AudioClassificationService.ResultListener resultListener = result -> {
+        PosteriorSmoother smoother = obtainUiSmoother(result.getLabelTable());
+        int decidedLabelId = smoother.update(result);
+        String decidedLabel = decidedLabelId != PosteriorSmoother.NO_DECISION
+                ? result.getLabelTable().getLabel(decidedLabelId) : null;
+        UiUpdateChannel channel = uiUpdateChannel;
+        if (channel != null) {
+            channel.publish(result, decidedLabel, smoother.getLastDecisionScore());
+        }
+    };
+
+    // Binding senza BIND_AUTO_CREATE: non avvia il service, si connette quando è in esecuzione.
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            serviceBinder = (AudioClassificationService.ClassificationBinder) service;
+            serviceBinder.registerResultListener(resultListener);
+            // Evidenzia subito le parole sensibili delle voci ricevute prima del primo risultato.
+            LabelTable labelTable = serviceBinder.getLabelTable();
+            if (labelTable != null) {
+                recentLogAdapter.setKeywordRules(serviceBinder.getKeywordRules().compile(labelTable));
+            }
+            Log.d(TAG, "Collegato al service di classificazione.");
+            updateServiceStateFromBinder();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            serviceBinder = null;
+            Log.d(TAG, "Scollegato dal service di classificazione.");
+        }
+    };
 
     private final BroadcastReceiver classificationReceiver = new BroadcastReceiver() {
         @Override
@@ -73,20 +123,7 @@ public class MainActivity extends AppCompatActivity {
             String action = intent.getAction();
             Log.d(TAG, "Broadcast received: " + action);
 
-            if (AudioClassificationService.ACTION_CLASSIFICATION_RESULT.equals(action)) {
-                String[] labels = intent.getStringArrayExtra(AudioClassificationService.EXTRA_LABELS);
-                float[] scores = intent.getFloatArrayExtra(AudioClassificationService.EXTRA_SCORES);
-                long inferenceTime = intent.getLongExtra(AudioClassificationService.EXTRA_INFERENCE_TIME, 0);
-
-                if (labels != null && scores != null && labels.length == scores.length) {
-                    List<Category> results = new ArrayList<>();
-                    for (int i = 0; i < labels.length; i++) {
-                        results.add(new Category(labels[i], scores[i]));
-                    }
-                    handleClassificationResults(results, inferenceTime);
-                }
-
-            } else if (AudioClassificationService.ACTION_CLASSIFICATION_ERROR.equals(action)) {
+            if (AudioClassificationService.ACTION_CLASSIFICATION_ERROR.equals(action)) {
                 String errorMessage = intent.getStringExtra(AudioClassificationService.EXTRA_ERROR_MESSAGE);
                 handleClassificationError(errorMessage);
 
@@ -95,59 +132,20 @@ public class MainActivity extends AppCompatActivity {
 
             } else if (AudioClassificationService.ACTION_SERVICE_STOPPED.equals(action)) {
                 handleServiceStopped();
+            } else if (AudioClassificationService.ACTION_CLASSIFIER_STATE_CHANGED.equals(action)) {
+                handleClassifierStateChanged(intent.getIntExtra(AudioClassificationService.EXTRA_CLASSIFIER_STATE,
+                        AudioClassificationService.STATE_IDLE));
             } else if (AudioClassificationService.ACTION_LOG_HISTORY_RESPONSE.equals(action)) {
                 ArrayList<Parcelable> parcelableLogHistory = intent.getParcelableArrayListExtra(AudioClassificationService.EXTRA_LOG_HISTORY);
-                if (parcelableLogHistory != null) {
-                    recentLogEntriesList.clear();
-                    for (Parcelable p : parcelableLogHistory) {
-                        if (p instanceof ClassificationLogEntry) {
-                            ClassificationLogEntry logEntry = (ClassificationLogEntry) p;
-                            recentLogEntriesList.add(new RecentLogEntry(logEntry.label, logEntry.confidence, logEntry.timestamp));
-                        }
-                    }
-                    recentLogEntriesList.sort((o1, o2) -> Long.compare(o2.timestamp, o1.timestamp));
-
-                    updateRecentInferencesTextView();
-                    Log.d(TAG, "Cronologia log ricevuta e aggiornata nella UI. Voci: " + recentLogEntriesList.size());
+                long[] sequences = intent.getLongArrayExtra(AudioClassificationService.EXTRA_LOG_HISTORY_SEQUENCES);
+                if (parcelableLogHistory != null && sequences != null && sequences.length == parcelableLogHistory.size()) {
+                    applyLogHistoryDelta(parcelableLogHistory, sequences,
+                            intent.getBooleanExtra(AudioClassificationService.EXTRA_LOG_HISTORY_FULL_RESYNC, true));
                 }
             }
         }
     };
 
-    private static class RecentLogEntry {
-        String label;
-        float confidence;
-        long timestamp;
-
-        RecentLogEntry(String label, float confidence, long timestamp) {
-            this.label = label;
-            this.confidence = confidence;
-            this.timestamp = timestamp;
-        }
-
-        public String formatForDisplay() {
-            SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
-            String currentTimeFormatted = sdf.format(new Date(timestamp));
-            String displayLabel = label;
-            if (label.equals("_background_noise_")) displayLabel = "Rumore di Fondo";
-            if (label.equals("silence")) displayLabel = "Silenzio";
-
-            String normalizedLabel = label.toLowerCase(Locale.ROOT).trim();
-
-            if (SENSITIVE_WORDS.contains(normalizedLabel)) {
-                // Messaggio di attenzione per parole sensibili
-                return String.format(Locale.getDefault(),
-                        "%s - ATTENZIONE: RILEVATA PAROLA SENSIBILE - %s: %.2f%%\n",
-                        currentTimeFormatted, displayLabel.toUpperCase(Locale.ROOT), confidence * 100);
-            } else {
-                // Formattazione standard
-                return String.format(Locale.getDefault(),
-                        "%s - %s: %.2f%%\n",
-                        currentTimeFormatted, displayLabel, confidence * 100);
-            }
-        }
-    }
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -155,18 +153,31 @@ public class MainActivity extends AppCompatActivity {
 
         initializeViews();
         setupClickListeners();
+
+        // Registrato per tutta la vita dell'activity: un arresto del service mentre è in pausa
+        // arriva comunque, e alla ripresa lo stato noto resta valido senza interrogare il service.
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(AudioClassificationService.ACTION_CLASSIFICATION_ERROR);
+        filter.addAction(AudioClassificationService.ACTION_SERVICE_INITIALIZED);
+        filter.addAction(AudioClassificationService.ACTION_SERVICE_STOPPED);
+        filter.addAction(AudioClassificationService.ACTION_CLASSIFIER_STATE_CHANGED);
+        filter.addAction(AudioClassificationService.ACTION_LOG_HISTORY_RESPONSE);
+        LocalBroadcastManager.getInstance(this).registerReceiver(classificationReceiver, filter);
     }
 
     private void initializeViews() {
         displayTextView = findViewById(R.id.display_text_view);
-        recentInferencesTextView = findViewById(R.id.recent_inferences_text_view);
+        recentLogHeaderTextView = findViewById(R.id.recent_log_header_text_view);
         knownCommandsListTextView = findViewById(R.id.known_commands_list_text_view);
         recordButton = findViewById(R.id.record_button);
-        logScrollView = findViewById(R.id.log_scroll_view);
-
-        recentLogEntriesList = new LinkedList<>();
-
-        updateRecentInferencesTextView();
+        recentLogRecyclerView = findViewById(R.id.recent_log_recycler_view);
+
+        recentLogHistory = new DetectionHistory(MAX_LOG_ENTRIES, UI_RECENT_LOG_GROUPING_TIME_MS);
+        recentLogAdapter = new RecentLogAdapter(recentLogHistory);
+        recentLogRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recentLogRecyclerView.setAdapter(recentLogAdapter);
+        recentLogHeaderTextView.setText(RecentLogFormatter.formatHeader(UI_DISPLAY_WORD_THRESHOLD));
+        uiUpdateChannel = new UiUpdateChannel(Choreographer.getInstance(), this::handleClassificationResults);
         knownCommandsListTextView.setText("Comandi attesi: " + String.join(", ", KNOWN_COMMANDS));
 
         displayTextView.setText("Classificatore Speech Command pronto.");
@@ -195,13 +206,8 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(AudioClassificationService.ACTION_CLASSIFICATION_RESULT);
-        filter.addAction(AudioClassificationService.ACTION_CLASSIFICATION_ERROR);
-        filter.addAction(AudioClassificationService.ACTION_SERVICE_INITIALIZED);
-        filter.addAction(AudioClassificationService.ACTION_SERVICE_STOPPED);
-        filter.addAction(AudioClassificationService.ACTION_LOG_HISTORY_RESPONSE);
-        LocalBroadcastManager.getInstance(this).registerReceiver(classificationReceiver, filter);
+        // Lo stato del service arriva da onServiceConnected, se è in esecuzione, e dai broadcast.
+        bindService(new Intent(this, AudioClassificationService.class), serviceConnection, 0);
 
         checkAndRequestPermissions();
     }
@@ -209,11 +215,23 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(classificationReceiver);
+        if (serviceBinder != null) {
+            serviceBinder.unregisterResultListener(resultListener);
+            serviceBinder = null;
+        }
+        unbindService(serviceConnection);
     }
 
     @Override
     protected void onDestroy() {
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(classificationReceiver);
+        UiUpdateChannel channel = uiUpdateChannel;
+        if (channel != null) {
+            Log.d(TAG, "Aggiornamenti UI: " + channel.getPublishedUpdates() + " ricevuti, "
+                    + channel.getConflatedUpdates() + " accorpati, " + channel.getRenderedFrames() + " frame disegnati.");
+            channel.clear();
+            uiUpdateChannel = null;
+        }
         super.onDestroy();
     }
 
@@ -237,7 +255,21 @@ public class MainActivity extends AppCompatActivity {
                     REQUEST_RECORD_AUDIO
             );
         } else {
-            updateServiceStateBasedOnRunningServices();
+            onPermissionsGranted();
+        }
+    }
+
+    // Riattiva il pulsante, disattivato in onCreate o dopo un rifiuto dei permessi. Senza binder
+    // lo stato noto non cambia: un service in esecuzione lo aggiornerà in onServiceConnected.
+    private void onPermissionsGranted() {
+        if (permissionsGranted) {
+            return;
+        }
+        permissionsGranted = true;
+        if (serviceBinder != null) {
+            updateServiceStateFromBinder();
+        } else {
+            recordButton.setEnabled(true);
         }
     }
 
@@ -295,8 +327,9 @@ public class MainActivity extends AppCompatActivity {
             }
 
             if (allPermissionsGranted) {
-                updateServiceStateBasedOnRunningServices();
+                onPermissionsGranted();
             } else {
+                permissionsGranted = false;
                 recordButton.setEnabled(false);
                 displayTextView.setText("Permessi non concessi.");
                 isAudioServiceRunning = false;
@@ -304,22 +337,24 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private boolean isMyServiceRunning(Class<?> serviceClass) {
-        ActivityManager manager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
-        if (manager != null) {
-            for (ActivityManager.RunningServiceInfo service : manager.getRunningServices(Integer.MAX_VALUE)) {
-                if (serviceClass.getName().equals(service.service.getClassName())) {
-                    return true;
-                }
-            }
+    /**
+     * Allinea la UI allo stato del service collegato. Senza binder (connessione non ancora
+     * stabilita, o service fermo) non fa nulla: un binder assente non significa service fermo.
+     */
+    private void updateServiceStateFromBinder() {
+        AudioClassificationService.ClassificationBinder binder = serviceBinder;
+        if (binder == null) {
+            return;
         }
-        return false;
-    }
-
-    private void updateServiceStateBasedOnRunningServices() {
-        isAudioServiceRunning = isMyServiceRunning(AudioClassificationService.class);
+        isAudioServiceRunning = binder.isClassificationRunning();
+        int classifierState = binder.getClassifierState();
 
         runOnUiThread(() -> {
+            if (!isAudioServiceRunning && isClassifierStarting(classifierState)) {
+                // Avvio in corso: ACTION_SERVICE_INITIALIZED arriverà a inizializzazione completata.
+                handleClassifierStateChanged(classifierState);
+                return;
+            }
             if (isAudioServiceRunning) {
                 recordButton.setText("Interrompi Classificazione");
                 displayTextView.setText("Classificazione audio attiva in background");
@@ -331,8 +366,8 @@ public class MainActivity extends AppCompatActivity {
             recordButton.setEnabled(true);
 
             if (!isAudioServiceRunning) {
-                recentLogEntriesList.clear();
-                updateRecentInferencesTextView();
+                resetRecentLog();
+                refreshRecentLog();
                 resetUIDebounceState();
             }
         });
@@ -342,9 +377,48 @@ public class MainActivity extends AppCompatActivity {
         Log.d(TAG, "Richiesta cronologia log al servizio.");
         Intent requestHistoryIntent = new Intent(this, AudioClassificationService.class);
         requestHistoryIntent.setAction(AudioClassificationService.ACTION_REQUEST_LOG_HISTORY);
+        requestHistoryIntent.putExtra(AudioClassificationService.EXTRA_LOG_HISTORY_FROM_SEQUENCE, serviceHistorySequence);
         startService(requestHistoryIntent);
     }
 
+    /**
+     * Applica le voci ricevute dal service, già in ordine cronologico e già raggruppate dal
+     * service: vengono aggiunte per sequenza, senza il raggruppamento di record(), che le unirebbe
+     * alle decisioni locali. La prima voce di un delta è quella già ricevuta per ultima,
+     * eventualmente aggiornata da un raggruppamento nel service: sostituisce la sua copia locale.
+     */
+    private void applyLogHistoryDelta(List<Parcelable> entries, long[] sequences, boolean fullResync) {
+        if (fullResync) {
+            recentLogHistory.clear();
+            serviceHistorySequence = NO_HISTORY_SEQUENCE;
+            mirroredHistorySequence = NO_HISTORY_SEQUENCE;
+        }
+        for (int i = 0; i < entries.size() && i < sequences.length; i++) {
+            if (!(entries.get(i) instanceof ClassificationLogEntry) || sequences[i] < serviceHistorySequence) {
+                continue;
+            }
+            ClassificationLogEntry entry = (ClassificationLogEntry) entries.get(i);
+            if (sequences[i] == serviceHistorySequence) {
+                if (recentLogHistory.update(mirroredHistorySequence, entry.confidence, entry.timestamp)) {
+                    recentLogAdapter.notifyEntryChanged(mirroredHistorySequence);
+                }
+            } else {
+                mirroredHistorySequence = recentLogHistory.append(entry.label, entry.confidence, entry.timestamp);
+                serviceHistorySequence = sequences[i];
+            }
+        }
+        refreshRecentLog();
+        Log.d(TAG, "Cronologia log ricevuta" + (fullResync ? " (completa)" : "") + ": " + entries.size()
+                + " voci, voci nella UI: " + recentLogHistory.size());
+    }
+
+    // La cronologia locale e il cursore sul service vanno azzerati insieme.
+    private void resetRecentLog() {
+        recentLogHistory.clear();
+        serviceHistorySequence = NO_HISTORY_SEQUENCE;
+        mirroredHistorySequence = NO_HISTORY_SEQUENCE;
+    }
+
     private void startAudioClassificationService() {
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
             Snackbar.make(
@@ -389,8 +463,8 @@ public class MainActivity extends AppCompatActivity {
             recordButton.setText("Avvia Classificazione");
             recordButton.setEnabled(true);
             resetUIDebounceState();
-            recentLogEntriesList.clear();
-            updateRecentInferencesTextView();
+            resetRecentLog();
+            refreshRecentLog();
         });
     }
 
@@ -401,13 +475,36 @@ public class MainActivity extends AppCompatActivity {
             recordButton.setEnabled(true);
             displayTextView.setText("Classificazione audio attiva in background.");
             resetUIDebounceState();
-            recentLogEntriesList.clear();
-            updateRecentInferencesTextView();
+            resetRecentLog();
+            refreshRecentLog();
             Log.i(TAG, "Servizio inizializzato e in esecuzione.");
             requestLogHistoryFromService();
         });
     }
 
+    private static boolean isClassifierStarting(int state) {
+        return state == AudioClassificationService.STATE_LOADING
+                || state == AudioClassificationService.STATE_WARMING
+                || state == AudioClassificationService.STATE_READY;
+    }
+
+    private void handleClassifierStateChanged(int state) {
+        if (!isClassifierStarting(state)) {
+            // RUNNING e IDLE sono gestiti da ACTION_SERVICE_INITIALIZED e ACTION_SERVICE_STOPPED.
+            return;
+        }
+        runOnUiThread(() -> {
+            recordButton.setEnabled(false);
+            if (state == AudioClassificationService.STATE_LOADING) {
+                displayTextView.setText("Caricamento del modello in corso...");
+            } else if (state == AudioClassificationService.STATE_WARMING) {
+                displayTextView.setText("Preparazione del classificatore...");
+            } else {
+                displayTextView.setText("Classificatore pronto, avvio dell'acquisizione...");
+            }
+        });
+    }
+
     private void handleServiceStopped() {
         runOnUiThread(() -> {
             isAudioServiceRunning = false;
@@ -415,133 +512,122 @@ public class MainActivity extends AppCompatActivity {
             recordButton.setEnabled(true);
             displayTextView.setText("Classificazione interrotta.");
             resetUIDebounceState();
-            recentLogEntriesList.clear();
-            updateRecentInferencesTextView();
+            resetRecentLog();
+            refreshRecentLog();
             Log.i(TAG, "Servizio fermato.");
         });
     }
 
-    private void handleClassificationResults(List<Category> results, long inferenceTime) {
-        runOnUiThread(() -> {
-            results.sort((o1, o2) -> Float.compare(o2.getScore(), o1.getScore()));
-
-            Category topResult = null;
-            if (!results.isEmpty()) {
-                topResult = results.get(0);
+    // Soglie di visualizzazione per etichetta: comandi oltre il 90%, rumore e silenzio oltre il 20%,
+    // parole chiave osservate alla soglia delle regole, come nel service.
+    private PosteriorSmoother obtainUiSmoother(LabelTable labelTable) {
+        // Dopo una sostituzione del modello, o una nuova configurazione, indici e soglie cambiano.
+        KeywordRules.Compiled rules = KeywordRules.shared(this).compile(labelTable);
+        if (uiSmoother == null || uiSmootherRules != rules) {
+            PosteriorSmoother smoother = new PosteriorSmoother(labelTable.size(), UI_SMOOTHING_WINDOWS,
+                    UI_REFRACTORY_MS, UI_DISPLAY_WORD_THRESHOLD);
+            for (int i = 0; i < labelTable.size(); i++) {
+                if (isBackgroundLabel(labelTable.getLabel(i))) {
+                    smoother.setThreshold(i, UI_RECENT_LOG_THRESHOLD);
+                }
             }
+            rules.applyThresholds(smoother);
+            uiSmoother = smoother;
+            uiSmootherRules = rules;
+        }
+        return uiSmoother;
+    }
 
-            StringBuilder logcatOutput = new StringBuilder();
-            logcatOutput.append("--- Nuova Inferenza dal Service (Tempo: ").append(inferenceTime).append("ms) ---\n");
-            for (Category category : results) {
-                String scoreStr;
-                if (Float.isNaN(category.getScore())) {
-                    scoreStr = "NaN%";
-                } else {
-                    scoreStr = String.format(Locale.getDefault(), "%.2f%%", category.getScore() * 100);
-                }
-                logcatOutput.append(String.format(Locale.getDefault(), "  %s: %s\n",
-                        category.getLabel(), scoreStr));
+    private static boolean isBackgroundLabel(String label) {
+        return label.equals("_background_noise_") || label.equals("silence");
+    }
+
+    // Il service invia le categorie già ordinate per punteggio decrescente; la decisione
+    // (etichetta o null) arriva dallo smoother con le soglie della UI.
+    /**
+     * Chiamato sul thread UI al più una volta per frame con l'ultimo stato pubblicato e tutte
+     * le decisioni arrivate dal frame precedente.
+     */
+    private void handleClassificationResults(UiUpdateChannel.UiState state, List<ClassificationLogEntry> decisions) {
+        long inferenceTime = state.inferenceTimeMs;
+        // Solo record primitivi: il testo viene prodotto se la traccia viene scritta su logcat.
+        TraceLog trace = TraceLog.shared();
+        if (trace.isEnabled(TraceLog.DEBUG)) {
+            trace.trace(TRACE_INFERENCE, inferenceTime);
+            for (int i = 0; i < state.count; i++) {
+                trace.trace(TRACE_CATEGORY, state.labels[i], state.scores[i] * 100);
             }
-            Log.i(TAG, logcatOutput.toString());
+        }
 
-            String currentCommandForUI = "Silenzio o Nessun comando valido";
-            float currentConfidenceForUI = 0.0f;
-            boolean isActualCommandRecognized = false;
+        String currentCommandForUI = "Silenzio o Nessun comando valido";
+        float currentConfidenceForUI = 0.0f;
+        boolean isActualCommandRecognized = false;
 
-            if (topResult != null && topResult.getScore() >= UI_DISPLAY_WORD_THRESHOLD &&
-                    !topResult.getLabel().equals("_background_noise_") &&
-                    !topResult.getLabel().equals("silence")) {
-                currentCommandForUI = topResult.getLabel();
-                currentConfidenceForUI = topResult.getScore();
+        // Tra le decisioni accorpate nello stesso frame si mostra l'ultimo comando valido.
+        for (int i = 0; i < decisions.size(); i++) {
+            ClassificationLogEntry decision = decisions.get(i);
+            if (!isBackgroundLabel(decision.label)) {
+                currentCommandForUI = decision.label;
+                currentConfidenceForUI = decision.confidence;
                 isActualCommandRecognized = true;
             }
+        }
 
-            long currentTime = System.currentTimeMillis();
-            boolean shouldUpdateDisplay = false;
+        long currentTime = System.currentTimeMillis();
+        boolean shouldUpdateDisplay = false;
 
-            if (isActualCommandRecognized) {
-                if (!currentCommandForUI.equals(lastDisplayedCommandLabel) || currentConfidenceForUI > lastDisplayedConfidence + 0.05f) {
-                    shouldUpdateDisplay = true;
-                }
-            } else {
-                if (!lastDisplayedCommandLabel.equals("Silenzio o Nessun comando valido")) {
-                    shouldUpdateDisplay = true;
-                } else if (currentTime - lastUIUpdateTime > UI_SILENCE_DEBOUNCE_DELAY_MS) {
-                    shouldUpdateDisplay = true;
-                }
+        if (isActualCommandRecognized) {
+            if (!currentCommandForUI.equals(lastDisplayedCommandLabel) || currentConfidenceForUI > lastDisplayedConfidence + 0.05f) {
+                shouldUpdateDisplay = true;
             }
-
-            if (shouldUpdateDisplay) {
-                if (isActualCommandRecognized) {
-                    displayTextView.setText(String.format(Locale.getDefault(),
-                            "%s: %.2f%%\nTempo di inferenza: %d ms\n(Servizio Background)",
-                            currentCommandForUI, currentConfidenceForUI * 100, inferenceTime));
-                } else {
-                    displayTextView.setText(String.format(Locale.getDefault(),
-                            "%s\nTempo di inferenza: %d ms\n(Servizio Background)",
-                            currentCommandForUI, inferenceTime));
-                }
-                lastDisplayedCommandLabel = currentCommandForUI;
-                lastDisplayedConfidence = currentConfidenceForUI;
-                lastUIUpdateTime = currentTime;
+        } else {
+            // Le decisioni sono eventi puntuali: il comando resta visibile per UI_DEBOUNCE_DELAY_MS.
+            if (!lastDisplayedCommandLabel.equals("Silenzio o Nessun comando valido")) {
+                shouldUpdateDisplay = currentTime - lastUIUpdateTime > UI_DEBOUNCE_DELAY_MS;
+            } else if (currentTime - lastUIUpdateTime > UI_SILENCE_DEBOUNCE_DELAY_MS) {
+                shouldUpdateDisplay = true;
             }
+        }
 
-            updateRecentLog(topResult, isActualCommandRecognized);
-        });
-    }
-
-    private void updateRecentLog(Category topResult, boolean isActualCommandRecognized) {
-        String labelToLog = null;
-        float confidenceToLog = 0.0f;
-        boolean shouldLogToRecent = false;
-        long now = System.currentTimeMillis();
+        if (shouldUpdateDisplay) {
+            if (isActualCommandRecognized) {
+                displayTextView.setText(String.format(Locale.getDefault(),
+                        "%s: %.2f%%\nTempo di inferenza: %d ms\n(Servizio Background)",
+                        currentCommandForUI, currentConfidenceForUI * 100, inferenceTime));
+            } else {
+                displayTextView.setText(String.format(Locale.getDefault(),
+                        "%s\nTempo di inferenza: %d ms\n(Servizio Background)",
+                        currentCommandForUI, inferenceTime));
+            }
+            lastDisplayedCommandLabel = currentCommandForUI;
+            lastDisplayedConfidence = currentConfidenceForUI;
+            lastUIUpdateTime = currentTime;
+        }
 
-        if (isActualCommandRecognized) {
-            labelToLog = topResult.getLabel();
-            confidenceToLog = topResult.getScore();
-            shouldLogToRecent = true;
-        } else if (topResult != null &&
-                (topResult.getLabel().equals("_background_noise_") || topResult.getLabel().equals("silence")) &&
-                topResult.getScore() >= UI_RECENT_LOG_THRESHOLD) {
-            labelToLog = topResult.getLabel();
-            confidenceToLog = topResult.getScore();
-            shouldLogToRecent = true;
+        // Stesse regole compilate dello smoother: cambiano dopo una nuova configurazione o un nuovo modello.
+        KeywordRules.Compiled rules = uiSmootherRules;
+        if (rules != null) {
+            recentLogAdapter.setKeywordRules(rules);
         }
 
-        if (shouldLogToRecent) {
-            boolean foundExistingEntry = false;
-            if (!recentLogEntriesList.isEmpty()) {
-                RecentLogEntry lastEntry = recentLogEntriesList.getFirst();
-                if (lastEntry.label.equals(labelToLog) && (now - lastEntry.timestamp < UI_RECENT_LOG_GROUPING_TIME_MS)) {
-                    if (confidenceToLog > lastEntry.confidence) {
-                        lastEntry.confidence = confidenceToLog;
-                        lastEntry.timestamp = now;
-                    }
-                    foundExistingEntry = true;
-                }
-            }
+        // Le decisioni non vengono mai scartate: ognuna entra nel log recente.
+        for (int i = 0; i < decisions.size(); i++) {
+            ClassificationLogEntry decision = decisions.get(i);
+            recentLogHistory.record(decision.label, decision.confidence, decision.timestamp);
+        }
+        if (!decisions.isEmpty()) {
+            refreshRecentLog();
+        }
 
-            if (!foundExistingEntry) {
-                RecentLogEntry newEntry = new RecentLogEntry(labelToLog, confidenceToLog, now);
-                recentLogEntriesList.addFirst(newEntry);
-                if (recentLogEntriesList.size() > MAX_LOG_ENTRIES) {
-                    recentLogEntriesList.removeLast();
-                }
-            }
-            updateRecentInferencesTextView();
+        if (serviceBinder != null) {
+            serviceBinder.recordDisplayLatency(state.captureTimeNanos);
         }
     }
 
-    private void updateRecentInferencesTextView() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(String.format(Locale.getDefault(),
-                "Log recenti (UI > %.0f%% o background/silence):\n\n", UI_DISPLAY_WORD_THRESHOLD * 100));
-
-        for (RecentLogEntry entry : recentLogEntriesList) {
-            sb.append(entry.formatForDisplay());
+    // Solo le righe inserite o modificate vengono rilegate; la voce più recente resta in cima.
+    private void refreshRecentLog() {
+        if (recentLogAdapter.syncWithHistory() > 0) {
+            recentLogRecyclerView.scrollToPosition(0);
         }
-        recentInferencesTextView.setText(sb.toString());
-        // Assicurati che lo scroll sia sempre in basso per vedere gli ultimi log
-        logScrollView.post(() -> logScrollView.fullScroll(View.FOCUS_DOWN));
     }
 }
\ No newline at end of file
@@ -0,0 +1,293 @@
+package com.example.kspotting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Classificazione di registrazioni (WAV PCM 16 bit mono o PCM grezzo) fuori dal tempo reale.
+ *
+ * Il file viene mappato in memoria a segmenti e diviso in finestre sovrapposte con passo fisso;
+ * il file non viene mai letto nello heap. Ogni worker converte i campioni della propria finestra
+ * dal buffer mappato in un buffer float riutilizzato, da cui il motore li copia nel proprio
+ * tensore di input: una conversione e una copia per finestra, come dal buffer circolare dal vivo.
+ * Un pool fisso di worker, ciascuno con il proprio {@link InferenceEngine} (di norma uno per
+ * core), si contende le finestre di un blocco; i punteggi vengono poi ripresi in ordine e passati
+ * a un {@link PosteriorSmoother} con le stesse soglie e {@link KeywordRules} del service,
+ * producendo le stesse {@link ClassificationLogEntry} della classificazione dal vivo.
+ *
+ * Come dal vivo, un {@link VoiceActivityDetector} esamina il file in ordine, a frame della durata
+ * di un blocco di acquisizione, e le finestre senza attività vocale non vengono classificate: la
+ * prima di ogni tratto di silenzio azzera le medie dello smoother, come il risultato vuoto che il
+ * thread di inferenza consegna in quel caso. Il filtro si disattiva con {@link #setVoiceActivityGate}.
+ *
+ * Non dipende da Android, come {@link PcmFileAudioSource}.
+ */
+public class OfflineClassifier {
+
+    // Finestre per blocco: limita la memoria dei punteggi anche su registrazioni di ore.
+    private static final int BLOCK_WINDOWS = 2048;
+    // Segmenti mappati; si sovrappongono di una finestra così ogni finestra sta in un solo segmento.
+    private static final long MAX_MAPPED_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Rilevazioni di una registrazione e velocità di elaborazione.
+     */
+    public static final class Report {
+        public final List<ClassificationLogEntry> detections;
+        public final long windows;
+        // Finestre scartate dal VAD senza inferenza, comprese in windows.
+        public final long gatedWindows;
+        public final double audioSeconds;
+        public final double wallSeconds;
+
+        Report(List<ClassificationLogEntry> detections, long windows, long gatedWindows, double audioSeconds,
+               double wallSeconds) {
+            this.detections = detections;
+            this.windows = windows;
+            this.gatedWindows = gatedWindows;
+            this.audioSeconds = audioSeconds;
+            this.wallSeconds = wallSeconds;
+        }
+
+        /**
+         * Secondi di audio elaborati per secondo di tempo reale.
+         */
+        public double getThroughput() {
+            return wallSeconds > 0 ? audioSeconds / wallSeconds : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d finestre (%d filtrate dal VAD), %.1f s di audio in %.2f s (%.1fx), %d rilevazioni",
+                    windows, gatedWindows, audioSeconds, wallSeconds, getThroughput(), detections.size());
+        }
+    }
+
+    private final InferenceEngine[] engines;
+    private final ExecutorService workers;
+    private final long hopMs;
+    private volatile boolean voiceActivityGate = true;
+
+    /**
+     * @param workerCount motori e thread del pool, di norma il numero di core
+     * @param hopMs       passo tra l'inizio di due finestre, come il passo minimo dal vivo
+     */
+    public OfflineClassifier(InferenceEngine.Factory factory, int workerCount, long hopMs) throws IOException {
+        if (workerCount <= 0 || hopMs <= 0) {
+            throw new IllegalArgumentException("Worker o passo non validi: " + workerCount + ", " + hopMs);
+        }
+        this.hopMs = hopMs;
+        this.engines = new InferenceEngine[workerCount];
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                engines[i] = factory.create();
+                if (engines[i].getSampleRate() != engines[0].getSampleRate()
+                        || engines[i].getInputLength() != engines[0].getInputLength()) {
+                    throw new IOException("I motori del pool hanno formati di input diversi.");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            closeEngines();
+            throw e;
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount,
+                runnable -> new Thread(runnable, "kspotting-offline-" + threadIndex.getAndIncrement()));
+    }
+
+    /**
+     * Attiva o disattiva il filtro delle finestre senza attività vocale (attivo come dal vivo).
+     * Vale dalla prossima chiamata di {@link #classify}.
+     */
+    public void setVoiceActivityGate(boolean enabled) {
+        voiceActivityGate = enabled;
+    }
+
+    /**
+     * Classifica {@code file} dall'inizio alla fine. Blocca il chiamante.
+     *
+     * @param rawSampleRate frequenza se il file è PCM grezzo senza intestazione WAV
+     * @param startTimeMs   istante di inizio della registrazione, base dei timestamp delle rilevazioni
+     * @param keywordRules  regole delle parole chiave, compilate sulle etichette dei motori
+     */
+    public Report classify(File file, int rawSampleRate, long startTimeMs, KeywordRules keywordRules)
+            throws IOException, InterruptedException {
+        long wallStart = System.nanoTime();
+        PcmFileAudioSource.Header header = PcmFileAudioSource.Header.read(file, rawSampleRate);
+        int sampleRate = engines[0].getSampleRate();
+        if (header.sampleRate != sampleRate) {
+            throw new IOException("Frequenza del file (" + header.sampleRate + " Hz) diversa da quella del modello ("
+                    + sampleRate + " Hz): " + file);
+        }
+        int window = engines[0].getInputLength();
+        int hop = Math.max(1, (int) (sampleRate * hopMs / 1000));
+        long totalSamples = header.dataLength / 2;
+        long windowCount = totalSamples < window ? 0 : (totalSamples - window) / hop + 1;
+
+        LabelTable labelTable = engines[0].getLabelTable();
+        int labelCount = labelTable.size();
+        PosteriorSmoother smoother = AudioClassificationService.newDetectionSmoother(keywordRules.compile(labelTable));
+        List<ClassificationLogEntry> detections = new ArrayList<>();
+        float[] scores = new float[BLOCK_WINDOWS * labelCount];
+        boolean[] gated = new boolean[BLOCK_WINDOWS];
+        VoiceGate gate = voiceActivityGate ? new VoiceGate(AudioClassificationHelper.captureChunkSamples(sampleRate)) : null;
+        long gatedWindows = 0;
+        boolean silenceNotified = false;
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r"); FileChannel channel = input.getChannel()) {
+            long segmentSamples = Math.max(window + hop, MAX_MAPPED_BYTES / 2);
+            long firstWindow = 0;
+            while (firstWindow < windowCount) {
+                // Mappa il segmento che contiene la finestra firstWindow e quante più finestre successive possibile.
+                long segmentStart = firstWindow * hop;
+                long segmentLength = Math.min(segmentSamples, totalSamples - segmentStart);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                        header.dataOffset + segmentStart * 2, segmentLength * 2);
+                ShortBuffer samples = mapped.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+                long segmentWindows = Math.min(windowCount - firstWindow, (segmentLength - window) / hop + 1);
+
+                for (long done = 0; done < segmentWindows; done += BLOCK_WINDOWS) {
+                    int blockWindows = (int) Math.min(BLOCK_WINDOWS, segmentWindows - done);
+                    long blockFirst = firstWindow + done;
+                    for (int i = 0; i < blockWindows; i++) {
+                        long windowEnd = (blockFirst + i) * hop + window;
+                        gated[i] = gate != null && !gate.hasActivity(samples, segmentStart, windowEnd - window, windowEnd);
+                    }
+                    classifyBlock(samples, (int) (done * hop), hop, window, blockWindows, gated, scores, labelCount);
+                    for (int i = 0; i < blockWindows; i++) {
+                        long windowEnd = (blockFirst + i) * hop + window;
+                        long timestampMs = startTimeMs + windowEnd * 1000 / sampleRate;
+                        if (gated[i]) {
+                            gatedWindows++;
+                            if (!silenceNotified) {
+                                smoother.clearHistory();
+                                silenceNotified = true;
+                            }
+                            continue;
+                        }
+                        silenceNotified = false;
+                        int decision = smoother.update(scores, i * labelCount, timestampMs);
+                        if (decision != PosteriorSmoother.NO_DECISION) {
+                            detections.add(new ClassificationLogEntry(labelTable.getLabel(decision),
+                                    smoother.getLastDecisionScore(), timestampMs));
+                        }
+                    }
+                }
+                firstWindow += segmentWindows;
+            }
+        }
+
+        double wallSeconds = (System.nanoTime() - wallStart) / 1e9;
+        return new Report(detections, windowCount, gatedWindows, totalSamples / (double) sampleRate, wallSeconds);
+    }
+
+    /**
+     * VAD eseguito in ordine sul file, un frame alla volta, come sul thread di acquisizione.
+     */
+    private static final class VoiceGate {
+        private final VoiceActivityDetector detector = new VoiceActivityDetector();
+        private final float[] frame;
+        private long position = 0; // Fine dell'ultimo frame esaminato
+
+        VoiceGate(int frameSamples) {
+            frame = new float[frameSamples];
+        }
+
+        /**
+         * Esamina i frame che terminano entro {@code windowEnd} e indica se c'è attività dopo
+         * {@code windowStart}. {@code samples} contiene il file da {@code segmentStart}.
+         */
+        boolean hasActivity(ShortBuffer samples, long segmentStart, long windowStart, long windowEnd) {
+            if (position < segmentStart) {
+                // I segmenti si sovrappongono di una finestra meno un passo: qui solo se è meno di un frame.
+                position = segmentStart;
+            }
+            while (position + frame.length <= windowEnd) {
+                int start = (int) (position - segmentStart);
+                for (int i = 0; i < frame.length; i++) {
+                    frame[i] = samples.get(start + i) * PcmRingBuffer.PCM_16BIT_SCALE;
+                }
+                detector.accept(frame, 0, frame.length);
+                position += frame.length;
+                detector.finishFrame(position);
+            }
+            return detector.hasActivitySince(windowStart);
+        }
+    }
+
+    // Distribuisce le finestre del blocco tra i worker; ciascuno scrive i punteggi nella riga della propria finestra.
+    private void classifyBlock(ShortBuffer samples, int firstStart, int hop, int window, int blockWindows,
+                               boolean[] gated, float[] scores, int labelCount) throws IOException, InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>(engines.length);
+        for (InferenceEngine engine : engines) {
+            tasks.add(() -> {
+                float[] input = new float[window];
+                ClassificationResult result = new ClassificationResult(AudioClassificationHelper.MAX_RESULTS,
+                        engine.getLabelTable());
+                int index;
+                while ((index = next.getAndIncrement()) < blockWindows) {
+                    if (gated[index]) {
+                        continue;
+                    }
+                    int start = firstStart + index * hop;
+                    for (int i = 0; i < window; i++) {
+                        input[i] = samples.get(start + i) * PcmRingBuffer.PCM_16BIT_SCALE;
+                    }
+                    engine.accept(input, 0, window);
+                    engine.classify(result);
+                    // Come dal vivo: solo le prime categorie, le altre a zero.
+                    int row = index * labelCount;
+                    for (int label = 0; label < labelCount; label++) {
+                        scores[row + label] = 0f;
+                    }
+                    for (int i = 0; i < result.size(); i++) {
+                        int labelId = result.getLabelId(i);
+                        if (labelId >= 0 && labelId < labelCount) {
+                            scores[row + labelId] = result.getScore(i);
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+        for (Future<Void> future : workers.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Errore di classificazione in un worker: " + e.getCause(), e.getCause());
+            }
+        }
+    }
+
+    public int getWorkerCount() {
+        return engines.length;
+    }
+
+    public void close() {
+        workers.shutdownNow();
+        closeEngines();
+    }
+
+    private void closeEngines() {
+        for (InferenceEngine engine : engines) {
+            if (engine != null) {
+                engine.close();
+            }
+        }
+    }
+}
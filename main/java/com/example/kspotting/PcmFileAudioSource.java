@@ -0,0 +1,197 @@
+package com.example.kspotting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link AudioSource} che riproduce un file WAV (PCM 16 bit mono) o PCM grezzo little-endian.
+ * Non dipende da Android: serve a misurare e collaudare la pipeline su una JVM qualsiasi.
+ * La velocità di riproduzione è configurabile: 1 = tempo reale, N = N volte il tempo reale,
+ * 0 = il più veloce possibile.
+ */
+public class PcmFileAudioSource implements AudioSource {
+
+    private final File file;
+    private final Header header;
+    private final float speed;
+    private final boolean loop;
+
+    private FileChannel channel;
+    private long readOffset = 0;
+    private long samplesDelivered = 0;
+    private long startNanos = 0;
+    private volatile boolean running = false;
+
+    /**
+     * @param rawSampleRate frequenza da usare se il file è PCM grezzo senza intestazione WAV
+     * @param speed         fattore rispetto al tempo reale, 0 per nessun ritmo
+     * @param loop          ricomincia dall'inizio a fine file invece di terminare
+     */
+    public PcmFileAudioSource(File file, int rawSampleRate, float speed, boolean loop) throws IOException {
+        this.file = file;
+        this.header = Header.read(file, rawSampleRate);
+        this.speed = speed;
+        this.loop = loop;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return header.sampleRate;
+    }
+
+    public long getTotalSamples() {
+        return header.dataLength / 2;
+    }
+
+    @Override
+    public void start() {
+        try {
+            channel = new RandomAccessFile(file, "r").getChannel();
+        } catch (IOException e) {
+            throw new IllegalStateException("Impossibile aprire il file audio: " + file, e);
+        }
+        readOffset = 0;
+        samplesDelivered = 0;
+        startNanos = System.nanoTime();
+        running = true;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, int length) {
+        int samples = fill(buffer, length);
+        if (samples > 0 && buffer.order() != ByteOrder.LITTLE_ENDIAN) {
+            // Il file è little endian: solo su un dispositivo big endian serve lo scambio dei byte.
+            for (int i = 0; i < samples; i++) {
+                buffer.putShort(i * 2, Short.reverseBytes(buffer.getShort(i * 2)));
+            }
+        }
+        return samples;
+    }
+
+    // Legge fino a length campioni del file in target, dall'indice 0; la posizione di target torna a 0.
+    private int fill(ByteBuffer target, int length) {
+        if (!running) {
+            return END_OF_STREAM;
+        }
+        pace(length);
+
+        int bytesWanted = length * 2;
+        try {
+            long remaining = header.dataLength - readOffset;
+            if (remaining < 2) {
+                if (!loop) {
+                    return END_OF_STREAM;
+                }
+                readOffset = 0;
+                remaining = header.dataLength;
+            }
+            target.clear();
+            target.limit((int) Math.min(bytesWanted, remaining & ~1L));
+            while (target.hasRemaining()) {
+                int n = channel.read(target, header.dataOffset + readOffset + target.position());
+                if (n < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            target.clear();
+            return ERROR;
+        }
+
+        int samples = target.position() / 2;
+        target.clear();
+        readOffset += samples * 2L;
+        samplesDelivered += samples;
+        return samples;
+    }
+
+    // Attende finché la posizione di riproduzione non raggiunge il tempo reale scalato per speed.
+    private void pace(int length) {
+        if (speed <= 0f) {
+            return;
+        }
+        long dueNanos = startNanos + (long) ((samplesDelivered + length) * 1_000_000_000.0 / (header.sampleRate * speed));
+        long waitNanos;
+        while (running && (waitNanos = dueNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(waitNanos);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void release() {
+        running = false;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Chiusura in fase di rilascio: nessuna azione possibile.
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Posizione e formato dei campioni in un file WAV o PCM grezzo.
+     */
+    static final class Header {
+        final int sampleRate;
+        final long dataOffset;
+        final long dataLength;
+
+        private Header(int sampleRate, long dataOffset, long dataLength) {
+            this.sampleRate = sampleRate;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+
+        static Header read(File file, int rawSampleRate) throws IOException {
+            try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+                long fileLength = input.length();
+                ByteBuffer chunk = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+                if (fileLength < 12 || input.getChannel().read(chunk, 0) < 12
+                        || chunk.getInt(0) != 0x46464952 /* RIFF */ || chunk.getInt(8) != 0x45564157 /* WAVE */) {
+                    return new Header(rawSampleRate, 0, fileLength);
+                }
+
+                int sampleRate = -1;
+                long position = 12;
+                ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                while (position + 8 <= fileLength) {
+                    chunkHeader.clear();
+                    input.getChannel().read(chunkHeader, position);
+                    int id = chunkHeader.getInt(0);
+                    long size = chunkHeader.getInt(4) & 0xFFFFFFFFL;
+                    long body = position + 8;
+                    if (id == 0x20746d66 /* "fmt " */) {
+                        ByteBuffer format = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+                        input.getChannel().read(format, body);
+                        short audioFormat = format.getShort(0);
+                        short channels = format.getShort(2);
+                        short bitsPerSample = format.getShort(14);
+                        if (audioFormat != 1 || channels != 1 || bitsPerSample != 16) {
+                            throw new IOException("Formato WAV non supportato (serve PCM 16 bit mono): " + file);
+                        }
+                        sampleRate = format.getInt(4);
+                    } else if (id == 0x61746164 /* "data" */) {
+                        if (sampleRate < 0) {
+                            throw new IOException("Chunk fmt mancante prima dei dati: " + file);
+                        }
+                        return new Header(sampleRate, body, Math.min(size, fileLength - body));
+                    }
+                    position = body + size + (size & 1);
+                }
+                throw new IOException("Chunk data non trovato: " + file);
+            }
+        }
+    }
+}
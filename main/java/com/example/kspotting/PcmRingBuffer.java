@@ -0,0 +1,179 @@
+package com.example.kspotting;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Buffer circolare a dimensione fissa per campioni PCM mono, già normalizzati in float [-1, 1].
+ * Un solo thread di acquisizione scrive, un solo thread di inferenza legge finestre
+ * sovrapposte indicizzate per posizione assoluta (numero di campioni dall'avvio).
+ * Nessuna allocazione dopo la costruzione.
+ */
+public class PcmRingBuffer {
+
+    static final float PCM_16BIT_SCALE = 1.0f / 32768.0f;
+
+    /**
+     * Riceve una finestra letta dal buffer. Se la finestra attraversa la fine dell'array
+     * circolare viene consegnata in due segmenti consecutivi, senza copie intermedie.
+     */
+    public interface WindowSink {
+        void accept(float[] samples, int offset, int length);
+    }
+
+    private final float[] samples;
+    private final int capacity;
+    private final Object positionLock = new Object();
+
+    // Numero totale di campioni scritti dall'avvio: pubblicato dopo la scrittura dei dati.
+    private volatile long writePosition = 0;
+    // Blocco più grande scritto finora: margine per non leggere una zona in corso di sovrascrittura.
+    private volatile int maxWriteLength = 0;
+    // Istante di pubblicazione dell'ultimo blocco; letto in coppia con writePosition
+    // tramite publishSequence (dispari durante l'aggiornamento).
+    private volatile long lastWriteNanos = 0;
+    private volatile int publishSequence = 0;
+
+    public PcmRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacità del buffer non valida: " + capacity);
+        }
+        this.capacity = capacity;
+        this.samples = new float[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * Converte e accoda {@code length} campioni PCM a 16 bit letti da {@code source} (di norma la
+     * vista di un buffer diretto riempito dalla sorgente), dall'indice 0, in un solo passaggio
+     * verso l'array del buffer. Se {@code preprocessor} non è null elabora sul posto i campioni
+     * appena scritti, prima che diventino visibili ai lettori: nessun frame intermedio. Un blocco
+     * che attraversa la fine dell'array viene elaborato in una sola chiamata, sui due segmenti.
+     * Da chiamare solo dal thread di acquisizione.
+     */
+    public void write(ShortBuffer source, int length, AudioPreprocessor preprocessor) {
+        if (length > capacity) {
+            throw new IllegalArgumentException("Blocco più grande del buffer: " + length + " > " + capacity);
+        }
+        long position = writePosition;
+        int index = (int) (position % capacity);
+        int firstLength = Math.min(length, capacity - index);
+        int secondLength = length - firstLength;
+        float[] target = samples;
+        for (int i = 0; i < firstLength; i++) {
+            target[index + i] = source.get(i) * PCM_16BIT_SCALE;
+        }
+        for (int i = 0; i < secondLength; i++) {
+            target[i] = source.get(firstLength + i) * PCM_16BIT_SCALE;
+        }
+        if (preprocessor != null) {
+            preprocessor.process(target, index, firstLength, secondLength);
+        }
+        publish(position + length);
+    }
+
+    /**
+     * Accoda campioni già in formato float. Da chiamare solo dal thread di acquisizione.
+     */
+    public void write(float[] source, int offset, int length) {
+        long position = writePosition;
+        int index = (int) (position % capacity);
+        int remaining = length;
+        int sourceIndex = offset;
+        while (remaining > 0) {
+            int chunk = Math.min(remaining, capacity - index);
+            System.arraycopy(source, sourceIndex, samples, index, chunk);
+            sourceIndex += chunk;
+            remaining -= chunk;
+            index = 0;
+        }
+        publish(position + length);
+    }
+
+    private void publish(long newPosition) {
+        long now = System.nanoTime();
+        int length = (int) (newPosition - writePosition);
+        if (length > maxWriteLength) {
+            maxWriteLength = length;
+        }
+        publishSequence++;
+        lastWriteNanos = now;
+        writePosition = newPosition;
+        publishSequence++;
+        synchronized (positionLock) {
+            positionLock.notifyAll();
+        }
+    }
+
+    /**
+     * Attende finché non sono stati scritti almeno {@code position} campioni.
+     *
+     * @return true se la posizione è disponibile, false allo scadere del timeout
+     */
+    public boolean awaitPosition(long position, long timeoutMs) throws InterruptedException {
+        if (writePosition >= position) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (positionLock) {
+            while (writePosition < position) {
+                long waitMs = deadline - System.currentTimeMillis();
+                if (waitMs <= 0) {
+                    return false;
+                }
+                positionLock.wait(waitMs);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Istante stimato ({@link System#nanoTime()}) in cui è stato scritto il campione che precede
+     * {@code position}: pubblicazione dell'ultimo blocco meno la durata dei campioni scritti dopo.
+     */
+    public long estimateWriteTimeNanos(long position, int sampleRate) {
+        int sequence;
+        long written;
+        long writeNanos;
+        do {
+            sequence = publishSequence;
+            written = writePosition;
+            writeNanos = lastWriteNanos;
+        } while ((sequence & 1) != 0 || sequence != publishSequence);
+        return writeNanos - (written - position) * 1_000_000_000L / sampleRate;
+    }
+
+    /**
+     * Posizione più vecchia ancora leggibile (i campioni precedenti sono stati sovrascritti).
+     */
+    public long getOldestPosition() {
+        return Math.max(0, writePosition + maxWriteLength - capacity);
+    }
+
+    /**
+     * Consegna al sink la finestra di {@code length} campioni che termina (esclusa) in {@code endPosition}.
+     *
+     * @return false se la finestra non è ancora completa o se è stata sovrascritta durante la lettura
+     */
+    public boolean readWindow(long endPosition, int length, WindowSink sink) {
+        long startPosition = endPosition - length;
+        if (length > capacity || startPosition < 0 || endPosition > writePosition
+                || startPosition < getOldestPosition()) {
+            return false;
+        }
+        int startIndex = (int) (startPosition % capacity);
+        int firstChunk = Math.min(length, capacity - startIndex);
+        sink.accept(samples, startIndex, firstChunk);
+        if (firstChunk < length) {
+            sink.accept(samples, 0, length - firstChunk);
+        }
+        // Se il writer ha superato l'inizio della finestra durante la lettura, i dati sono incoerenti.
+        return startPosition >= getOldestPosition();
+    }
+}
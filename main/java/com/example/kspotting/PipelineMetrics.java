@@ -0,0 +1,73 @@
+package com.example.kspotting;
+
+/**
+ * Istogrammi di latenza per stadio della pipeline, misurati con {@link System#nanoTime()}.
+ * Ogni stadio ha un solo thread scrittore: tutti sul thread di inferenza tranne
+ * {@link #STAGE_END_TO_END}, registrato sul thread UI al momento della visualizzazione, e gli
+ * stadi di preelaborazione, registrati sul thread di acquisizione.
+ */
+public class PipelineMetrics {
+
+    /** Attesa della finestra successiva nel buffer circolare. */
+    public static final int STAGE_CAPTURE_WAIT = 0;
+    /** Caricamento della finestra nel motore (tensorAudio.load). */
+    public static final int STAGE_AUDIO_LOAD = 1;
+    /** Esecuzione del modello. */
+    public static final int STAGE_CLASSIFY = 2;
+    /** Conversione dell'output del modello in {@link ClassificationResult}. */
+    public static final int STAGE_RESULT_CONVERSION = 3;
+    /** Consegna del risultato ai listener. */
+    public static final int STAGE_DISPATCH = 4;
+    /** Dall'acquisizione dell'ultimo campione della finestra alla visualizzazione. */
+    public static final int STAGE_END_TO_END = 5;
+    /** Rimozione della componente continua di un frame acquisito ({@link AudioPreprocessor}). */
+    public static final int STAGE_PREPROCESS_DC = 6;
+    /** Passa-alto di un frame acquisito. */
+    public static final int STAGE_PREPROCESS_HIGH_PASS = 7;
+    /** Controllo automatico del guadagno di un frame acquisito. */
+    public static final int STAGE_PREPROCESS_AGC = 8;
+
+    private static final String[] STAGE_NAMES = {
+            "attesa_finestra", "caricamento_audio", "inferenza", "conversione", "consegna", "microfono_ui",
+            "preproc_continua", "preproc_passa_alto", "preproc_guadagno"
+    };
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_NAMES.length];
+
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public int getStageCount() {
+        return histograms.length;
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public void record(int stage, long nanos) {
+        histograms[stage].record(nanos);
+    }
+
+    public LatencyHistogram.Snapshot snapshot(int stage) {
+        return histograms[stage].snapshot();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < histograms.length; i++) {
+            builder.append(STAGE_NAMES[i]).append(": ").append(histograms[i].snapshot()).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.kspotting;
+
+import java.util.Arrays;
+
+/**
+ * Livellamento dei punteggi tra finestre di inferenza consecutive.
+ * Per ogni etichetta mantiene la media mobile degli ultimi N punteggi in array primitivi
+ * (le etichette assenti dalla top-K di una finestra contano come 0) ed emette una decisione
+ * quando la media supera la soglia dell'etichetta; dopo una decisione l'etichetta resta in
+ * periodo refrattario e non decide di nuovo finché la media non torna sotto la soglia. Un
+ * attraversamento bloccato dal periodo refrattario o da un'etichetta con media più alta non va
+ * perso: la decisione arriva alla prima finestra utile, se la media è ancora sopra la soglia.
+ *
+ * Le somme delle medie sono in double e vengono ricalcolate dallo storico a ogni giro del buffer,
+ * così gli aggiornamenti incrementali non accumulano errore. Non dipende da Android e non alloca
+ * per finestra.
+ *
+ * Non thread-safe: va aggiornato da un solo thread.
+ */
+public class PosteriorSmoother {
+
+    public static final int NO_DECISION = -1;
+
+    private final int labelCount;
+    private final int windowLength;
+    private final long refractoryMs;
+
+    // history[label * windowLength + slot]: ultimi N punteggi per etichetta
+    private final float[] history;
+    private final double[] sums;
+    private final float[] current;
+    private final float[] thresholds;
+    // Decisione emessa e media non ancora tornata sotto la soglia.
+    private final boolean[] latched;
+    private final long[] lastDecisionMs;
+    private int slot = 0;
+    private int filled = 0;
+
+    private float lastDecisionScore = 0f;
+
+    /**
+     * @param labelCount       numero di etichette del modello
+     * @param windowLength     numero di finestre su cui calcolare la media
+     * @param refractoryMs     intervallo minimo tra due decisioni per la stessa etichetta
+     * @param defaultThreshold soglia iniziale di tutte le etichette
+     */
+    public PosteriorSmoother(int labelCount, int windowLength, long refractoryMs, float defaultThreshold) {
+        if (windowLength <= 0) {
+            throw new IllegalArgumentException("La finestra di livellamento deve contenere almeno un elemento.");
+        }
+        this.labelCount = labelCount;
+        this.windowLength = windowLength;
+        this.refractoryMs = refractoryMs;
+        this.history = new float[labelCount * windowLength];
+        this.sums = new double[labelCount];
+        this.current = new float[labelCount];
+        this.thresholds = new float[labelCount];
+        this.latched = new boolean[labelCount];
+        this.lastDecisionMs = new long[labelCount];
+        Arrays.fill(thresholds, defaultThreshold);
+        Arrays.fill(lastDecisionMs, Long.MIN_VALUE / 2);
+    }
+
+    public int getLabelCount() {
+        return labelCount;
+    }
+
+    /**
+     * Imposta la soglia di un'etichetta. Un valore maggiore di 1 disabilita le decisioni per quell'etichetta.
+     */
+    public void setThreshold(int labelId, float threshold) {
+        thresholds[labelId] = threshold;
+    }
+
+    public float getThreshold(int labelId) {
+        return thresholds[labelId];
+    }
+
+    /**
+     * Aggiunge una finestra e restituisce l'etichetta decisa, o {@link #NO_DECISION}.
+     * Se più etichette attraversano la soglia nella stessa finestra vince quella con la media più alta.
+     * Un risultato vuoto (finestra scartata per silenzio) interrompe la continuità e azzera lo storico.
+     */
+    public int update(ClassificationResult result) {
+        if (result.isEmpty()) {
+            clearHistory();
+            return NO_DECISION;
+        }
+        Arrays.fill(current, 0f);
+        for (int i = 0; i < result.size(); i++) {
+            int labelId = result.getLabelId(i);
+            if (labelId >= 0 && labelId < labelCount) {
+                current[labelId] = result.getScore(i);
+            }
+        }
+        return update(current, result.getTimestampMs());
+    }
+
+    /**
+     * Variante con punteggi densi indicizzati per etichetta ({@code scores.length >= labelCount}).
+     */
+    public int update(float[] scores, long timestampMs) {
+        return update(scores, 0, timestampMs);
+    }
+
+    /**
+     * Variante con i punteggi di una finestra a partire da {@code offset} (ad esempio una riga di una matrice).
+     */
+    public int update(float[] scores, int offset, long timestampMs) {
+        if (filled < windowLength) {
+            filled++;
+        }
+        int historyOffset = 0;
+        int decision = NO_DECISION;
+        float decisionScore = 0f;
+        for (int label = 0; label < labelCount; label++, historyOffset += windowLength) {
+            float score = scores[offset + label];
+            int index = historyOffset + slot;
+            sums[label] += (double) score - history[index];
+            history[index] = score;
+
+            float smoothed = getSmoothedScore(label);
+            if (smoothed < thresholds[label]) {
+                latched[label] = false;
+            } else if (!latched[label] && timestampMs - lastDecisionMs[label] >= refractoryMs
+                    && smoothed > decisionScore) {
+                decision = label;
+                decisionScore = smoothed;
+            }
+        }
+        slot = (slot + 1) % windowLength;
+        if (slot == 0) {
+            recomputeSums();
+        }
+        if (decision != NO_DECISION) {
+            lastDecisionMs[decision] = timestampMs;
+            lastDecisionScore = decisionScore;
+            latched[decision] = true;
+        }
+        return decision;
+    }
+
+    // Un giro completo del buffer: O(etichette) per finestra in media, come l'aggiornamento.
+    private void recomputeSums() {
+        for (int label = 0, historyOffset = 0; label < labelCount; label++, historyOffset += windowLength) {
+            double sum = 0;
+            for (int i = 0; i < windowLength; i++) {
+                sum += history[historyOffset + i];
+            }
+            sums[label] = sum;
+        }
+    }
+
+    /**
+     * Media mobile corrente; finché la finestra non è piena si media sui soli valori ricevuti.
+     */
+    public float getSmoothedScore(int labelId) {
+        return (float) (sums[labelId] / Math.max(1, filled));
+    }
+
+    /**
+     * Media dell'etichetta al momento dell'ultima decisione emessa.
+     */
+    public float getLastDecisionScore() {
+        return lastDecisionScore;
+    }
+
+    /**
+     * Azzera le medie mantenendo i periodi refrattari in corso.
+     */
+    public void clearHistory() {
+        Arrays.fill(history, 0f);
+        Arrays.fill(sums, 0);
+        Arrays.fill(latched, false);
+        slot = 0;
+        filled = 0;
+    }
+
+    public void reset() {
+        clearHistory();
+        Arrays.fill(lastDecisionMs, Long.MIN_VALUE / 2);
+        lastDecisionScore = 0f;
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.kspotting;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.Arrays;
+
+/**
+ * Adapter del log recente, letto direttamente dalla {@link DetectionHistory} dell'activity
+ * (dalla voce più recente). Gli ID stabili sono i numeri di sequenza delle voci:
+ * {@link #syncWithHistory()} confronta le sequenze con l'ultima sincronizzazione e notifica
+ * solo le righe inserite, rimosse o aggiornate da un raggruppamento.
+ * Il testo di ogni voce viene formattato una volta e riutilizzato finché la voce non cambia.
+ * La gravità viene dalle regole compilate impostate con {@link #setKeywordRules}, risolta una
+ * volta per etichetta della cronologia.
+ *
+ * Da usare solo sul thread UI, che è anche l'unico a scrivere nella cronologia.
+ */
+final class RecentLogAdapter extends RecyclerView.Adapter<RecentLogAdapter.EntryViewHolder> {
+
+    static final class EntryViewHolder extends RecyclerView.ViewHolder {
+        final TextView textView;
+
+        EntryViewHolder(View itemView) {
+            super(itemView);
+            textView = itemView.findViewById(R.id.log_entry_text_view);
+        }
+    }
+
+    private static final int SEVERITY_UNRESOLVED = -1;
+
+    private final DetectionHistory history;
+    private final DetectionHistory.Cursor cursor;
+    private final RecentLogFormatter formatter = new RecentLogFormatter();
+    private KeywordRules.Compiled keywordRules; // null finché non si conosce il modello
+    // Gravità per id di etichetta della cronologia, SEVERITY_UNRESOLVED se non ancora cercata.
+    private int[] severities = new int[0];
+
+    // Cache del testo per slot (sequenza % capacità), valida se sequenza e contenuto coincidono.
+    private final String[] cachedText;
+    private final long[] cachedSequence;
+    private final float[] cachedConfidence;
+    private final long[] cachedTimestamp;
+
+    // Intervallo di sequenze mostrato dopo l'ultima sincronizzazione: [shownOldest, shownHead).
+    private long shownHead;
+    private long shownOldest;
+    private float shownHeadConfidence;
+    private long shownHeadTimestamp;
+
+    RecentLogAdapter(DetectionHistory history) {
+        this.history = history;
+        this.cursor = history.newCursor();
+        int capacity = history.getCapacity();
+        this.cachedText = new String[capacity];
+        this.cachedSequence = new long[capacity];
+        this.cachedConfidence = new float[capacity];
+        this.cachedTimestamp = new long[capacity];
+        Arrays.fill(cachedSequence, -1);
+        this.shownHead = history.getHeadSequence();
+        this.shownOldest = history.getOldestSequence();
+        rememberHead();
+        setHasStableIds(true);
+    }
+
+    /**
+     * Regole con cui evidenziare le parole sensibili. Con un'istanza diversa dalla precedente
+     * (regole ricaricate o altro modello) tutte le righe vengono riformattate.
+     */
+    void setKeywordRules(KeywordRules.Compiled rules) {
+        if (rules == keywordRules) {
+            return;
+        }
+        keywordRules = rules;
+        Arrays.fill(severities, SEVERITY_UNRESOLVED);
+        Arrays.fill(cachedSequence, -1);
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
+    private int severityOf(int historyLabelId) {
+        KeywordRules.Compiled rules = keywordRules;
+        if (rules == null) {
+            return KeywordRules.SEVERITY_NONE;
+        }
+        if (historyLabelId >= severities.length) {
+            int previousLength = severities.length;
+            severities = Arrays.copyOf(severities, Math.max(historyLabelId + 1, previousLength * 2));
+            Arrays.fill(severities, previousLength, severities.length, SEVERITY_UNRESOLVED);
+        }
+        int severity = severities[historyLabelId];
+        if (severity == SEVERITY_UNRESOLVED) {
+            // Ricerca lineare sulla tabella del modello, una sola volta per etichetta.
+            int labelId = rules.getLabelTable().findByNormalizedLabel(history.getLabel(historyLabelId));
+            severity = labelId != LabelTable.UNKNOWN_LABEL_ID ? rules.getSeverity(labelId) : KeywordRules.SEVERITY_NONE;
+            severities[historyLabelId] = severity;
+        }
+        return severity;
+    }
+
+    /**
+     * Allinea le righe alla cronologia.
+     *
+     * @return numero di righe inserite in cima
+     */
+    int syncWithHistory() {
+        long head = history.getHeadSequence();
+        long oldest = history.getOldestSequence();
+        int shownCount = (int) (shownHead - shownOldest);
+
+        // Le voci più vecchie escono dal fondo (capacità superata o cronologia svuotata).
+        int removed = (int) Math.min(shownCount, Math.max(0, oldest - shownOldest));
+        if (removed > 0) {
+            notifyItemRangeRemoved(shownCount - removed, removed);
+        }
+        // La voce di testa precedente può essere stata aggiornata da un raggruppamento.
+        long previousHead = shownHead - 1;
+        boolean headChanged = previousHead >= oldest && previousHead < head
+                && cursor.moveTo(previousHead)
+                && (cursor.getConfidence() != shownHeadConfidence || cursor.getTimestampMs() != shownHeadTimestamp);
+
+        int inserted = (int) Math.max(0, head - Math.max(shownHead, oldest));
+        shownHead = head;
+        shownOldest = oldest;
+        if (inserted > 0) {
+            notifyItemRangeInserted(0, inserted);
+        }
+        if (headChanged) {
+            notifyItemChanged((int) (head - 1 - previousHead));
+        }
+        rememberHead();
+        return inserted;
+    }
+
+    /**
+     * Rilega la voce {@code sequence}, modificata con {@link DetectionHistory#update}, se è tra
+     * quelle mostrate. Le modifiche alla voce di testa sono già rilevate da {@link #syncWithHistory()}.
+     */
+    void notifyEntryChanged(long sequence) {
+        if (sequence >= shownOldest && sequence < shownHead) {
+            notifyItemChanged((int) (shownHead - 1 - sequence));
+        }
+    }
+
+    private void rememberHead() {
+        if (shownHead > shownOldest && cursor.moveTo(shownHead - 1)) {
+            shownHeadConfidence = cursor.getConfidence();
+            shownHeadTimestamp = cursor.getTimestampMs();
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return (int) (shownHead - shownOldest);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return shownHead - 1 - position;
+    }
+
+    @NonNull
+    @Override
+    public EntryViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_recent_log, parent, false);
+        return new EntryViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull EntryViewHolder holder, int position) {
+        long sequence = shownHead - 1 - position;
+        if (!cursor.moveTo(sequence)) {
+            holder.textView.setText("");
+            return;
+        }
+        int slot = (int) (sequence % cachedText.length);
+        float confidence = cursor.getConfidence();
+        long timestampMs = cursor.getTimestampMs();
+        if (cachedSequence[slot] != sequence || cachedConfidence[slot] != confidence
+                || cachedTimestamp[slot] != timestampMs) {
+            cachedText[slot] = formatter.format(cursor.getLabel(), severityOf(cursor.getLabelId()),
+                    confidence, timestampMs);
+            cachedSequence[slot] = sequence;
+            cachedConfidence[slot] = confidence;
+            cachedTimestamp[slot] = timestampMs;
+        }
+        holder.textView.setText(cachedText[slot]);
+    }
+}
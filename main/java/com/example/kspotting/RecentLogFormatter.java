@@ -0,0 +1,43 @@
+package com.example.kspotting;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formattazione testuale delle righe del log recente mostrato in MainActivity.
+ * Un'istanza riutilizza lo stesso {@link SimpleDateFormat}: va usata da un solo thread (quello UI).
+ */
+final class RecentLogFormatter {
+
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+    private final Date date = new Date();
+
+    /**
+     * @param severity gravità dell'etichetta secondo le {@link KeywordRules} compilate, risolta dal chiamante
+     */
+    String format(String label, int severity, float confidence, long timestampMs) {
+        date.setTime(timestampMs);
+        String currentTimeFormatted = timeFormat.format(date);
+        String displayLabel = label;
+        if (label.equals("_background_noise_")) displayLabel = "Rumore di Fondo";
+        if (label.equals("silence")) displayLabel = "Silenzio";
+
+        if (severity >= KeywordRules.SEVERITY_WARNING) {
+            // Messaggio di attenzione per parole sensibili
+            return String.format(Locale.getDefault(),
+                    "%s - ATTENZIONE: RILEVATA PAROLA SENSIBILE - %s: %.2f%%",
+                    currentTimeFormatted, displayLabel.toUpperCase(Locale.ROOT), confidence * 100);
+        } else {
+            // Formattazione standard
+            return String.format(Locale.getDefault(),
+                    "%s - %s: %.2f%%",
+                    currentTimeFormatted, displayLabel, confidence * 100);
+        }
+    }
+
+    static String formatHeader(float displayThreshold) {
+        return String.format(Locale.getDefault(),
+                "Log recenti (UI > %.0f%% o background/silence):", displayThreshold * 100);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.kspotting;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import org.tensorflow.lite.support.audio.TensorAudio;
+import org.tensorflow.lite.support.label.Category;
+import org.tensorflow.lite.task.audio.classifier.AudioClassifier;
+import org.tensorflow.lite.task.audio.classifier.AudioClassifier.AudioClassifierOptions;
+import org.tensorflow.lite.task.audio.classifier.Classifications;
+import org.tensorflow.lite.task.core.BaseOptions;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * {@link InferenceEngine} basato su TFLite Task Library: la finestra viene caricata
+ * direttamente nel {@link TensorAudio} del classificatore.
+ */
+public class TfliteInferenceEngine implements InferenceEngine {
+
+    private final AudioClassifier classifier;
+    private final TensorAudio tensorAudio;
+    private final LabelTable labelTable;
+    private final int sampleRate;
+    private final int inputLength;
+    private long lastConversionNanos = 0;
+
+    private TfliteInferenceEngine(AudioClassifier classifier) {
+        this.classifier = classifier;
+        this.tensorAudio = classifier.createInputTensorAudio();
+        this.sampleRate = classifier.getRequiredTensorAudioFormat().getSampleRate();
+        this.inputLength = (int) classifier.getRequiredInputBufferSize();
+        // Il tensore appena creato contiene solo zeri: una inferenza di prova restituisce
+        // tutte le etichette dei metadati del modello con il loro indice.
+        this.labelTable = buildLabelTable(classifier.classify(tensorAudio));
+    }
+
+    public static TfliteInferenceEngine create(Context context, String modelName, int numThreads) throws IOException {
+        return new TfliteInferenceEngine(AudioClassifier.createFromFileAndOptions(context, modelName, options(numThreads)));
+    }
+
+    /**
+     * Motore su un modello già mappato con {@link #mapModel}: più motori creati dallo stesso
+     * buffer condividono i pesi invece di caricarne ciascuno una copia.
+     */
+    public static TfliteInferenceEngine create(MappedByteBuffer model, int numThreads) {
+        return new TfliteInferenceEngine(AudioClassifier.createFromBufferAndOptions(model.duplicate(), options(numThreads)));
+    }
+
+    /**
+     * Mappa in memoria, in sola lettura, un modello degli asset (che deve essere salvato non compresso).
+     */
+    public static MappedByteBuffer mapModel(Context context, String modelName) throws IOException {
+        try (AssetFileDescriptor descriptor = context.getAssets().openFd(modelName);
+             FileInputStream input = new FileInputStream(descriptor.getFileDescriptor());
+             FileChannel channel = input.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(), descriptor.getDeclaredLength());
+        }
+    }
+
+    // Nessun limite sui risultati: servono tutte le categorie per costruire la tabella
+    // delle etichette; la top-K viene poi selezionata in ClassificationResult.
+    private static AudioClassifierOptions options(int numThreads) {
+        BaseOptions.Builder baseOptionsBuilder = BaseOptions.builder()
+                .setNumThreads(numThreads);
+        return AudioClassifierOptions.builder()
+                .setBaseOptions(baseOptionsBuilder.build())
+                .build();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    @Override
+    public LabelTable getLabelTable() {
+        return labelTable;
+    }
+
+    @Override
+    public void accept(float[] samples, int offset, int length) {
+        tensorAudio.load(samples, offset, length);
+    }
+
+    @Override
+    public void classify(ClassificationResult out) {
+        out.clear();
+        List<Classifications> classifications = classifier.classify(tensorAudio);
+        long conversionStart = System.nanoTime();
+        collectTopResults(classifications, out);
+        lastConversionNanos = System.nanoTime() - conversionStart;
+    }
+
+    @Override
+    public long getLastConversionNanos() {
+        return lastConversionNanos;
+    }
+
+    @Override
+    public void close() {
+        classifier.close();
+    }
+
+    /**
+     * Copia le categorie nel risultato preallocato. Cicli indicizzati per non allocare iteratori.
+     */
+    static void collectTopResults(List<Classifications> classifications, ClassificationResult out) {
+        for (int head = 0; head < classifications.size(); head++) {
+            collectCategories(classifications.get(head).getCategories(), out);
+        }
+    }
+
+    static void collectCategories(List<Category> categories, ClassificationResult out) {
+        for (int i = 0; i < categories.size(); i++) {
+            Category category = categories.get(i);
+            out.offer(category.getIndex(), category.getScore());
+        }
+    }
+
+    // Il modello speech_commands ha una sola testa: l'indice di categoria identifica l'etichetta.
+    static LabelTable buildLabelTable(List<Classifications> classifications) {
+        LabelTable.Builder builder = new LabelTable.Builder();
+        for (Classifications head : classifications) {
+            for (Category category : head.getCategories()) {
+                builder.add(category.getIndex(), category.getLabel());
+            }
+        }
+        return builder.build();
+    }
+}
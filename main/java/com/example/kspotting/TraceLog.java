@@ -0,0 +1,202 @@
+package com.example.kspotting;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Traccia diagnostica in memoria per i percorsi eseguiti a ogni finestra, al posto delle
+ * chiamate a {@link Log} con stringhe formattate.
+ *
+ * Un record contiene solo l'evento, l'istante e argomenti primitivi (più un riferimento già
+ * esistente, ad esempio un'etichetta della {@link LabelTable}) ed è scritto in array
+ * preallocati usati come buffer circolare: registrare non alloca e non formatta. Il livello
+ * viene controllato prima di qualsiasi altra operazione. Il testo viene prodotto solo da
+ * {@link #dump(String)} o {@link #format()}, con il formato dell'{@link Event}.
+ *
+ * Più thread possono registrare contemporaneamente: ognuno riserva uno slot con un contatore
+ * atomico e lo pubblica con il numero di sequenza; la lettura scarta gli slot riscritti
+ * nel frattempo. I campi sono in array atomici, scritti con {@code lazySet} e letti come
+ * volatili: l'invalidazione dello slot precede i nuovi dati e le letture dei dati precedono il
+ * secondo controllo della sequenza, come in {@link DetectionHistory}.
+ * Resta scoperto solo il caso di due scrittori sullo stesso slot, con uno in ritardo di un giro
+ * intero del buffer: la capacità va scelta ben oltre i record scritti durante una sospensione.
+ */
+public final class TraceLog {
+
+    public static final int VERBOSE = Log.VERBOSE;
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+    public static final int WARN = Log.WARN;
+    public static final int ERROR = Log.ERROR;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private static final TraceLog SHARED = new TraceLog(DEFAULT_CAPACITY);
+
+    /**
+     * Tipo di record. Il formato riceve, nell'ordine, {@code ref}, {@code a}, {@code b} e
+     * {@code value}: si usano gli indici espliciti (ad esempio {@code "%1$s: %4$.2f%%"}).
+     */
+    public static final class Event {
+        final int level;
+        final String tag;
+        final String format;
+
+        private Event(int level, String tag, String format) {
+            this.level = level;
+            this.tag = tag;
+            this.format = format;
+        }
+    }
+
+    public static Event event(int level, String tag, String format) {
+        return new Event(level, tag, format);
+    }
+
+    /**
+     * Traccia condivisa dai componenti del processo (service, helper e activity).
+     */
+    public static TraceLog shared() {
+        return SHARED;
+    }
+
+    private final int capacity;
+    private final AtomicReferenceArray<Event> events;
+    private final AtomicLongArray timestampsNanos;
+    private final AtomicReferenceArray<Object> refs;
+    private final AtomicLongArray argsA;
+    private final AtomicLongArray argsB;
+    private final AtomicIntegerArray valueBits; // Float.floatToRawIntBits del valore
+    // Sequenza pubblicata per slot; -1 mentre lo slot viene scritto.
+    private final AtomicLongArray publishedSequences;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    private volatile int minLevel = DEBUG;
+
+    public TraceLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacità della traccia non valida: " + capacity);
+        }
+        this.capacity = capacity;
+        this.events = new AtomicReferenceArray<>(capacity);
+        this.timestampsNanos = new AtomicLongArray(capacity);
+        this.refs = new AtomicReferenceArray<>(capacity);
+        this.argsA = new AtomicLongArray(capacity);
+        this.argsB = new AtomicLongArray(capacity);
+        this.valueBits = new AtomicIntegerArray(capacity);
+        this.publishedSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            publishedSequences.set(i, -1);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Livello minimo registrato; gli eventi sotto soglia costano un solo confronto.
+     */
+    public void setMinLevel(int level) {
+        minLevel = level;
+    }
+
+    public boolean isEnabled(int level) {
+        return level >= minLevel;
+    }
+
+    public void trace(Event event, Object ref, long a, long b, float value) {
+        if (event.level < minLevel) {
+            return;
+        }
+        long sequence = nextSequence.getAndIncrement();
+        int slot = (int) (sequence % capacity);
+        publishedSequences.set(slot, -1);
+        events.lazySet(slot, event);
+        timestampsNanos.lazySet(slot, System.nanoTime());
+        refs.lazySet(slot, ref);
+        argsA.lazySet(slot, a);
+        argsB.lazySet(slot, b);
+        valueBits.lazySet(slot, Float.floatToRawIntBits(value));
+        publishedSequences.lazySet(slot, sequence);
+    }
+
+    public void trace(Event event, Object ref, float value) {
+        trace(event, ref, 0, 0, value);
+    }
+
+    public void trace(Event event, long a, long b) {
+        trace(event, null, a, b, 0f);
+    }
+
+    public void trace(Event event, long a) {
+        trace(event, null, a, 0, 0f);
+    }
+
+    /**
+     * Numero totale di record scritti, compresi quelli già sovrascritti.
+     */
+    public long getRecordedCount() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Formatta i record ancora presenti, dal più vecchio al più recente.
+     */
+    public List<String> format() {
+        long end = nextSequence.get();
+        long start = Math.max(0, end - capacity);
+        List<String> lines = new ArrayList<>((int) (end - start));
+        long nowNanos = System.nanoTime();
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence % capacity);
+            if (publishedSequences.get(slot) != sequence) {
+                continue;
+            }
+            Event event = events.get(slot);
+            long timestampNanos = timestampsNanos.get(slot);
+            Object ref = refs.get(slot);
+            long a = argsA.get(slot);
+            long b = argsB.get(slot);
+            float value = Float.intBitsToFloat(valueBits.get(slot));
+            if (publishedSequences.get(slot) != sequence) {
+                continue;
+            }
+            lines.add(String.format(Locale.ROOT, "%+9.3f ms %s/%s: ",
+                    (timestampNanos - nowNanos) / 1e6, levelName(event.level), event.tag)
+                    + String.format(Locale.getDefault(), event.format, ref, a, b, value));
+        }
+        return lines;
+    }
+
+    /**
+     * Scrive su logcat i record presenti; ogni riga riporta il livello e il tag del proprio evento.
+     * Da chiamare su richiesta o in caso di errore, mai a ogni finestra.
+     */
+    public void dump(String reason) {
+        List<String> lines = format();
+        Log.i("TraceLog", "Traccia (" + reason + "): " + lines.size() + " record su "
+                + getRecordedCount() + " registrati");
+        for (int i = 0; i < lines.size(); i++) {
+            Log.i("TraceLog", lines.get(i));
+        }
+    }
+
+    private static String levelName(int level) {
+        switch (level) {
+            case VERBOSE: return "V";
+            case DEBUG: return "D";
+            case INFO: return "I";
+            case WARN: return "W";
+            case ERROR: return "E";
+            default: return String.valueOf(level);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.kspotting;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Passaggio dei risultati dal thread di inferenza alla UI, accorpato per frame.
+ * Il produttore sovrascrive un unico stato "ultimo risultato" e la UI lo consuma al più una
+ * volta per vsync tramite {@link Choreographer}: gli stati intermedi vengono scartati (e contati),
+ * mentre le decisioni vengono accodate e consegnate tutte, nell'ordine in cui sono arrivate.
+ */
+final class UiUpdateChannel implements Choreographer.FrameCallback {
+
+    interface FrameConsumer {
+        /**
+         * Chiamato sul thread UI al più una volta per frame. {@code state} ed {@code events}
+         * sono validi solo durante la chiamata.
+         */
+        void onUiFrame(UiState state, List<ClassificationLogEntry> events);
+    }
+
+    /**
+     * Copia dei campi di {@link ClassificationResult} usati dalla UI.
+     */
+    static final class UiState {
+        String[] labels = new String[0];
+        float[] scores = new float[0];
+        int count;
+        long inferenceTimeMs;
+        long captureTimeNanos;
+
+        void copyFrom(ClassificationResult result) {
+            ensureCapacity(result.size());
+            count = result.size();
+            for (int i = 0; i < count; i++) {
+                labels[i] = result.getLabel(i);
+                scores[i] = result.getScore(i);
+            }
+            inferenceTimeMs = result.getInferenceTimeMs();
+            captureTimeNanos = result.getCaptureTimeNanos();
+        }
+
+        void copyFrom(UiState other) {
+            ensureCapacity(other.count);
+            count = other.count;
+            System.arraycopy(other.labels, 0, labels, 0, count);
+            System.arraycopy(other.scores, 0, scores, 0, count);
+            inferenceTimeMs = other.inferenceTimeMs;
+            captureTimeNanos = other.captureTimeNanos;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (labels.length < capacity) {
+                labels = Arrays.copyOf(labels, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+        }
+    }
+
+    private final Choreographer choreographer;
+    private final FrameConsumer consumer;
+
+    private final Object lock = new Object();
+    private final UiState pendingState = new UiState();
+    private final ArrayList<ClassificationLogEntry> pendingEvents = new ArrayList<>();
+    private boolean hasPendingState = false;
+    private boolean frameScheduled = false;
+
+    // Usati solo sul thread UI.
+    private final UiState frameState = new UiState();
+    private final ArrayList<ClassificationLogEntry> frameEvents = new ArrayList<>();
+
+    private volatile long publishedUpdates = 0;
+    private volatile long conflatedUpdates = 0;
+    private volatile long renderedFrames = 0;
+
+    /**
+     * @param choreographer quello del thread UI ({@code Choreographer.getInstance()} chiamato dal thread UI)
+     */
+    UiUpdateChannel(Choreographer choreographer, FrameConsumer consumer) {
+        this.choreographer = choreographer;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Pubblica un risultato; chiamabile da qualsiasi thread.
+     *
+     * @param decidedLabel etichetta decisa in questa finestra, o null
+     */
+    void publish(ClassificationResult result, String decidedLabel, float decidedScore) {
+        boolean scheduleFrame;
+        synchronized (lock) {
+            if (hasPendingState) {
+                conflatedUpdates++;
+            }
+            pendingState.copyFrom(result);
+            hasPendingState = true;
+            if (decidedLabel != null) {
+                pendingEvents.add(new ClassificationLogEntry(decidedLabel, decidedScore, result.getTimestampMs()));
+            }
+            publishedUpdates++;
+            scheduleFrame = !frameScheduled;
+            frameScheduled = true;
+        }
+        if (scheduleFrame) {
+            // postFrameCallback è sicuro da altri thread: la callback gira sul thread del Choreographer.
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        synchronized (lock) {
+            frameScheduled = false;
+            if (!hasPendingState) {
+                return;
+            }
+            frameState.copyFrom(pendingState);
+            hasPendingState = false;
+            frameEvents.clear();
+            frameEvents.addAll(pendingEvents);
+            pendingEvents.clear();
+        }
+        renderedFrames++;
+        consumer.onUiFrame(frameState, frameEvents);
+    }
+
+    /**
+     * Scarta lo stato e gli eventi in attesa e annulla il frame programmato.
+     */
+    void clear() {
+        synchronized (lock) {
+            choreographer.removeFrameCallback(this);
+            hasPendingState = false;
+            pendingEvents.clear();
+            frameScheduled = false;
+        }
+    }
+
+    long getPublishedUpdates() {
+        return publishedUpdates;
+    }
+
+    /**
+     * Risultati sovrascritti prima di essere mostrati.
+     */
+    long getConflatedUpdates() {
+        return conflatedUpdates;
+    }
+
+    long getRenderedFrames() {
+        return renderedFrames;
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.kspotting;
+
+/**
+ * Rilevatore di attività vocale a basso costo, eseguito sul thread di acquisizione.
+ * Per ogni frame calcola energia RMS e tasso di attraversamenti dello zero (ZCR);
+ * l'attivazione richiede che l'energia superi il rumore di fondo stimato di un margine
+ * (isteresi tra soglia di attivazione e di rilascio) e il rilascio avviene solo dopo
+ * un numero di frame di coda (hangover). Sia l'attivazione sia il suo mantenimento richiedono
+ * uno ZCR compatibile con la voce. Nessuna allocazione per frame.
+ *
+ * I campioni di un frame possono arrivare in più segmenti tramite {@link #accept};
+ * la decisione viene presa in {@link #finishFrame(long)}.
+ */
+public class VoiceActivityDetector implements PcmRingBuffer.WindowSink {
+
+    private static final float MIN_ENERGY = 1e-10f;
+    // Durante l'attività il rumore di fondo si adatta comunque, ma molto più lentamente: una parola
+    // lo sposta appena, un rumore stazionario comparso durante l'attività lo raggiunge in pochi secondi.
+    private static final float ACTIVE_NOISE_ADAPT_SCALE = 0.1f;
+
+    private final float onsetMarginDb;
+    private final float releaseMarginDb;
+    private final float absoluteFloorDb;
+    private final float maxZeroCrossingRate;
+    private final int hangoverFrames;
+    private final float noiseAdaptRate;
+
+    // Accumulatori del frame corrente
+    private double sumSquares = 0;
+    private int zeroCrossings = 0;
+    private int frameSamples = 0;
+    private float previousSample = 0f;
+
+    private float noiseFloorDb;
+    private volatile boolean active = false;
+    private int hangoverRemaining = 0;
+
+    // Posizione assoluta (in campioni) di fine dell'ultimo frame considerato attivo.
+    private volatile long lastActivePosition = Long.MIN_VALUE;
+    private volatile long activeFrames = 0;
+    private volatile long inactiveFrames = 0;
+
+    public VoiceActivityDetector() {
+        this(9f, 5f, -60f, 0.45f, 15, 0.05f);
+    }
+
+    /**
+     * @param onsetMarginDb       margine sopra il rumore di fondo per attivare
+     * @param releaseMarginDb     margine sotto cui il frame è considerato inattivo (minore di onset)
+     * @param absoluteFloorDb     energia minima assoluta (dBFS) per considerare un frame come voce
+     * @param maxZeroCrossingRate ZCR oltre cui un frame è trattato come rumore a banda larga
+     * @param hangoverFrames      frame inattivi tollerati prima del rilascio
+     * @param noiseAdaptRate      velocità di adattamento del rumore di fondo nei frame inattivi (0..1)
+     */
+    public VoiceActivityDetector(float onsetMarginDb, float releaseMarginDb, float absoluteFloorDb,
+                                 float maxZeroCrossingRate, int hangoverFrames, float noiseAdaptRate) {
+        if (releaseMarginDb > onsetMarginDb) {
+            throw new IllegalArgumentException("Il margine di rilascio deve essere minore di quello di attivazione.");
+        }
+        this.onsetMarginDb = onsetMarginDb;
+        this.releaseMarginDb = releaseMarginDb;
+        this.absoluteFloorDb = absoluteFloorDb;
+        this.maxZeroCrossingRate = maxZeroCrossingRate;
+        this.hangoverFrames = hangoverFrames;
+        this.noiseAdaptRate = noiseAdaptRate;
+        this.noiseFloorDb = absoluteFloorDb;
+    }
+
+    @Override
+    public void accept(float[] samples, int offset, int length) {
+        double squares = 0;
+        int crossings = 0;
+        float previous = previousSample;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            float sample = samples[i];
+            squares += sample * sample;
+            if ((sample >= 0f) != (previous >= 0f)) {
+                crossings++;
+            }
+            previous = sample;
+        }
+        sumSquares += squares;
+        zeroCrossings += crossings;
+        frameSamples += length;
+        previousSample = previous;
+    }
+
+    /**
+     * Chiude il frame accumulato e aggiorna lo stato.
+     *
+     * @param endPosition posizione assoluta del campione successivo all'ultimo del frame
+     * @return true se il frame è considerato attività vocale (inclusa la coda di hangover)
+     */
+    public boolean finishFrame(long endPosition) {
+        if (frameSamples == 0) {
+            return active;
+        }
+        float meanSquare = (float) (sumSquares / frameSamples);
+        float energyDb = 10f * (float) Math.log10(Math.max(meanSquare, MIN_ENERGY));
+        float zeroCrossingRate = (float) zeroCrossings / frameSamples;
+        sumSquares = 0;
+        zeroCrossings = 0;
+        frameSamples = 0;
+
+        boolean aboveFloor = energyDb >= absoluteFloorDb;
+        boolean speechLike = zeroCrossingRate <= maxZeroCrossingRate;
+        float marginDb = energyDb - noiseFloorDb;
+
+        if (!active) {
+            if (aboveFloor && speechLike && marginDb >= onsetMarginDb) {
+                active = true;
+                hangoverRemaining = hangoverFrames;
+            }
+        } else if (aboveFloor && speechLike && marginDb >= releaseMarginDb) {
+            hangoverRemaining = hangoverFrames;
+        } else if (--hangoverRemaining <= 0) {
+            active = false;
+        }
+
+        // Il rumore di fondo si adatta più velocemente verso il basso e, durante l'attività, molto
+        // più lentamente: un rumore stazionario che supera il margine non tiene il VAD attivo per sempre.
+        float rate = energyDb < noiseFloorDb ? Math.min(1f, noiseAdaptRate * 4f) : noiseAdaptRate;
+        if (active) {
+            rate *= ACTIVE_NOISE_ADAPT_SCALE;
+            lastActivePosition = endPosition;
+            activeFrames++;
+        } else {
+            inactiveFrames++;
+        }
+        noiseFloorDb += (energyDb - noiseFloorDb) * rate;
+        return active;
+    }
+
+    /**
+     * Indica se è stata rilevata attività vocale dopo la posizione assoluta indicata,
+     * tipicamente l'inizio della finestra che si sta per classificare.
+     */
+    public boolean hasActivitySince(long startPosition) {
+        return lastActivePosition > startPosition;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public float getNoiseFloorDb() {
+        return noiseFloorDb;
+    }
+
+    public long getActiveFrames() {
+        return activeFrames;
+    }
+
+    public long getInactiveFrames() {
+        return inactiveFrames;
+    }
+
+    public void reset() {
+        sumSquares = 0;
+        zeroCrossings = 0;
+        frameSamples = 0;
+        previousSample = 0f;
+        noiseFloorDb = absoluteFloorDb;
+        active = false;
+        hangoverRemaining = 0;
+        lastActivePosition = Long.MIN_VALUE;
+    }
+}
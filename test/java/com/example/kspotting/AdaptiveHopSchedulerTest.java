@@ -0,0 +1,131 @@
+package com.example.kspotting;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveHopSchedulerTest {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int MIN_HOP = 160;  // 10 ms
+    private static final int MAX_HOP = 1600; // 100 ms
+    private static final float NEAR_THRESHOLD = 0.5f;
+    private static final int SPEECH = 0;
+    private static final int BACKGROUND = 1;
+    private static final long CHEAP_NANOS = 1_000_000; // Sotto il passo minimo
+
+    private static AdaptiveHopScheduler newScheduler() {
+        AdaptiveHopScheduler scheduler = new AdaptiveHopScheduler(SAMPLE_RATE, MIN_HOP, MAX_HOP, NEAR_THRESHOLD, 2);
+        scheduler.setBackgroundLabel(BACKGROUND);
+        return scheduler;
+    }
+
+    @Test
+    public void calmWindowsGrowTheHopUpToTheMaximum() {
+        AdaptiveHopScheduler scheduler = newScheduler();
+        assertEquals(MIN_HOP, scheduler.getHopSamples());
+        for (int i = 0; i < 4; i++) {
+            scheduler.onSilence();
+            assertEquals(MIN_HOP, scheduler.getHopSamples());
+        }
+        int[] expected = {240, 360, 540, 810, 1215, MAX_HOP, MAX_HOP};
+        for (int hop : expected) {
+            scheduler.onSilence();
+            assertEquals(hop, scheduler.getHopSamples());
+        }
+        assertEquals(100, scheduler.getHopMs());
+    }
+
+    @Test
+    public void backgroundScoresCountAsCalm() {
+        AdaptiveHopScheduler scheduler = newScheduler();
+        for (int i = 0; i < 5; i++) {
+            scheduler.onInference(CHEAP_NANOS, BACKGROUND, 0.99f);
+        }
+        assertEquals(240, scheduler.getHopSamples());
+        // Parlato sotto la soglia di vicinanza: ancora tranquillo.
+        scheduler.onInference(CHEAP_NANOS, SPEECH, NEAR_THRESHOLD - 0.01f);
+        assertEquals(360, scheduler.getHopSamples());
+    }
+
+    @Test
+    public void onsetReturnsToMinimumAndHoldsIt() {
+        AdaptiveHopScheduler scheduler = newScheduler();
+        for (int i = 0; i < 20; i++) {
+            scheduler.onSilence();
+        }
+        assertEquals(MAX_HOP, scheduler.getHopSamples());
+
+        scheduler.onInference(CHEAP_NANOS, SPEECH, NEAR_THRESHOLD);
+        assertEquals(MIN_HOP, scheduler.getHopSamples());
+        // Dieci finestre di mantenimento, poi cinque tranquille prima di crescere.
+        for (int i = 0; i < 14; i++) {
+            scheduler.onSilence();
+            assertEquals("finestra " + i, MIN_HOP, scheduler.getHopSamples());
+        }
+        scheduler.onSilence();
+        assertEquals(240, scheduler.getHopSamples());
+
+        // Un nuovo inizio di parlato azzera anche il conteggio delle finestre tranquille.
+        scheduler.onSpeechOnset();
+        assertEquals(MIN_HOP, scheduler.getHopSamples());
+    }
+
+    @Test
+    public void hopNeverDropsBelowMeasuredCost() {
+        AdaptiveHopScheduler scheduler = newScheduler();
+        // 20 ms per finestra: con il margine del 25% servono almeno 25 ms (400 campioni).
+        long cost = 20_000_000;
+        scheduler.onInference(cost, SPEECH, 0.9f);
+        assertEquals(cost, scheduler.getAverageCostNanos());
+        assertEquals(400, scheduler.getHopSamples());
+        assertEquals(1, scheduler.getOverruns());
+
+        scheduler.onSpeechOnset();
+        assertEquals(400, scheduler.getHopSamples());
+        // Il passo ora copre il costo: nessuno sforamento.
+        scheduler.onInference(cost, SPEECH, 0.9f);
+        assertEquals(1, scheduler.getOverruns());
+    }
+
+    @Test
+    public void costAboveMaximumIsCappedAndCountedAsOverrun() {
+        AdaptiveHopScheduler scheduler = newScheduler();
+        long cost = 200_000_000; // Il doppio del passo massimo
+        for (int i = 0; i < 3; i++) {
+            scheduler.onInference(cost, SPEECH, 0.9f);
+            assertEquals(MAX_HOP, scheduler.getHopSamples());
+        }
+        assertEquals(3, scheduler.getOverruns());
+    }
+
+    @Test
+    public void averageCostIsSmoothed() {
+        AdaptiveHopScheduler scheduler = newScheduler();
+        scheduler.onInference(10_000_000, BACKGROUND, 0f);
+        scheduler.onInference(20_000_000, BACKGROUND, 0f);
+        // Media esponenziale con peso 0.2 sulla nuova misura.
+        assertEquals(12_000_000, scheduler.getAverageCostNanos());
+    }
+
+    @Test
+    public void resetRestoresInitialState() {
+        AdaptiveHopScheduler scheduler = newScheduler();
+        for (int i = 0; i < 10; i++) {
+            scheduler.onInference(200_000_000, BACKGROUND, 0f);
+        }
+        scheduler.reset();
+        assertEquals(MIN_HOP, scheduler.getHopSamples());
+        assertEquals(0, scheduler.getAverageCostNanos());
+        assertEquals(0, scheduler.getOverruns());
+        for (int i = 0; i < 4; i++) {
+            scheduler.onSilence();
+        }
+        assertEquals(MIN_HOP, scheduler.getHopSamples());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRangeIsRejected() {
+        new AdaptiveHopScheduler(SAMPLE_RATE, MAX_HOP, MIN_HOP, NEAR_THRESHOLD, 2);
+    }
+}
@@ -0,0 +1,241 @@
+package com.example.kspotting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AlertDispatcherTest {
+
+    private static final long COOLDOWN_MS = 500;
+    private static final int BURST = 2;
+    private static final long REFILL_MS = 1000;
+    private static final long EPISODE_GAP_MS = 60_000;
+
+    /**
+     * Orologio manuale: gli invii pianificati partono solo quando il test fa avanzare il tempo.
+     */
+    private static final class ManualTimer implements AlertDispatcher.Timer {
+        private static final class Task {
+            final long dueMs;
+            final Runnable runnable;
+
+            Task(long dueMs, Runnable runnable) {
+                this.dueMs = dueMs;
+                this.runnable = runnable;
+            }
+        }
+
+        private final List<Task> tasks = new ArrayList<>();
+        private long nowMs = 0;
+        private boolean shutdown = false;
+
+        @Override
+        public long nowMs() {
+            return nowMs;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            if (shutdown) {
+                throw new RejectedExecutionException();
+            }
+            tasks.add(new Task(nowMs + delayMs, task));
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+            tasks.clear();
+        }
+
+        // Esegue in ordine gli invii scaduti fino a targetMs, spostando l'orologio su ciascuno.
+        void advanceTo(long targetMs) {
+            while (true) {
+                Task next = null;
+                for (Task task : tasks) {
+                    if (task.dueMs <= targetMs && (next == null || task.dueMs < next.dueMs)) {
+                        next = task;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                tasks.remove(next);
+                nowMs = Math.max(nowMs, next.dueMs);
+                next.runnable.run();
+            }
+            nowMs = Math.max(nowMs, targetMs);
+        }
+
+        void advanceBy(long deltaMs) {
+            advanceTo(nowMs + deltaMs);
+        }
+    }
+
+    private final ManualTimer timer = new ManualTimer();
+    private final List<AlertDispatcher.Alert> alerts = new ArrayList<>();
+
+    private AlertDispatcher newDispatcher(long cooldownMs) {
+        return new AlertDispatcher(alerts::add, cooldownMs, BURST, REFILL_MS, EPISODE_GAP_MS, timer);
+    }
+
+    private void submitAndRun(AlertDispatcher dispatcher, String keyword, float confidence) {
+        dispatcher.submit(keyword, KeywordRules.SEVERITY_ALERT, confidence);
+        timer.advanceBy(0);
+    }
+
+    @Test
+    public void burstIsSentImmediatelyThenWaitsForRefill() {
+        AlertDispatcher dispatcher = newDispatcher(0);
+        submitAndRun(dispatcher, "stop", 0.9f);
+        submitAndRun(dispatcher, "stop", 0.9f);
+        assertEquals(BURST, alerts.size());
+
+        // Gettoni esauriti: il terzo invio attende un gettone intero.
+        submitAndRun(dispatcher, "stop", 0.95f);
+        assertEquals(BURST, alerts.size());
+        timer.advanceBy(REFILL_MS - 1);
+        assertEquals(BURST, alerts.size());
+        timer.advanceBy(1);
+        assertEquals(BURST + 1, alerts.size());
+
+        AlertDispatcher.Alert last = alerts.get(BURST);
+        assertEquals(3, last.count);
+        assertEquals(0.95f, last.peakConfidence, 0f);
+        assertTrue(last.update);
+        assertEquals(3, dispatcher.getSubmitted());
+        assertEquals(3, dispatcher.getEmitted());
+        assertEquals(0, dispatcher.getSuppressed());
+    }
+
+    @Test
+    public void detectionsWhileWaitingAreMergedIntoOneAlert() {
+        AlertDispatcher dispatcher = newDispatcher(0);
+        submitAndRun(dispatcher, "stop", 0.8f);
+        submitAndRun(dispatcher, "stop", 0.8f);
+        for (int i = 0; i < 5; i++) {
+            timer.advanceBy(100);
+            submitAndRun(dispatcher, "stop", 0.8f + i / 100f);
+        }
+        assertEquals(BURST, alerts.size());
+        assertEquals(4, dispatcher.getSuppressed());
+
+        timer.advanceBy(REFILL_MS);
+        assertEquals(BURST + 1, alerts.size());
+        AlertDispatcher.Alert merged = alerts.get(BURST);
+        assertEquals(7, merged.count);
+        assertEquals(0.84f, merged.peakConfidence, 1e-6f);
+    }
+
+    @Test
+    public void tokensRefillUpToBurst() {
+        AlertDispatcher dispatcher = newDispatcher(0);
+        submitAndRun(dispatcher, "stop", 0.9f);
+        submitAndRun(dispatcher, "stop", 0.9f);
+
+        // Molto più del tempo di ricarica: i gettoni tornano al massimo, non oltre.
+        timer.advanceBy(REFILL_MS * 10);
+        for (int i = 0; i < BURST; i++) {
+            submitAndRun(dispatcher, "stop", 0.9f);
+        }
+        assertEquals(BURST * 2, alerts.size());
+        submitAndRun(dispatcher, "stop", 0.9f);
+        assertEquals(BURST * 2, alerts.size());
+
+        // Senza gettoni l'invio attende un tempo di ricarica intero, non la metà.
+        timer.advanceBy(REFILL_MS / 2);
+        assertEquals(BURST * 2, alerts.size());
+        timer.advanceBy(REFILL_MS / 2);
+        assertEquals(BURST * 2 + 1, alerts.size());
+    }
+
+    @Test
+    public void cooldownSpacesAlertsOfTheSameKeyword() {
+        AlertDispatcher dispatcher = newDispatcher(COOLDOWN_MS);
+        submitAndRun(dispatcher, "stop", 0.9f);
+        timer.advanceBy(100);
+        submitAndRun(dispatcher, "stop", 0.9f);
+        assertEquals(1, alerts.size());
+
+        timer.advanceBy(COOLDOWN_MS - 101);
+        assertEquals(1, alerts.size());
+        timer.advanceBy(1);
+        assertEquals(2, alerts.size());
+        assertEquals(COOLDOWN_MS, timer.nowMs());
+    }
+
+    @Test
+    public void limitsArePerKeyword() {
+        AlertDispatcher dispatcher = newDispatcher(COOLDOWN_MS);
+        for (int i = 0; i < BURST + 1; i++) {
+            submitAndRun(dispatcher, "stop", 0.9f);
+        }
+        assertEquals(1, alerts.size());
+
+        // "stop" è in attesa, "off" ha gettoni e periodo di attesa propri.
+        submitAndRun(dispatcher, "off", 0.85f);
+        assertEquals(2, alerts.size());
+        AlertDispatcher.Alert off = alerts.get(1);
+        assertEquals("off", off.keyword);
+        assertEquals(1, off.count);
+        assertFalse(off.update);
+        assertNotEquals(alerts.get(0).slot, off.slot);
+
+        timer.advanceBy(COOLDOWN_MS);
+        assertEquals(3, alerts.size());
+        assertEquals("stop", alerts.get(2).keyword);
+        assertEquals(alerts.get(0).slot, alerts.get(2).slot);
+    }
+
+    @Test
+    public void exhaustedBucketDoesNotDelayOtherKeywords() {
+        AlertDispatcher dispatcher = newDispatcher(0);
+        for (int i = 0; i < BURST + 1; i++) {
+            submitAndRun(dispatcher, "stop", 0.9f);
+        }
+        assertEquals(BURST, alerts.size());
+        for (int i = 0; i < BURST; i++) {
+            submitAndRun(dispatcher, "off", 0.9f);
+        }
+        assertEquals(BURST * 2, alerts.size());
+
+        timer.advanceBy(REFILL_MS);
+        assertEquals(BURST * 2 + 1, alerts.size());
+        assertEquals("stop", alerts.get(BURST * 2).keyword);
+    }
+
+    @Test
+    public void newEpisodeAfterGapResetsCountAndUpdate() {
+        AlertDispatcher dispatcher = newDispatcher(0);
+        submitAndRun(dispatcher, "stop", 0.9f);
+        submitAndRun(dispatcher, "stop", 0.95f);
+        assertTrue(alerts.get(1).update);
+        assertEquals(2, alerts.get(1).count);
+
+        timer.advanceBy(EPISODE_GAP_MS + 1);
+        dispatcher.submit("stop", KeywordRules.SEVERITY_WARNING, 0.7f);
+        timer.advanceBy(0);
+        AlertDispatcher.Alert fresh = alerts.get(2);
+        assertFalse(fresh.update);
+        assertEquals(1, fresh.count);
+        assertEquals(0.7f, fresh.peakConfidence, 0f);
+        assertEquals(KeywordRules.SEVERITY_WARNING, fresh.severity);
+    }
+
+    @Test
+    public void submitAfterCloseIsCountedAsSuppressed() {
+        AlertDispatcher dispatcher = newDispatcher(0);
+        dispatcher.close();
+        dispatcher.submit("stop", KeywordRules.SEVERITY_ALERT, 0.9f);
+        timer.advanceBy(REFILL_MS);
+        assertTrue(alerts.isEmpty());
+        assertEquals(1, dispatcher.getSuppressed());
+    }
+}
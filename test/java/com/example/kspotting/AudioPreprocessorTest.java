@@ -0,0 +1,122 @@
+package com.example.kspotting;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class AudioPreprocessorTest {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME = 320; // 20 ms
+    private static final float TOLERANCE = 1e-5f;
+
+    // Voce simulata a 440 Hz con componente continua e rimbombo a 30 Hz.
+    private static float sample(int i) {
+        return 0.05f + 0.02f * (float) Math.sin(2 * Math.PI * 30 * i / SAMPLE_RATE)
+                + 0.1f * (float) Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE);
+    }
+
+    private static AudioPreprocessor newPreprocessor(PipelineMetrics metrics) {
+        return new AudioPreprocessor(SAMPLE_RATE, AudioPreprocessor.ALL_STAGES, metrics);
+    }
+
+    @Test
+    public void splitFrameMatchesContiguousFrame() {
+        AudioPreprocessor contiguous = newPreprocessor(null);
+        AudioPreprocessor split = newPreprocessor(null);
+        float[] frame = new float[FRAME];
+        // Come in un buffer circolare: 100 campioni in fondo all'array, il resto dall'inizio.
+        float[] ring = new float[500];
+        int firstLength = 100;
+        int secondLength = FRAME - firstLength;
+        for (int f = 0; f < 20; f++) {
+            for (int i = 0; i < FRAME; i++) {
+                frame[i] = sample(f * FRAME + i);
+            }
+            System.arraycopy(frame, 0, ring, ring.length - firstLength, firstLength);
+            System.arraycopy(frame, firstLength, ring, 0, secondLength);
+
+            contiguous.process(frame, 0, FRAME);
+            split.process(ring, ring.length - firstLength, firstLength, secondLength);
+
+            for (int i = 0; i < firstLength; i++) {
+                assertEquals(frame[i], ring[ring.length - firstLength + i], TOLERANCE);
+            }
+            for (int i = 0; i < secondLength; i++) {
+                assertEquals(frame[firstLength + i], ring[i], TOLERANCE);
+            }
+            assertEquals(contiguous.getGainDb(), split.getGainDb(), 1e-3f);
+            assertEquals(contiguous.getLastLevelDb(), split.getLastLevelDb(), 1e-3f);
+        }
+    }
+
+    @Test
+    public void ringWriteAcrossEndProcessesChunkOnce() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        AudioPreprocessor preprocessor = newPreprocessor(metrics);
+        AudioPreprocessor reference = newPreprocessor(null);
+        // Margine di lettura di un blocco: il terzo blocco (640..960) attraversa la fine dell'array.
+        PcmRingBuffer ring = new PcmRingBuffer(FRAME * 5 / 2);
+        short[] pcm = new short[FRAME];
+        ShortBuffer source = ShortBuffer.wrap(pcm);
+        float[] expected = new float[FRAME];
+        float[] actual = new float[FRAME];
+
+        int chunks = 6;
+        for (int c = 0; c < chunks; c++) {
+            for (int i = 0; i < FRAME; i++) {
+                pcm[i] = (short) Math.round(sample(c * FRAME + i) * 32767);
+                expected[i] = pcm[i] * PcmRingBuffer.PCM_16BIT_SCALE;
+            }
+            ring.write(source, FRAME, preprocessor);
+            reference.process(expected, 0, FRAME);
+
+            int[] filled = {0};
+            ring.readWindow(ring.getWritePosition(), FRAME, (samples, offset, length) -> {
+                System.arraycopy(samples, offset, actual, filled[0], length);
+                filled[0] += length;
+            });
+            assertEquals(FRAME, filled[0]);
+            for (int i = 0; i < FRAME; i++) {
+                assertEquals("blocco " + c + ", campione " + i, expected[i], actual[i], TOLERANCE);
+            }
+        }
+        // Una sola elaborazione per blocco, anche per quelli divisi dalla fine dell'array.
+        assertEquals(chunks, metrics.snapshot(PipelineMetrics.STAGE_PREPROCESS_DC).count);
+        assertEquals(chunks, metrics.snapshot(PipelineMetrics.STAGE_PREPROCESS_HIGH_PASS).count);
+        assertEquals(chunks, metrics.snapshot(PipelineMetrics.STAGE_PREPROCESS_AGC).count);
+    }
+
+    @Test
+    public void emptyFrameIsIgnored() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        AudioPreprocessor preprocessor = newPreprocessor(metrics);
+        preprocessor.process(new float[4], 2, 0, 0);
+        assertEquals(0, metrics.snapshot(PipelineMetrics.STAGE_PREPROCESS_DC).count);
+        assertEquals(0f, preprocessor.getGainDb(), 0f);
+    }
+
+    @Test
+    public void gainRisesTowardsTargetAndStaysFrozenBelowGate() {
+        AudioPreprocessor preprocessor = new AudioPreprocessor(SAMPLE_RATE, AudioPreprocessor.STAGE_AGC, null);
+        float[] frame = new float[FRAME];
+        // Tono a -40 dBFS RMS: il guadagno sale verso +20 dB (obiettivo -20 dBFS).
+        float amplitude = (float) (0.01 * Math.sqrt(2));
+        for (int f = 0; f < 500; f++) {
+            for (int i = 0; i < FRAME; i++) {
+                frame[i] = amplitude * (float) Math.sin(2 * Math.PI * 440 * (f * FRAME + i) / SAMPLE_RATE);
+            }
+            preprocessor.process(frame, 0, FRAME);
+        }
+        assertEquals(20f, preprocessor.getGainDb(), 0.5f);
+
+        // Silenzio sotto il gate: il guadagno non cambia.
+        float gain = preprocessor.getGainDb();
+        Arrays.fill(frame, 0f);
+        preprocessor.process(frame, 0, FRAME);
+        assertEquals(gain, preprocessor.getGainDb(), 0f);
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.kspotting;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DetectionHistoryTest {
+
+    @Test
+    public void cursorVisitsNewestFirst() {
+        DetectionHistory history = new DetectionHistory(8, 0);
+        history.record("yes", 0.5f, 100);
+        history.record("no", 0.6f, 200);
+        history.record("stop", 0.7f, 300);
+
+        DetectionHistory.Cursor cursor = history.newCursor();
+        assertTrue(cursor.next());
+        assertEquals("stop", cursor.getLabel());
+        assertEquals(2, cursor.getSequence());
+        assertTrue(cursor.next());
+        assertEquals("no", cursor.getLabel());
+        assertTrue(cursor.next());
+        assertEquals("yes", cursor.getLabel());
+        assertEquals(0.5f, cursor.getConfidence(), 0f);
+        assertEquals(100, cursor.getTimestampMs());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void sameLabelWithinGroupingTimeIsMerged() {
+        DetectionHistory history = new DetectionHistory(8, 1000);
+        assertTrue(history.record("stop", 0.6f, 100));
+        assertFalse(history.record("stop", 0.9f, 600));
+        // Confidenza più bassa: raggruppata senza modificare la voce.
+        assertFalse(history.record("stop", 0.7f, 800));
+        assertEquals(1, history.size());
+
+        DetectionHistory.Cursor cursor = history.newCursor();
+        assertTrue(cursor.next());
+        assertEquals(0.9f, cursor.getConfidence(), 0f);
+        assertEquals(600, cursor.getTimestampMs());
+
+        // Oltre la finestra di raggruppamento, o con un'altra etichetta, nasce una nuova voce.
+        assertTrue(history.record("stop", 0.8f, 1700));
+        assertTrue(history.record("go", 0.8f, 1800));
+        assertTrue(history.record("stop", 0.8f, 1900));
+        assertEquals(4, history.size());
+    }
+
+    @Test
+    public void wrapKeepsNewestEntries() {
+        DetectionHistory history = new DetectionHistory(4, 0);
+        for (int i = 0; i < 10; i++) {
+            history.record("w" + i, i / 10f, i);
+        }
+        assertEquals(4, history.size());
+        assertEquals(10, history.getHeadSequence());
+        assertEquals(6, history.getOldestSequence());
+
+        DetectionHistory.Cursor cursor = history.newCursor();
+        for (int i = 9; i >= 6; i--) {
+            assertTrue(cursor.next());
+            assertEquals(i, cursor.getSequence());
+            assertEquals("w" + i, cursor.getLabel());
+            assertEquals(i, cursor.getTimestampMs());
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void cursorStopsAtEntriesOverwrittenDuringScan() {
+        DetectionHistory history = new DetectionHistory(4, 0);
+        for (int i = 0; i < 4; i++) {
+            history.record("a", 0.5f, i);
+        }
+        DetectionHistory.Cursor cursor = history.newCursor();
+        assertTrue(cursor.next());
+        assertEquals(3, cursor.getSequence());
+        // Lo scrittore sovrascrive le voci 0..2 mentre il cursore è a metà.
+        for (int i = 4; i < 7; i++) {
+            history.record("b", 0.5f, i);
+        }
+        assertFalse(cursor.next());
+
+        // Riposizionato, vede solo le voci nuove e la 3.
+        cursor.resetToNewest();
+        int visited = 0;
+        while (cursor.next()) {
+            visited++;
+        }
+        assertEquals(4, visited);
+    }
+
+    @Test
+    public void moveToReadsBySequence() {
+        DetectionHistory history = new DetectionHistory(4, 0);
+        for (int i = 0; i < 6; i++) {
+            history.record("m" + i, 0.5f, i);
+        }
+        DetectionHistory.Cursor cursor = history.newCursor();
+        assertTrue(cursor.moveTo(3));
+        assertEquals("m3", cursor.getLabel());
+        assertTrue(cursor.next());
+        assertEquals("m2", cursor.getLabel());
+        assertFalse(cursor.next());
+
+        // Già sovrascritta, o non ancora scritta.
+        assertFalse(cursor.moveTo(1));
+        assertFalse(cursor.moveTo(6));
+    }
+
+    @Test
+    public void clearKeepsSequencesIncreasing() {
+        DetectionHistory history = new DetectionHistory(4, 1000);
+        history.record("x", 0.5f, 0);
+        history.record("y", 0.5f, 10);
+        history.clear();
+        assertEquals(0, history.size());
+        assertFalse(history.newCursor().next());
+
+        // Dopo clear la stessa etichetta non viene raggruppata con una voce cancellata.
+        assertTrue(history.record("y", 0.9f, 20));
+        DetectionHistory.Cursor cursor = history.newCursor();
+        assertTrue(cursor.next());
+        assertEquals(2, cursor.getSequence());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void labelsAreInterned() {
+        DetectionHistory history = new DetectionHistory(4, 0);
+        history.record("stop", 0.5f, 0);
+        history.record(new String("stop"), 0.5f, 1);
+        DetectionHistory.Cursor cursor = history.newCursor();
+        assertTrue(cursor.next());
+        int labelId = cursor.getLabelId();
+        assertTrue(cursor.next());
+        assertEquals(labelId, cursor.getLabelId());
+        assertEquals("stop", history.getLabel(labelId));
+    }
+
+    @Test
+    public void appendSkipsGroupingAndUpdateReplacesBySequence() {
+        DetectionHistory history = new DetectionHistory(4, 1000);
+        history.record("stop", 0.6f, 100);
+        long copied = history.append("stop", 0.7f, 200);
+        assertEquals(1, copied);
+        assertEquals(2, history.size());
+
+        // Una decisione locale successiva non tocca la voce copiata.
+        history.record("go", 0.9f, 250);
+        assertTrue(history.update(copied, 0.95f, 300));
+        DetectionHistory.Cursor cursor = history.newCursor();
+        assertTrue(cursor.moveTo(copied));
+        assertEquals(0.95f, cursor.getConfidence(), 0f);
+        assertEquals(300, cursor.getTimestampMs());
+        assertEquals("stop", cursor.getLabel());
+
+        // Voce uscita dalla cronologia, o non ancora scritta.
+        for (int i = 0; i < 4; i++) {
+            history.append("x", 0.5f, 400 + i);
+        }
+        assertFalse(history.update(copied, 0.1f, 0));
+        assertFalse(history.update(history.getHeadSequence(), 0.1f, 0));
+    }
+
+    // Confidenza ed etichetta sono funzioni dell'istante: una voce letta a metà di una scrittura
+    // o di un raggruppamento non le rispetta.
+    private static final String[] CONCURRENT_LABELS = {"a", "b", "c"};
+
+    private static float concurrentConfidence(long timestampMs) {
+        return (timestampMs % 1000) / 1000f;
+    }
+
+    private static String concurrentLabel(long timestampMs) {
+        return CONCURRENT_LABELS[(int) ((timestampMs / 10) % CONCURRENT_LABELS.length)];
+    }
+
+    @Test
+    public void concurrentReaderNeverSeesTornEntries() throws Exception {
+        // Capacità piccola e raggruppamento attivo: sovrascritture e modifiche sul posto continue.
+        DetectionHistory history = new DetectionHistory(16, 5);
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicReference<String> failure = new AtomicReference<>();
+        long[] visited = {0};
+
+        Thread reader = new Thread(() -> {
+            DetectionHistory.Cursor cursor = history.newCursor();
+            while (!done.get() && failure.get() == null) {
+                cursor.resetToNewest();
+                while (cursor.next()) {
+                    visited[0]++;
+                    long timestampMs = cursor.getTimestampMs();
+                    if (cursor.getConfidence() != concurrentConfidence(timestampMs)
+                            || !cursor.getLabel().equals(concurrentLabel(timestampMs))) {
+                        failure.compareAndSet(null, "voce " + cursor.getSequence() + " incoerente: "
+                                + cursor.getLabel() + " " + cursor.getConfidence() + " a " + timestampMs);
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (long timestampMs = 0; timestampMs < 2_000_000; timestampMs++) {
+            history.record(concurrentLabel(timestampMs), concurrentConfidence(timestampMs), timestampMs);
+        }
+        done.set(true);
+        reader.join();
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(visited[0] > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroCapacity() {
+        new DetectionHistory(0, 0);
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.kspotting;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DetectionLogStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void assertEntry(ClassificationLogEntry entry, String label, float confidence, long timestampMs) {
+        assertEquals(label, entry.label);
+        assertEquals(confidence, entry.confidence, 0f);
+        assertEquals(timestampMs, entry.timestamp);
+    }
+
+    @Test
+    public void roundTripAcrossSegments() throws IOException {
+        DetectionLogStore store = new DetectionLogStore(folder.getRoot(), 4, 10);
+        for (int i = 0; i < 10; i++) {
+            store.append("parola" + i, i / 10f, 1000 + i);
+        }
+        List<ClassificationLogEntry> entries = store.query(Long.MIN_VALUE, Long.MAX_VALUE, 100);
+        store.close();
+
+        assertEquals(10, entries.size());
+        for (int i = 0; i < 10; i++) {
+            assertEntry(entries.get(i), "parola" + i, i / 10f, 1000 + i);
+        }
+        // 4 + 4 + 2 record.
+        assertEquals(3, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void rangeQueryUsesBoundsAndLimit() throws IOException {
+        DetectionLogStore store = new DetectionLogStore(folder.getRoot(), 5, 10);
+        for (int i = 0; i < 20; i++) {
+            store.append("x", 0.5f, i * 10L);
+        }
+        List<ClassificationLogEntry> entries = store.query(45, 120, 100);
+        assertEquals(8, entries.size());
+        assertEquals(50, entries.get(0).timestamp);
+        assertEquals(120, entries.get(7).timestamp);
+
+        entries = store.query(45, 120, 3);
+        assertEquals(3, entries.size());
+        assertEquals(70, entries.get(2).timestamp);
+
+        assertTrue(store.query(500, 600, 100).isEmpty());
+        store.close();
+    }
+
+    @Test
+    public void retentionDropsOldestSegments() throws IOException {
+        DetectionLogStore store = new DetectionLogStore(folder.getRoot(), 2, 3);
+        for (int i = 0; i < 10; i++) {
+            store.append("x", 0.5f, i);
+            // Un blocco per record: la rotazione avviene a ogni segmento pieno.
+            store.flush();
+        }
+        List<ClassificationLogEntry> entries = store.query(Long.MIN_VALUE, Long.MAX_VALUE, 100);
+        store.close();
+
+        assertEquals(3, folder.getRoot().list().length);
+        assertEquals(6, entries.size());
+        assertEquals(4, entries.get(0).timestamp);
+        assertEquals(9, entries.get(5).timestamp);
+    }
+
+    @Test
+    public void lateRecordKeepsItsTimestamp() throws IOException {
+        DetectionLogStore store = new DetectionLogStore(folder.getRoot(), 8, 4);
+        store.append("a", 0.9f, 100);
+        store.append("b", 0.9f, 90);
+        store.append("c", 0.9f, 110);
+        store.append("d", 0.9f, 105);
+        List<ClassificationLogEntry> entries = store.query(Long.MIN_VALUE, Long.MAX_VALUE, 10);
+
+        assertEquals(1, folder.getRoot().list().length);
+        assertEquals(4, entries.size());
+        assertEntry(entries.get(0), "a", 0.9f, 100);
+        assertEntry(entries.get(1), "b", 0.9f, 90);
+        assertEntry(entries.get(2), "c", 0.9f, 110);
+        assertEntry(entries.get(3), "d", 0.9f, 105);
+
+        entries = store.query(85, 95, 10);
+        assertEquals(1, entries.size());
+        assertEquals("b", entries.get(0).label);
+        entries = store.query(101, 106, 10);
+        assertEquals(1, entries.size());
+        assertEquals("d", entries.get(0).label);
+        store.close();
+    }
+
+    @Test
+    public void clockStepBackStartsNewSegment() throws IOException {
+        DetectionLogStore store = new DetectionLogStore(folder.getRoot(), 8, 4);
+        long before = 10 * DetectionLogStore.MAX_REORDER_MS;
+        store.append("a", 0.9f, before);
+        store.append("b", 0.9f, before + 100);
+        store.flush();
+        // Orologio riportato indietro di circa nove minuti.
+        store.append("c", 0.9f, 1000);
+        store.append("d", 0.9f, 1100);
+        List<ClassificationLogEntry> entries = store.query(Long.MIN_VALUE, Long.MAX_VALUE, 10);
+
+        assertEquals(2, folder.getRoot().list().length);
+        assertEquals(4, entries.size());
+        assertEntry(entries.get(2), "c", 0.9f, 1000);
+        assertEntry(entries.get(3), "d", 0.9f, 1100);
+
+        // Intervalli su ciascun lato del salto, anche se il segmento più recente ha orari precedenti.
+        entries = store.query(0, 2000, 10);
+        assertEquals(2, entries.size());
+        assertEquals("c", entries.get(0).label);
+        assertEquals("d", entries.get(1).label);
+        entries = store.query(before + 50, before + 200, 10);
+        assertEquals(1, entries.size());
+        assertEquals("b", entries.get(0).label);
+        store.close();
+    }
+
+    @Test
+    public void reopenResumesLastSegmentAndDropsTornRecord() throws IOException {
+        DetectionLogStore store = new DetectionLogStore(folder.getRoot(), 8, 4);
+        store.append("a", 0.9f, 100);
+        store.append("b", 0.8f, 200);
+        store.close();
+
+        // Record incompleto, come dopo una chiusura forzata durante la scrittura.
+        File segment = folder.getRoot().listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() + DetectionLogStore.RECORD_SIZE / 2);
+        }
+
+        store = new DetectionLogStore(folder.getRoot(), 8, 4);
+        store.append("c", 0.7f, 150);
+        List<ClassificationLogEntry> entries = store.query(Long.MIN_VALUE, Long.MAX_VALUE, 10);
+
+        assertEquals(1, folder.getRoot().list().length);
+        assertEquals(3, entries.size());
+        assertEntry(entries.get(2), "c", 0.7f, 150);
+        // Il ritardo è calcolato sull'ultimo record sul disco: la ricerca per intervallo lo trova.
+        entries = store.query(140, 160, 10);
+        assertEquals(1, entries.size());
+        assertEntry(entries.get(0), "c", 0.7f, 150);
+        store.close();
+    }
+
+    @Test
+    public void unrecognizedSegmentNameIsIgnored() throws IOException {
+        DetectionLogStore store = new DetectionLogStore(folder.getRoot(), 2, 10);
+        for (int i = 0; i < 4; i++) {
+            store.append("x", 0.5f, i);
+        }
+        store.flush();
+        assertTrue(new File(folder.getRoot(), "detections-copia.seg").createNewFile());
+
+        // Il file estraneo non deve essere letto come segmento 0.
+        List<ClassificationLogEntry> entries = store.query(Long.MIN_VALUE, Long.MAX_VALUE, 100);
+        store.close();
+        assertEquals(4, entries.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, entries.get(i).timestamp);
+        }
+    }
+
+    @Test
+    public void longLabelIsTruncated() {
+        ByteBuffer buffer = ByteBuffer.allocate(DetectionLogStore.RECORD_SIZE);
+        String label = "abcdefghijklmnopqrstuvwxyz0123456789";
+        DetectionLogStore.encode(buffer, 5, 0, 0.25f, label);
+        assertEquals(DetectionLogStore.RECORD_SIZE, buffer.position());
+        assertEntry(DetectionLogStore.decode(buffer, 0), label.substring(0, DetectionLogStore.LABEL_BYTES), 0.25f, 5);
+    }
+
+    @Test
+    public void lowerBoundFindsFirstNotLess() {
+        ByteBuffer segment = ByteBuffer.allocate(DetectionLogStore.RECORD_SIZE * 6);
+        long[] timestamps = {10, 20, 20, 20, 30, 40};
+        for (long timestamp : timestamps) {
+            DetectionLogStore.encode(segment, timestamp, 0, 0f, "");
+        }
+        assertEquals(0, DetectionLogStore.lowerBound(segment, 6, 5));
+        assertEquals(0, DetectionLogStore.lowerBound(segment, 6, 10));
+        assertEquals(1, DetectionLogStore.lowerBound(segment, 6, 15));
+        assertEquals(1, DetectionLogStore.lowerBound(segment, 6, 20));
+        assertEquals(4, DetectionLogStore.lowerBound(segment, 6, 21));
+        assertEquals(5, DetectionLogStore.lowerBound(segment, 6, 40));
+        assertEquals(6, DetectionLogStore.lowerBound(segment, 6, 41));
+        assertEquals(0, DetectionLogStore.lowerBound(segment, 0, 41));
+    }
+
+    @Test
+    public void lowerBoundUsesTimestampPlusLag() {
+        ByteBuffer segment = ByteBuffer.allocate(DetectionLogStore.RECORD_SIZE * 4);
+        // Timestamp 100, 90, 110, 105: chiavi 100, 100, 110, 110.
+        DetectionLogStore.encode(segment, 100, 0, 0f, "");
+        DetectionLogStore.encode(segment, 90, 10, 0f, "");
+        DetectionLogStore.encode(segment, 110, 0, 0f, "");
+        DetectionLogStore.encode(segment, 105, 5, 0f, "");
+        assertEquals(110, DetectionLogStore.sortKey(segment, 3 * DetectionLogStore.RECORD_SIZE));
+        assertEquals(0, DetectionLogStore.lowerBound(segment, 4, 90));
+        assertEquals(2, DetectionLogStore.lowerBound(segment, 4, 101));
+        assertEquals(4, DetectionLogStore.lowerBound(segment, 4, 111));
+    }
+}
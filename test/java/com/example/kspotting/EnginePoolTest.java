@@ -0,0 +1,292 @@
+package com.example.kspotting;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EnginePoolTest {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int WINDOW = 1600;
+    private static final int CHUNK = 160;
+    private static final long WAIT_MS = 5000;
+
+    private final LabelTable labelTable = new LabelTable.Builder().add(0, "speech").add(1, "background").build();
+
+    /**
+     * Motore finto che può trattenere classify() finché il test non apre il cancello, e che
+     * registra le chiusure avvenute durante una classificazione.
+     */
+    private static class GatedEngine implements InferenceEngine {
+        private final FakeInferenceEngine delegate;
+        final CountDownLatch gate;
+        final CountDownLatch entered = new CountDownLatch(1);
+        final AtomicInteger closes = new AtomicInteger();
+        final AtomicBoolean closedDuringClassify = new AtomicBoolean();
+        private volatile boolean classifying = false;
+
+        GatedEngine(LabelTable labelTable, CountDownLatch gate) {
+            this.delegate = new FakeInferenceEngine(labelTable, SAMPLE_RATE, WINDOW,
+                    FakeInferenceEngine.energyScores(0, 1, 0.1f), 0);
+            this.gate = gate;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return delegate.getSampleRate();
+        }
+
+        @Override
+        public int getInputLength() {
+            return delegate.getInputLength();
+        }
+
+        @Override
+        public LabelTable getLabelTable() {
+            return delegate.getLabelTable();
+        }
+
+        @Override
+        public void accept(float[] samples, int offset, int length) {
+            delegate.accept(samples, offset, length);
+        }
+
+        @Override
+        public void classify(ClassificationResult out) {
+            classifying = true;
+            entered.countDown();
+            // Come una chiamata nativa: l'interruzione del worker non la abbrevia.
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    gate.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            delegate.classify(out);
+            classifying = false;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public long getLastConversionNanos() {
+            return delegate.getLastConversionNanos();
+        }
+
+        @Override
+        public void close() {
+            if (classifying) {
+                closedDuringClassify.set(true);
+            }
+            closes.incrementAndGet();
+        }
+    }
+
+    private static void awaitCondition(String message, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MS);
+        while (!condition.getAsBoolean()) {
+            assertTrue(message, System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static PcmRingBuffer filledRing(int capacity, int samples) {
+        PcmRingBuffer ring = new PcmRingBuffer(capacity);
+        float[] tone = new float[samples];
+        for (int i = 0; i < samples; i++) {
+            tone[i] = 0.1f * (float) Math.sin(2 * Math.PI * 300 * i / SAMPLE_RATE);
+        }
+        // A blocchi di 10 ms, come la sorgente: il margine di lettura resta piccolo.
+        for (int offset = 0; offset < samples; offset += CHUNK) {
+            ring.write(tone, offset, Math.min(CHUNK, samples - offset));
+        }
+        return ring;
+    }
+
+    @Test
+    public void windowsOfOneStreamAreDeliveredInOrder() throws IOException, InterruptedException {
+        CountDownLatch open = new CountDownLatch(0);
+        EnginePool pool = new EnginePool(() -> new GatedEngine(labelTable, open), 2);
+        try {
+            PcmRingBuffer ring = filledRing(WINDOW * 4, WINDOW * 3);
+            List<Long> delivered = new ArrayList<>();
+            EnginePool.Stream stream = pool.openStream("ordine", ring, 32, (s, result) -> {
+                synchronized (delivered) {
+                    delivered.add(result.getCaptureTimeNanos());
+                }
+            });
+
+            int windows = 20;
+            for (int i = 0; i < windows; i++) {
+                assertTrue(stream.offer(WINDOW + i * 100L, i));
+            }
+            awaitCondition("finestre non classificate", () -> stream.getCompleted() == windows);
+
+            synchronized (delivered) {
+                assertEquals(windows, delivered.size());
+                for (int i = 0; i < windows; i++) {
+                    assertEquals(i, (long) delivered.get(i));
+                }
+            }
+            assertEquals(windows, stream.getSubmitted());
+            assertEquals(0, stream.getRejected());
+            assertEquals(0, stream.getPendingCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void fullStreamQueueRejectsWithoutBlockingOtherStreams() throws IOException, InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        List<GatedEngine> engines = new ArrayList<>();
+        CountDownLatch open = new CountDownLatch(0);
+        // Il primo motore resta bloccato sulla prima finestra, il secondo serve gli altri flussi.
+        EnginePool pool = new EnginePool(() -> {
+            GatedEngine engine = new GatedEngine(labelTable, engines.isEmpty() ? gate : open);
+            engines.add(engine);
+            return engine;
+        }, 2);
+        try {
+            PcmRingBuffer busyRing = filledRing(WINDOW * 4, WINDOW * 3);
+            PcmRingBuffer freeRing = filledRing(WINDOW * 4, WINDOW * 3);
+            EnginePool.Stream busy = pool.openStream("bloccato", busyRing, 2, (s, result) -> { });
+            EnginePool.Stream free = pool.openStream("libero", freeRing, 2, (s, result) -> { });
+
+            // Le finestre possono finire al motore libero: si accodano finché una non blocca il primo.
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MS);
+            while (engines.get(0).entered.getCount() > 0) {
+                assertTrue("motore bloccato non raggiunto", System.nanoTime() < deadline);
+                if (busy.getPendingCount() == 0) {
+                    busy.offer(WINDOW, 0);
+                }
+                Thread.sleep(5);
+            }
+
+            long rejectedBefore = busy.getRejected();
+            assertTrue(busy.offer(WINDOW + 100, 1));
+            assertTrue(busy.offer(WINDOW + 200, 2));
+            assertFalse(busy.offer(WINDOW + 300, 3));
+            long start = System.nanoTime();
+            assertFalse(busy.put(WINDOW + 300, 3, 50));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+            assertEquals(rejectedBefore + 2, busy.getRejected());
+            assertEquals(2, busy.getPendingCount());
+
+            // L'altro flusso non risente dell'arretrato del primo.
+            assertTrue(free.offer(WINDOW, 0));
+            assertTrue(free.offer(WINDOW + 100, 1));
+            awaitCondition("flusso libero bloccato", () -> free.getCompleted() == 2);
+            assertEquals(2, busy.getPendingCount());
+
+            long completedBefore = busy.getCompleted();
+            gate.countDown();
+            awaitCondition("arretrato non smaltito", () -> busy.getCompleted() == completedBefore + 3);
+            assertTrue(busy.put(WINDOW + 300, 3, 50));
+        } finally {
+            gate.countDown();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void overwrittenWindowIsCountedAndSkipped() throws IOException, InterruptedException {
+        CountDownLatch open = new CountDownLatch(0);
+        EnginePool pool = new EnginePool(() -> new GatedEngine(labelTable, open), 1);
+        try {
+            PcmRingBuffer ring = filledRing(WINDOW * 2, WINDOW * 6);
+            AtomicInteger results = new AtomicInteger();
+            EnginePool.Stream stream = pool.openStream("sovrascritto", ring, 4, (s, result) -> results.incrementAndGet());
+
+            assertTrue(stream.offer(WINDOW, 0));
+            assertTrue(stream.offer(WINDOW * 6, 1));
+            awaitCondition("finestre non elaborate", () -> stream.getOverwritten() + stream.getCompleted() == 2);
+            assertEquals(1, stream.getOverwritten());
+            assertEquals(1, stream.getCompleted());
+            assertEquals(1, results.get());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void closedStreamDropsPendingAndRejects() throws IOException, InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        GatedEngine[] engine = new GatedEngine[1];
+        EnginePool pool = new EnginePool(() -> engine[0] = new GatedEngine(labelTable, gate), 1);
+        try {
+            PcmRingBuffer ring = filledRing(WINDOW * 4, WINDOW * 3);
+            EnginePool.Stream stream = pool.openStream("chiuso", ring, 4, (s, result) -> { });
+            assertTrue(stream.offer(WINDOW, 0));
+            assertTrue(engine[0].entered.await(WAIT_MS, TimeUnit.MILLISECONDS));
+            assertTrue(stream.offer(WINDOW + 100, 1));
+            assertTrue(stream.offer(WINDOW + 200, 2));
+
+            stream.close();
+            assertEquals(0, stream.getPendingCount());
+            assertFalse(stream.offer(WINDOW + 300, 3));
+            assertFalse(stream.put(WINDOW + 300, 3, 10));
+
+            // La finestra già in elaborazione viene comunque consegnata.
+            gate.countDown();
+            awaitCondition("finestra in corso non consegnata", () -> stream.getCompleted() == 1);
+            Thread.sleep(50);
+            assertEquals(1, stream.getCompleted());
+        } finally {
+            gate.countDown();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void closeClosesEveryIdleEngineOnce() throws IOException {
+        CountDownLatch open = new CountDownLatch(0);
+        List<GatedEngine> engines = new ArrayList<>();
+        EnginePool pool = new EnginePool(() -> {
+            GatedEngine engine = new GatedEngine(labelTable, open);
+            engines.add(engine);
+            return engine;
+        }, 3);
+        pool.close();
+        assertEquals(3, engines.size());
+        for (GatedEngine engine : engines) {
+            assertEquals(1, engine.closes.get());
+        }
+    }
+
+    @Test
+    public void closeNeverClosesAnEngineInsideClassify() throws IOException, InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        GatedEngine[] engine = new GatedEngine[1];
+        EnginePool pool = new EnginePool(() -> engine[0] = new GatedEngine(labelTable, gate), 1);
+        PcmRingBuffer ring = filledRing(WINDOW * 4, WINDOW * 3);
+        EnginePool.Stream stream = pool.openStream("lento", ring, 4, (s, result) -> { });
+        assertTrue(stream.offer(WINDOW, 0));
+        assertTrue(engine[0].entered.await(WAIT_MS, TimeUnit.MILLISECONDS));
+
+        // Il worker resta in classify oltre l'attesa di close(): il motore non va chiuso ora.
+        pool.close();
+        assertEquals(0, engine[0].closes.get());
+
+        gate.countDown();
+        awaitCondition("motore non chiuso all'uscita del worker", () -> engine[0].closes.get() == 1);
+        assertFalse(engine[0].closedDuringClassify.get());
+        Thread.sleep(50);
+        assertEquals(1, engine[0].closes.get());
+    }
+}
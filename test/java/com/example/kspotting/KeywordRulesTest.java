@@ -0,0 +1,56 @@
+package com.example.kspotting;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KeywordRulesTest {
+
+    private static LabelTable table(String... labels) {
+        LabelTable.Builder builder = new LabelTable.Builder();
+        for (int i = 0; i < labels.length; i++) {
+            builder.add(i, labels[i]);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void compiledRulesResolveIds() throws IOException {
+        KeywordRules rules = KeywordRules.parse(new StringReader("stop 0.9 warning\nleft\nassente 0.5 info\n"));
+        KeywordRules.Compiled compiled = rules.compile(table("go", "Stop", "left"));
+
+        assertFalse(compiled.isWatched(0));
+        assertEquals(KeywordRules.SEVERITY_NONE, compiled.getSeverity(0));
+        assertTrue(compiled.isWatched(1));
+        assertEquals(KeywordRules.SEVERITY_WARNING, compiled.getSeverity(1));
+        assertEquals(0.9f, compiled.getThreshold(1), 0f);
+        // Soglia e gravità predefinite.
+        assertEquals(KeywordRules.SEVERITY_ALERT, compiled.getSeverity(2));
+        assertEquals(KeywordRules.DEFAULT_THRESHOLD, compiled.getThreshold(2), 0f);
+    }
+
+    @Test
+    public void compileKeepsOneInstancePerTable() {
+        KeywordRules rules = KeywordRules.defaults();
+        LabelTable live = table("stop", "go");
+        LabelTable pool = table("stop", "go");
+
+        KeywordRules.Compiled forLive = rules.compile(live);
+        KeywordRules.Compiled forPool = rules.compile(pool);
+        assertNotSame(forLive, forPool);
+        // Le chiamate alternate non ricompilano: chi confronta le istanze non vede cambiamenti.
+        for (int i = 0; i < 3; i++) {
+            assertSame(forLive, rules.compile(live));
+            assertSame(forPool, rules.compile(pool));
+        }
+        // Regole nuove, istanze nuove.
+        assertNotSame(forLive, KeywordRules.defaults().compile(live));
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.kspotting;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtQuantile(0.99));
+        assertEquals(0, histogram.snapshot().p50Nanos);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        for (long value = 0; value < 16; value++) {
+            assertEquals(value, LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value)));
+        }
+    }
+
+    @Test
+    public void everyValueFallsWithinItsBucket() {
+        // Ogni valore supera il limite superiore del bucket precedente e non supera quello del proprio.
+        for (long value = 1; value < (1L << 40); value = value * 3 / 2 + 1) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void quantilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1..1000 µs, uniformi.
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertQuantile(500_000, histogram.getValueAtQuantile(0.50));
+        assertQuantile(950_000, histogram.getValueAtQuantile(0.95));
+        assertQuantile(990_000, histogram.getValueAtQuantile(0.99));
+        // Mai oltre il massimo osservato.
+        assertEquals(1_000_000, histogram.getValueAtQuantile(1.0));
+        assertEquals(1_000_000, histogram.getMaxNanos());
+    }
+
+    private static void assertQuantile(long expected, long actual) {
+        // Approssimato per eccesso, errore relativo massimo 1/16.
+        assertTrue("atteso >= " + expected + ", ottenuto " + actual, actual >= expected);
+        assertTrue("atteso <= " + expected * 17 / 16 + ", ottenuto " + actual, actual <= expected * 17 / 16);
+    }
+
+    @Test
+    public void outliersDoNotMoveMedian() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(2_000_000);
+        }
+        histogram.record(5_000_000_000L);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertQuantile(2_000_000, snapshot.p50Nanos);
+        assertQuantile(2_000_000, snapshot.p95Nanos);
+        assertEquals(5_000_000_000L, snapshot.maxNanos);
+    }
+
+    @Test
+    public void negativeAndHugeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        // Oltre 2^40 ns tutto finisce nell'ultimo bucket.
+        assertTrue(histogram.getValueAtQuantile(1.0) >= 1L << 40);
+        assertEquals(Long.MAX_VALUE, histogram.getMaxNanos());
+    }
+
+    @Test
+    public void resetClearsCounts() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1234);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+    }
+}
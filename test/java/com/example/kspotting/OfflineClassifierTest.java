@@ -0,0 +1,203 @@
+package com.example.kspotting;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OfflineClassifierTest {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int WINDOW = 1600; // 100 ms
+    private static final long HOP_MS = 50;
+    private static final int SPEECH = 0;
+    private static final int BACKGROUND = 1;
+    // Con questo RMS il motore finto assegna 0.9 a "speech".
+    private static final float FULL_SCALE_RMS = 0.1f;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LabelTable labelTable = new LabelTable.Builder().add(SPEECH, "speech").add(BACKGROUND, "background").build();
+
+    private OfflineClassifier newClassifier(int workers) throws IOException {
+        return new OfflineClassifier(() -> new FakeInferenceEngine(labelTable, SAMPLE_RATE, WINDOW,
+                FakeInferenceEngine.energyScores(SPEECH, BACKGROUND, FULL_SCALE_RMS), 0), workers, HOP_MS);
+    }
+
+    // Silenzio con un tono a 300 Hz in [burstStartMs, burstEndMs) e RMS pari a speechScore * FULL_SCALE_RMS.
+    private static short[] recording(int durationMs, int burstStartMs, int burstEndMs, float speechScore) {
+        short[] samples = new short[SAMPLE_RATE * durationMs / 1000];
+        double amplitude = speechScore * FULL_SCALE_RMS * Math.sqrt(2) * 32768;
+        for (int i = SAMPLE_RATE * burstStartMs / 1000; i < SAMPLE_RATE * burstEndMs / 1000; i++) {
+            samples[i] = (short) Math.round(amplitude * Math.sin(2 * Math.PI * 300 * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    private File writeRaw(short[] samples) throws IOException {
+        File file = folder.newFile("registrazione.pcm");
+        ByteBuffer bytes = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asShortBuffer().put(samples);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(bytes.array());
+        }
+        return file;
+    }
+
+    private File writeWav(short[] samples, int sampleRate) throws IOException {
+        File file = folder.newFile("registrazione.wav");
+        int dataLength = samples.length * 2;
+        ByteBuffer bytes = ByteBuffer.allocate(44 + dataLength).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(0x46464952).putInt(36 + dataLength).putInt(0x45564157);
+        bytes.putInt(0x20746d66).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(sampleRate).putInt(sampleRate * 2).putShort((short) 2).putShort((short) 16);
+        bytes.putInt(0x61746164).putInt(dataLength);
+        bytes.asShortBuffer().put(samples);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(bytes.array());
+        }
+        return file;
+    }
+
+    private static KeywordRules rules(String text) throws IOException {
+        return KeywordRules.parse(new StringReader(text));
+    }
+
+    private static List<ClassificationLogEntry> speechDetections(OfflineClassifier.Report report) {
+        List<ClassificationLogEntry> speech = new ArrayList<>();
+        for (ClassificationLogEntry entry : report.detections) {
+            if (entry.label.equals("speech")) {
+                speech.add(entry);
+            }
+        }
+        return speech;
+    }
+
+    @Test
+    public void detectsBurstAtItsTime() throws Exception {
+        File file = writeRaw(recording(10_000, 4000, 5000, 0.9f));
+        OfflineClassifier classifier = newClassifier(1);
+        try {
+            OfflineClassifier.Report report = classifier.classify(file, SAMPLE_RATE, 1_000_000, rules("speech 0.8"));
+            assertEquals((10 * SAMPLE_RATE - WINDOW) / (SAMPLE_RATE * HOP_MS / 1000) + 1, report.windows);
+            assertEquals(10.0, report.audioSeconds, 1e-9);
+
+            List<ClassificationLogEntry> speech = speechDetections(report);
+            assertEquals(1, speech.size());
+            // La media su tre finestre supera la soglia poco dopo l'inizio del tono.
+            long offsetMs = speech.get(0).timestamp - 1_000_000;
+            assertTrue("rilevazione a " + offsetMs + " ms", offsetMs >= 4000 && offsetMs <= 4300);
+            // Confidenza: la media livellata nel momento dell'attraversamento.
+            assertTrue(speech.get(0).confidence >= 0.8f && speech.get(0).confidence <= 0.9f);
+        } finally {
+            classifier.close();
+        }
+    }
+
+    @Test
+    public void resultIndependentOfWorkerCount() throws Exception {
+        File file = writeRaw(recording(20_000, 3000, 4500, 0.9f));
+        List<ClassificationLogEntry> expected = null;
+        for (int workers : new int[]{1, 3, 8}) {
+            OfflineClassifier classifier = newClassifier(workers);
+            try {
+                List<ClassificationLogEntry> detections = classifier.classify(file, SAMPLE_RATE, 0, rules("speech")).detections;
+                if (expected == null) {
+                    expected = detections;
+                    continue;
+                }
+                assertEquals(expected.size(), detections.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).label, detections.get(i).label);
+                    assertEquals(expected.get(i).timestamp, detections.get(i).timestamp);
+                    assertEquals(expected.get(i).confidence, detections.get(i).confidence, 0f);
+                }
+            } finally {
+                classifier.close();
+            }
+        }
+    }
+
+    @Test
+    public void keywordThresholdsApply() throws Exception {
+        File file = writeRaw(recording(6000, 2000, 3000, 0.9f));
+        OfflineClassifier classifier = newClassifier(2);
+        try {
+            // Soglia predefinita (0.80): il tono viene rilevato.
+            assertEquals(1, speechDetections(classifier.classify(file, SAMPLE_RATE, 0, rules(""))).size());
+            // Soglia della regola sopra il punteggio: nessuna rilevazione.
+            assertEquals(0, speechDetections(classifier.classify(file, SAMPLE_RATE, 0, rules("speech 0.95"))).size());
+        } finally {
+            classifier.close();
+        }
+    }
+
+    @Test
+    public void silentWindowsAreGatedLikeTheLivePath() throws Exception {
+        File file = writeRaw(recording(10_000, 4000, 5000, 0.9f));
+        OfflineClassifier classifier = newClassifier(2);
+        try {
+            OfflineClassifier.Report gatedReport = classifier.classify(file, SAMPLE_RATE, 0, rules("speech 0.8"));
+            // Solo le finestre vicine al tono arrivano al modello.
+            assertTrue(gatedReport.toString(), gatedReport.gatedWindows > gatedReport.windows * 3 / 4);
+            assertEquals(1, speechDetections(gatedReport).size());
+            // Nel silenzio lo sfondo non viene nemmeno classificato.
+            for (ClassificationLogEntry entry : gatedReport.detections) {
+                assertTrue(entry.label + " a " + entry.timestamp + " ms", entry.timestamp > 4000);
+            }
+
+            classifier.setVoiceActivityGate(false);
+            OfflineClassifier.Report fullReport = classifier.classify(file, SAMPLE_RATE, 0, rules("speech 0.8"));
+            assertEquals(0, fullReport.gatedWindows);
+            assertEquals(gatedReport.windows, fullReport.windows);
+            assertEquals(1, speechDetections(fullReport).size());
+        } finally {
+            classifier.close();
+        }
+    }
+
+    @Test
+    public void wavHeaderRateMustMatchModel() throws Exception {
+        short[] samples = recording(2000, 500, 1500, 0.9f);
+        OfflineClassifier classifier = newClassifier(1);
+        try {
+            File wav = writeWav(samples, SAMPLE_RATE);
+            // L'intestazione WAV prevale sulla frequenza indicata per i file grezzi.
+            assertEquals(1, speechDetections(classifier.classify(wav, 8000, 0, rules("speech"))).size());
+            try {
+                classifier.classify(writeRaw(samples), 8000, 0, rules("speech"));
+                fail("Frequenza diversa da quella del modello accettata");
+            } catch (IOException expected) {
+                // atteso
+            }
+        } finally {
+            classifier.close();
+        }
+    }
+
+    @Test
+    public void recordingShorterThanWindowHasNoWindows() throws Exception {
+        File file = writeRaw(new short[WINDOW - 1]);
+        OfflineClassifier classifier = newClassifier(2);
+        try {
+            OfflineClassifier.Report report = classifier.classify(file, SAMPLE_RATE, 0, rules("speech"));
+            assertEquals(0, report.windows);
+            assertTrue(report.detections.isEmpty());
+        } finally {
+            classifier.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.kspotting;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PosteriorSmootherTest {
+
+    private static final int LABELS = 3;
+    private static final long STEP_MS = 100;
+
+    private PosteriorSmoother smoother;
+    private float[] scores;
+    private long timestampMs;
+
+    @Before
+    public void setUp() {
+        smoother = new PosteriorSmoother(LABELS, 4, 1000, 0.5f);
+        scores = new float[LABELS];
+        timestampMs = 0;
+    }
+
+    private int feed(float s0, float s1, float s2) {
+        scores[0] = s0;
+        scores[1] = s1;
+        scores[2] = s2;
+        timestampMs += STEP_MS;
+        return smoother.update(scores, timestampMs);
+    }
+
+    @Test
+    public void smoothedScoreIsMovingAverage() {
+        feed(1f, 0f, 0f);
+        // Finestra non ancora piena: media sui soli valori ricevuti.
+        assertEquals(1f, smoother.getSmoothedScore(0), 1e-6f);
+        feed(0f, 0f, 0f);
+        assertEquals(0.5f, smoother.getSmoothedScore(0), 1e-6f);
+        feed(0f, 0f, 0f);
+        feed(0f, 0f, 0f);
+        assertEquals(0.25f, smoother.getSmoothedScore(0), 1e-6f);
+        // Il primo valore esce dalla finestra.
+        feed(0f, 0f, 0f);
+        assertEquals(0f, smoother.getSmoothedScore(0), 1e-6f);
+    }
+
+    @Test
+    public void singleSpikeBelowThresholdAfterAveraging() {
+        for (int i = 0; i < 4; i++) {
+            assertEquals(PosteriorSmoother.NO_DECISION, feed(0f, 0f, 0f));
+        }
+        // Un picco isolato pesa un quarto della media.
+        assertEquals(PosteriorSmoother.NO_DECISION, feed(0f, 0.9f, 0f));
+        assertEquals(PosteriorSmoother.NO_DECISION, feed(0f, 0f, 0f));
+    }
+
+    @Test
+    public void decidesOnceOnUpwardCrossing() {
+        assertEquals(1, feed(0f, 0.9f, 0f));
+        assertEquals(0.9f, smoother.getLastDecisionScore(), 1e-6f);
+        // Resta sopra la soglia: nessuna nuova decisione.
+        for (int i = 0; i < 20; i++) {
+            assertEquals(PosteriorSmoother.NO_DECISION, feed(0f, 0.9f, 0f));
+        }
+    }
+
+    @Test
+    public void crossingDuringRefractoryDecidesWhenItEnds() {
+        assertEquals(1, feed(0f, 0.9f, 0f));
+        // Scende sotto la soglia e risale prima della fine del periodo refrattario.
+        for (int i = 0; i < 4; i++) {
+            feed(0f, 0f, 0f);
+        }
+        while (timestampMs < 1000) {
+            assertEquals(PosteriorSmoother.NO_DECISION, feed(0f, 1f, 0f));
+        }
+        assertTrue(smoother.getSmoothedScore(1) >= 0.5f);
+        // La media è ancora sopra: la decisione arriva appena il periodo refrattario finisce.
+        assertEquals(1, feed(0f, 1f, 0f));
+        assertEquals(1100, timestampMs);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(PosteriorSmoother.NO_DECISION, feed(0f, 1f, 0f));
+        }
+    }
+
+    @Test
+    public void highestAverageWinsWhenSeveralCross() {
+        assertEquals(2, feed(0.6f, 0f, 0.8f));
+        assertEquals(0.8f, smoother.getLastDecisionScore(), 1e-6f);
+        // L'etichetta scartata non perde l'attraversamento: decide alla finestra successiva.
+        assertEquals(0, feed(0.6f, 0f, 0.8f));
+        assertEquals(0.6f, smoother.getLastDecisionScore(), 1e-6f);
+        assertEquals(PosteriorSmoother.NO_DECISION, feed(0.6f, 0f, 0.8f));
+    }
+
+    @Test
+    public void longRunDoesNotDrift() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1_000_000; i++) {
+            feed(random.nextFloat(), random.nextFloat(), random.nextFloat());
+        }
+        for (int i = 0; i < 4; i++) {
+            feed(0f, 0.3f, 0f);
+        }
+        assertEquals(0f, smoother.getSmoothedScore(0), 0f);
+        assertEquals(0.3f, smoother.getSmoothedScore(1), 1e-7f);
+    }
+
+    @Test
+    public void perLabelThresholdDisablesLabel() {
+        smoother.setThreshold(0, 1.1f);
+        assertEquals(PosteriorSmoother.NO_DECISION, feed(1f, 0f, 0f));
+        smoother.setThreshold(2, 0.2f);
+        assertEquals(2, feed(1f, 0f, 0.5f));
+    }
+
+    @Test
+    public void emptyResultClearsHistory() {
+        LabelTable table = new LabelTable.Builder().add(0, "a").add(1, "b").add(2, "c").build();
+        ClassificationResult result = new ClassificationResult(2, table);
+        result.offer(1, 0.9f);
+        result.setTimestampMs(100);
+        assertEquals(1, smoother.update(result));
+
+        result.clear();
+        assertEquals(PosteriorSmoother.NO_DECISION, smoother.update(result));
+        assertEquals(0f, smoother.getSmoothedScore(1), 0f);
+
+        // Dopo lo scarto la media riparte, ma il periodo refrattario resta.
+        result.offer(1, 0.9f);
+        result.setTimestampMs(500);
+        assertEquals(PosteriorSmoother.NO_DECISION, smoother.update(result));
+        smoother.reset();
+        assertEquals(1, smoother.update(result));
+    }
+
+    @Test
+    public void rowOffsetReadsMatrixRow() {
+        float[] matrix = {0f, 0f, 0f, 0f, 0f, 0.7f};
+        assertEquals(2, smoother.update(matrix, LABELS, STEP_MS));
+    }
+}
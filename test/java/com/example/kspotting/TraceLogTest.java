@@ -0,0 +1,104 @@
+package com.example.kspotting;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TraceLogTest {
+
+    private static final TraceLog.Event COUNTER =
+            TraceLog.event(TraceLog.INFO, "Test", "%1$s %2$d/%3$d");
+    private static final TraceLog.Event DETAIL =
+            TraceLog.event(TraceLog.DEBUG, "Test", "dettaglio %2$d");
+
+    @Test
+    public void recordIsFormattedOnlyOnRead() {
+        TraceLog trace = new TraceLog(8);
+        trace.trace(COUNTER, "stop", 3, 4, 0f);
+        List<String> lines = trace.format();
+
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).endsWith(" ms I/Test: stop 3/4"));
+    }
+
+    @Test
+    public void eventsBelowMinLevelAreNotRecorded() {
+        TraceLog trace = new TraceLog(8);
+        trace.setMinLevel(TraceLog.INFO);
+        assertFalse(trace.isEnabled(TraceLog.DEBUG));
+        assertTrue(trace.isEnabled(TraceLog.WARN));
+
+        trace.trace(DETAIL, 1);
+        assertEquals(0, trace.getRecordedCount());
+        trace.trace(COUNTER, "off", 1, 2, 0f);
+        assertEquals(1, trace.getRecordedCount());
+
+        trace.setMinLevel(TraceLog.VERBOSE);
+        trace.trace(DETAIL, 7);
+        List<String> lines = trace.format();
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(1), lines.get(1).endsWith("D/Test: dettaglio 7"));
+    }
+
+    @Test
+    public void oldestRecordsAreOverwritten() {
+        TraceLog trace = new TraceLog(4);
+        for (int i = 0; i < 10; i++) {
+            trace.trace(COUNTER, i, i * 2);
+        }
+        List<String> lines = trace.format();
+
+        assertEquals(10, trace.getRecordedCount());
+        assertEquals(4, lines.size());
+        for (int i = 0; i < 4; i++) {
+            int expected = 6 + i;
+            assertTrue(lines.get(i), lines.get(i).endsWith("null " + expected + "/" + expected * 2));
+        }
+    }
+
+    @Test
+    public void concurrentReaderNeverSeesMixedRecords() throws InterruptedException {
+        // Buffer minimo: lo scrittore riscrive di continuo gli slot che il lettore sta formattando.
+        TraceLog trace = new TraceLog(4);
+        int readRounds = 50_000;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> torn = new AtomicReference<>();
+        // Ogni record ha b = 3 * a + 1.
+        Pattern pattern = Pattern.compile("w (\\d+)/(\\d+)$");
+
+        Thread writer = new Thread(() -> {
+            for (long a = 0; !done.get(); a++) {
+                trace.trace(COUNTER, "w", a, 3 * a + 1, 0f);
+            }
+        });
+        writer.start();
+        for (int round = 0; round < readRounds && torn.get() == null; round++) {
+            for (String line : trace.format()) {
+                Matcher matcher = pattern.matcher(line);
+                if (!matcher.find() || Long.parseLong(matcher.group(2)) != 3 * Long.parseLong(matcher.group(1)) + 1) {
+                    torn.set(line);
+                    break;
+                }
+            }
+        }
+        done.set(true);
+        writer.join();
+
+        assertNull(torn.get());
+        assertTrue(trace.getRecordedCount() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCapacityIsRejected() {
+        new TraceLog(0);
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.kspotting;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VoiceActivityDetectorTest {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME = 320; // 20 ms, come il blocco di acquisizione
+
+    private VoiceActivityDetector vad;
+    private float[] frame;
+    private long position;
+    private long sampleIndex;
+    private final Random random = new Random(1);
+
+    @Before
+    public void setUp() {
+        vad = new VoiceActivityDetector();
+        frame = new float[FRAME];
+        position = 0;
+        sampleIndex = 0;
+    }
+
+    // Sinusoide a frequenza fissa con ampiezza RMS in dBFS.
+    private boolean feedTone(float frequencyHz, float rmsDb) {
+        float amplitude = (float) (Math.pow(10, rmsDb / 20) * Math.sqrt(2));
+        for (int i = 0; i < FRAME; i++, sampleIndex++) {
+            frame[i] = amplitude * (float) Math.sin(2 * Math.PI * frequencyHz * sampleIndex / SAMPLE_RATE);
+        }
+        return feed();
+    }
+
+    private boolean feedWhiteNoise(float rmsDb) {
+        float sigma = (float) Math.pow(10, rmsDb / 20);
+        for (int i = 0; i < FRAME; i++, sampleIndex++) {
+            frame[i] = sigma * (float) random.nextGaussian();
+        }
+        return feed();
+    }
+
+    private boolean feed() {
+        // Il frame arriva in due segmenti, come quando attraversa la fine del buffer circolare.
+        vad.accept(frame, 0, FRAME / 2);
+        vad.accept(frame, FRAME / 2, FRAME - FRAME / 2);
+        position += FRAME;
+        return vad.finishFrame(position);
+    }
+
+    @Test
+    public void silenceStaysInactive() {
+        for (int i = 0; i < 500; i++) {
+            assertFalse(feedTone(300, -90));
+        }
+        assertEquals(0, vad.getActiveFrames());
+        assertFalse(vad.hasActivitySince(0));
+    }
+
+    @Test
+    public void speechBurstActivatesAndReleasesAfterHangover() {
+        for (int i = 0; i < 100; i++) {
+            feedWhiteNoise(-70);
+        }
+        assertFalse(vad.isActive());
+        long burstStart = position;
+        for (int i = 0; i < 25; i++) {
+            feedTone(300, -25);
+        }
+        assertTrue(vad.isActive());
+        assertTrue(vad.hasActivitySince(burstStart));
+
+        int framesToRelease = 0;
+        while (feedWhiteNoise(-70)) {
+            framesToRelease++;
+            assertTrue("Il VAD non si rilascia dopo il parlato", framesToRelease < 100);
+        }
+        // Hangover predefinito di 15 frame.
+        assertEquals(14, framesToRelease);
+    }
+
+    @Test
+    public void broadbandNoiseDoesNotActivate() {
+        // ZCR vicino a 0.5: rumore, non voce, anche se forte. Qualche frame isolato con ZCR più
+        // basso può attivare finché il rumore di fondo non lo ha raggiunto, poi il VAD resta fermo.
+        int active = 0;
+        for (int i = 0; i < 300; i++) {
+            if (feedWhiteNoise(-20) && i >= 200) {
+                active++;
+            }
+        }
+        assertEquals(0, active);
+        assertEquals(-20f, vad.getNoiseFloorDb(), 1f);
+    }
+
+    @Test
+    public void steadyHumPresentAtStartupDoesNotLatch() {
+        // 60 s di ronzio a 100 Hz e -45 dBFS: supera di 15 dB il rumore di fondo iniziale (-60 dB).
+        int activeInLastTenSeconds = 0;
+        int frames = 60 * SAMPLE_RATE / FRAME;
+        for (int i = 0; i < frames; i++) {
+            boolean active = feedTone(100, -45);
+            if (active && i >= frames - 10 * SAMPLE_RATE / FRAME) {
+                activeInLastTenSeconds++;
+            }
+        }
+        assertFalse(vad.isActive());
+        assertEquals(0, activeInLastTenSeconds);
+        assertEquals(-45f, vad.getNoiseFloorDb(), 1f);
+    }
+
+    @Test
+    public void noiseStepWhileActiveDoesNotLatch() {
+        for (int i = 0; i < 100; i++) {
+            feedWhiteNoise(-70);
+        }
+        for (int i = 0; i < 10; i++) {
+            feedTone(300, -25);
+        }
+        assertTrue(vad.isActive());
+        // Il rumore stazionario sale durante l'attività e resta.
+        for (int i = 0; i < 20 * SAMPLE_RATE / FRAME; i++) {
+            feedTone(120, -40);
+        }
+        assertFalse(vad.isActive());
+        // Il parlato sopra il nuovo rumore di fondo viene ancora rilevato.
+        boolean detected = false;
+        for (int i = 0; i < 10; i++) {
+            detected |= feedTone(300, -20);
+        }
+        assertTrue(detected);
+    }
+
+    @Test
+    public void resetRestoresInitialState() {
+        for (int i = 0; i < 10; i++) {
+            feedTone(300, -25);
+        }
+        assertTrue(vad.isActive());
+        vad.reset();
+        assertFalse(vad.isActive());
+        assertFalse(vad.hasActivitySince(Long.MIN_VALUE + 1));
+        assertEquals(-60f, vad.getNoiseFloorDb(), 0f);
+    }
+}